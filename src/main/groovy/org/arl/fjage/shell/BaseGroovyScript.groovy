@@ -606,15 +606,7 @@ abstract class BaseGroovyScript extends Script {
     Binding binding = getBinding()
     if (binding.hasVariable('__agent__')) {
       ShellAgent a = binding.getVariable('__agent__')
-      MessageFilter f = new MessageFilter() {
-        private String mid = msg.getMessageID()
-        boolean matches(Message m) {
-          String s = m.getInReplyTo()
-          if (s == null) return false
-          return s.equals(mid)
-        }
-      }
-      return a.receive(f, timeout)
+      return a.receive(new ReplyMessageFilter(msg), timeout)
     }
     return null
   }
@@ -12,11 +12,13 @@ package org.arl.fjage;
 
 import java.io.Serializable;
 import java.util.*;
-import java.util.TimerTask;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Consumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -68,6 +70,12 @@ public class Agent implements Runnable, TimestampProvider, Messenger {
    */
   public static final long BLOCKING = -1;
 
+  /**
+   * Maximum number of behaviors executed by a pooled agent before it yields
+   * its thread to other agents in the pool.
+   */
+  private static final int SLICE_SIZE = 16;
+
   /////////////////////// Log levels
 
   protected static final Level ALL = Level.ALL;
@@ -87,6 +95,7 @@ public class Agent implements Runnable, TimestampProvider, Messenger {
   private Queue<Behavior> newBehaviors = new ArrayDeque<>();
   private Queue<Behavior> activeBehaviors = new PriorityQueue<>();
   private Queue<Behavior> blockedBehaviors = new ArrayDeque<>();
+  private Map<Class<?>,List<Behavior>> blockedByClass = new HashMap<>();
   private Stack<MessageFilter> exclusions = new Stack<>();
   private volatile boolean restartBehaviors = false;
   private boolean unblocked = false;
@@ -94,6 +103,32 @@ public class Agent implements Runnable, TimestampProvider, Messenger {
   private Container container = null;
   private MessageQueue queue = new MessageQueue(256);
   private boolean yieldDuringReceive = false;
+  private volatile ForkJoinPool pool = null;
+  private boolean parked = false;
+  private long parkedAt = 0;
+  private boolean started = false;
+
+  // runtime metrics, only updated by the agent thread (except deliveries)
+  private final LongAdder delivered = new LongAdder();
+  private volatile long received = 0;
+  private volatile long actionTime = 0;
+  private volatile long blockedTime = 0;
+  private volatile long wakeups = 0;
+  private long initTime = 0;
+  private boolean restoring = false;
+  private Serializable restoreState = null;
+
+  // timers, as creation and due times, for checkpoints of a simulation
+  private int nBehaviors = 0;
+  private volatile Cancellable timer = null;
+  private Map<Integer,long[]> restoredTimers = null;
+  private long[] restoredTimer = null;
+
+  // random number generator, split from the platform's when the agent is added
+  AgentLocalRandom random = null;
+
+  // busy/idle state as accounted by the container
+  final AtomicInteger activity = new AtomicInteger(Container.UNCOUNTED);
   protected long tid = -1;
   protected Thread thread = null;
   protected boolean ignoreExceptions = false;
@@ -173,27 +208,34 @@ public class Agent implements Runnable, TimestampProvider, Messenger {
    * {@link #wake()} method.
    */
   protected synchronized void block() {
-    if (state == AgentState.FINISHING) return;
-    if (!unblocked) {
-      unblocked = true;
-      if (restartBehaviors) return;
-      for (Behavior b: blockedBehaviors)
-        if (!b.isBlocked()) return;
-    }
-    unblocked = false;
-    oldState = state;
-    state = AgentState.IDLE;
-    container.reportIdle(aid);
+    if (!goIdle()) return;
+    long t0 = System.nanoTime();
     try {
-      wait();
+      if (pool == null) wait();
+      else {
+        // let the pool compensate for the thread we hold while blocked
+        ForkJoinPool.managedBlock(new ForkJoinPool.ManagedBlocker() {
+          @Override
+          public boolean block() throws InterruptedException {
+            Agent.this.wait();
+            return true;
+          }
+          @Override
+          public boolean isReleasable() {
+            return false;
+          }
+        });
+      }
     } catch (InterruptedException ex) {
       Thread.currentThread().interrupt();
     }
+    blockedTime += System.nanoTime() - t0;
+    wakeups++;
     if (state == AgentState.IDLE) {
       log.info("block() interrupted");
       if (oldState != AgentState.NONE) {
         state = oldState;
-        if (container != null) container.reportBusy(aid);
+        if (container != null) container.reportBusy(this);
         oldState = AgentState.NONE;
       }
     }
@@ -206,13 +248,11 @@ public class Agent implements Runnable, TimestampProvider, Messenger {
    * @param millis timeout in milliseconds
    */
   protected void block(long millis) {
-    platform.schedule(new TimerTask() {
-        @Override
-        public void run() {
-          wake();
-        }
-      }, millis);
+    Cancellable timeout = platform.scheduleCancellable(this::wake, millis);
+    timer = timeout;
     block();
+    timer = null;
+    timeout.cancel();
   }
 
   /**
@@ -238,10 +278,14 @@ public class Agent implements Runnable, TimestampProvider, Messenger {
   public synchronized void wake() {
     if (oldState != AgentState.NONE) {
       state = oldState;
-      if (container != null) container.reportBusy(aid);
+      if (container != null) container.reportBusy(this);
       oldState = AgentState.NONE;
     }
-    notify();
+    if (parked) {
+      parked = false;
+      pool.execute(this::runSlice);
+    }
+    else notify();
   }
 
   /**
@@ -250,7 +294,7 @@ public class Agent implements Runnable, TimestampProvider, Messenger {
   public void stop() {
     if (state == AgentState.FINISHED  || state == AgentState.FINISHING) return;
     state = oldState = AgentState.FINISHING;
-    if (container != null) container.reportBusy(aid);
+    if (container != null) container.reportBusy(this);
     wake();
   }
 
@@ -263,6 +307,8 @@ public class Agent implements Runnable, TimestampProvider, Messenger {
    */
   public synchronized Behavior add(Behavior b) {
     b.setOwner(this);
+    b.index = nBehaviors++;
+    if (restoredTimers != null) b.restoredTimer = restoredTimers.remove(b.index);
     newBehaviors.add(b);
     wake();
     return b;
@@ -397,9 +443,32 @@ public class Agent implements Runnable, TimestampProvider, Messenger {
 
   @Override
   public boolean send(final Message m) {
-    if (container == null) return false;
-    m.setSender(aid);
-    return container.send(m);
+    try {
+      if (container == null) return false;
+      m.setSenderOnSend(aid);
+      return container.send(m);
+    } finally {
+      m.releaseOnSend();
+    }
+  }
+
+  /**
+   * Sends a batch of messages. Messages to the same recipient are delivered
+   * together, with a single wake-up of the recipient.
+   *
+   * @param msgs messages to be sent.
+   * @return true if all messages were delivered, false otherwise.
+   */
+  public boolean send(Collection<Message> msgs) {
+    try {
+      if (container == null) return false;
+      for (Message m: msgs)
+        m.setSenderOnSend(aid);
+      return container.send(msgs);
+    } finally {
+      for (Message m: msgs)
+        m.releaseOnSend();
+    }
   }
 
   /**
@@ -421,9 +490,10 @@ public class Agent implements Runnable, TimestampProvider, Messenger {
    * @param m message to be sent.
    */
   public void platformSend(Message m) {
-    m.setSender(aid);
+    m.setSenderOnSend(aid);
     for (Container c: platform.getContainers())
       c.send(m);
+    m.releaseOnSend();
   }
 
   /**
@@ -450,6 +520,18 @@ public class Agent implements Runnable, TimestampProvider, Messenger {
   public Message receive(MessageFilter filter, long timeout) {
     if (Thread.currentThread().getId() != tid)
       throw new FjageException("receive() should only be called from agent thread");
+    if (timeout == NON_BLOCKING || !(filter instanceof ReplyMessageFilter)) return receiveMessage(filter, timeout);
+    // index replies while we wait, so that we don't scan the queue on every wake up
+    String mid = ((ReplyMessageFilter)filter).getMessageID();
+    boolean indexed = queue.await(mid, true);
+    try {
+      return receiveMessage(filter, timeout);
+    } finally {
+      if (indexed) queue.release(mid);
+    }
+  }
+
+  private Message receiveMessage(MessageFilter filter, long timeout) {
     long deadline = 0;
     if (timeout != NON_BLOCKING) queue.commit(exclusions);
     Message m = queue.get(filter);
@@ -470,6 +552,10 @@ public class Agent implements Runnable, TimestampProvider, Messenger {
         m = queue.get(filter);
       } while (m == null && (timeout == BLOCKING || currentTimeMillis() < deadline));
     }
+    // messages read back from a spill file enter the queue without being delivered,
+    // so behaviors blocked waiting for them must be restarted here
+    if (!queue.getArrivals().isEmpty()) restartBehaviors = true;
+    if (m != null) received++;
     return m;
   }
 
@@ -507,15 +593,7 @@ public class Agent implements Runnable, TimestampProvider, Messenger {
   public Message receive(final Message m, long timeout) {
     if (container instanceof SlaveContainer)
       ((SlaveContainer)container).checkAuthFailure(m.getMessageID());
-    Message rsp = receive(new MessageFilter() {
-      private String mid = m.getMessageID();
-      @Override
-      public boolean matches(Message m) {
-        String s = m.getInReplyTo();
-        if (s == null) return false;
-        return s.equals(mid);
-      }
-    }, timeout);
+    Message rsp = receive(new ReplyMessageFilter(m), timeout);
     if (rsp != null) return rsp;
     if (container instanceof SlaveContainer)
       ((SlaveContainer)container).checkAuthFailure(m.getMessageID());
@@ -526,8 +604,17 @@ public class Agent implements Runnable, TimestampProvider, Messenger {
   public Message request(final Message msg, long timeout) {
     if (Thread.currentThread().getId() != tid)
       throw new FjageException("request() should only be called from agent thread "+tid+", but called from "+Thread.currentThread().getId());
-    if (!send(msg)) return null;
-    return receive(msg, timeout);
+    // index replies before sending, in case the response arrives before we start waiting
+    String mid = msg.getMessageID();
+    boolean indexed = timeout != NON_BLOCKING && queue.await(mid, false);
+    msg.retain();   // a pooled request is needed until the response arrives
+    try {
+      if (!send(msg)) return null;
+      return receive(msg, timeout);
+    } finally {
+      msg.release();
+      if (indexed) queue.release(mid);
+    }
   }
 
   /**
@@ -544,14 +631,192 @@ public class Agent implements Runnable, TimestampProvider, Messenger {
 
   /**
    * Sets the maximum length of the incoming message queue for the agent.
-   * If the queue overflows, the oldest messages are dropped.
+   * If the queue overflows, messages are handled as specified by the
+   * overflow policy of the agent. This also applies to messages already in
+   * the queue when its size is reduced.
    *
-   * @param size maximum number of messages in the message queue.
+   * @param size maximum number of messages in the message queue, 0 for unlimited.
    */
   public void setQueueSize(int size) {
     queue.setSize(size);
   }
 
+  /**
+   * Gets the maximum length of the incoming message queue for the agent.
+   *
+   * @return maximum number of messages in the message queue, 0 if unlimited.
+   */
+  public int getQueueSize() {
+    return queue.getSize();
+  }
+
+  /**
+   * Sets the action taken when a message is delivered to the agent while its
+   * incoming message queue is full. By default, the oldest message in the queue
+   * is dropped.
+   *
+   * @param policy overflow policy.
+   */
+  public void setOverflowPolicy(OverflowPolicy policy) {
+    queue.setOverflowPolicy(policy);
+  }
+
+  /**
+   * Gets the action taken when a message is delivered to the agent while its
+   * incoming message queue is full.
+   *
+   * @return overflow policy.
+   */
+  public OverflowPolicy getOverflowPolicy() {
+    return queue.getOverflowPolicy();
+  }
+
+  /**
+   * Sets the maximum time for which a sender is blocked when the incoming
+   * message queue is full and the overflow policy is {@link OverflowPolicy#BLOCK}.
+   *
+   * @param millis timeout in milliseconds.
+   */
+  public void setOverflowTimeout(long millis) {
+    queue.setOverflowTimeout(millis);
+  }
+
+  /**
+   * Gets the maximum time for which a sender is blocked when the incoming
+   * message queue is full.
+   *
+   * @return timeout in milliseconds.
+   */
+  public long getOverflowTimeout() {
+    return queue.getOverflowTimeout();
+  }
+
+  /**
+   * Sets whether incoming messages of unspecified priority are queued at the
+   * priority associated with their performative. If enabled, requests and
+   * responses to requests are received ahead of other messages, such as
+   * notifications. By default, messages of unspecified priority are queued at
+   * normal priority.
+   *
+   * @param b true to derive priority from the performative, false otherwise.
+   * @see Message#setPriority(MessagePriority)
+   * @see MessagePriority#of(Message)
+   */
+  public void setPriorityFromPerformative(boolean b) {
+    queue.setPriorityFromPerformative(b);
+  }
+
+  /**
+   * Checks whether incoming messages of unspecified priority are queued at the
+   * priority associated with their performative.
+   *
+   * @return true if priority is derived from the performative, false otherwise.
+   */
+  public boolean getPriorityFromPerformative() {
+    return queue.getPriorityFromPerformative();
+  }
+
+  /**
+   * Gets the largest number of messages that have waited in the incoming
+   * message queue of the agent at once.
+   *
+   * @return high-water mark of the queue length.
+   */
+  public long getQueueHighWaterMark() {
+    return queue.getHighWaterMark();
+  }
+
+  /**
+   * Gets the number of messages dropped because the incoming message queue of
+   * the agent was full.
+   *
+   * @return number of dropped messages.
+   */
+  public long getDroppedMessages() {
+    return queue.getDropped();
+  }
+
+  /**
+   * Gets the number of messages dropped because they had expired before they
+   * were received by the agent.
+   *
+   * @return number of expired messages.
+   * @see Message#setTimeToLive(Long)
+   */
+  public long getExpiredMessages() {
+    return queue.getExpired();
+  }
+
+  /**
+   * Gets the number of messages spilled to disk because the incoming message
+   * queue of the agent was full.
+   *
+   * @return number of spilled messages.
+   */
+  public long getSpilledMessages() {
+    return queue.getSpilled();
+  }
+
+  /**
+   * Gets the number of messages waiting in the incoming message queue of the
+   * agent.
+   *
+   * @return number of messages in the queue.
+   */
+  public int getQueueLength() {
+    return queue.length();
+  }
+
+  /**
+   * Gets the number of messages delivered to the agent. This includes messages
+   * that were dropped because the incoming message queue was full, or because
+   * they had expired.
+   *
+   * @return number of messages delivered.
+   */
+  public long getMessagesDelivered() {
+    return delivered.sum();
+  }
+
+  /**
+   * Gets the number of messages received by the agent from its incoming
+   * message queue.
+   *
+   * @return number of messages received.
+   */
+  public long getMessagesReceived() {
+    return received;
+  }
+
+  /**
+   * Gets the total time spent by the agent executing behavior actions. This
+   * includes time spent blocked within actions.
+   *
+   * @return time in milliseconds.
+   */
+  public long getBehaviorTime() {
+    return actionTime/1000000;
+  }
+
+  /**
+   * Gets the total time the agent has spent blocked, waiting for messages or
+   * timers.
+   *
+   * @return time in milliseconds.
+   */
+  public long getBlockedTime() {
+    return blockedTime/1000000;
+  }
+
+  /**
+   * Gets the number of times the agent has been woken up after blocking.
+   *
+   * @return number of wake-ups.
+   */
+  public long getWakeups() {
+    return wakeups;
+  }
+
   /**
    * Subscribes the agent to receive all messages sent to the given topic.
    *
@@ -618,26 +883,41 @@ public class Agent implements Runnable, TimestampProvider, Messenger {
 
   /**
    * Finds an agent that provides a named service. If multiple agents are registered
-   * to provide a given service, any of the agents' id may be returned.
+   * to provide a given service, the agent is picked based on the container's
+   * service resolution strategy.
    *
    * @param service the named service of interest.
    * @return an agent id for an agent that provides the service.
+   * @see Container#setServiceResolution(ServiceResolution)
    */
   public AgentID agentForService(String service) {
-    AgentID a = container.agentForService(service);
-    if (a != null) a = new AgentID(a, this);
-    return a;
+    return agentForService(service, aid);
   }
 
   /**
    * Finds an agent that provides a named service. If multiple agents are registered
-   * to provide a given service, any of the agents' id may be returned.
+   * to provide a given service, the agent is picked based on the container's
+   * service resolution strategy.
    *
    * @param service the named service of interest.
    * @return an agent id for an agent that provides the service.
+   * @see Container#setServiceResolution(ServiceResolution)
    */
   public AgentID agentForService(Enum<?> service) {
-    AgentID a = container.agentForService(service.getClass().getName()+"."+service.toString());
+    return agentForService(service.getClass().getName()+"."+service.toString(), aid);
+  }
+
+  /**
+   * Finds an agent that provides a named service. If multiple agents are registered
+   * to provide a given service, and the container uses {@link ServiceResolution#STICKY}
+   * resolution, lookups with the same key return the same agent.
+   *
+   * @param service the named service of interest.
+   * @param key key for sticky resolution.
+   * @return an agent id for an agent that provides the service.
+   */
+  public AgentID agentForService(String service, Object key) {
+    AgentID a = container.agentForService(service, key);
     if (a != null) a = new AgentID(a, this);
     return a;
   }
@@ -723,6 +1003,7 @@ public class Agent implements Runnable, TimestampProvider, Messenger {
     this.aid = aid;
     this.container = container;
     platform = (container == null) ? null : container.getPlatform();
+    queue.setClock(platform);
     if (container != null) {
       String cname = container.getName();
       if (cname != null && !cname.startsWith("@"))
@@ -737,8 +1018,34 @@ public class Agent implements Runnable, TimestampProvider, Messenger {
    */
   final void deliver(Message m) {
     if (container == null) return;
-    log.finer("MSG "+m.getSender()+" > "+aid+"@"+tid+" : "+m.toString());
-    queue.add(container.autoclone(m));
+    if (log.isLoggable(Level.FINER)) log.finer("MSG "+m.getSender()+" > "+aid+"@"+tid+" : "+m.toString());
+    delivered.increment();
+    Message c = container.autoclone(m);
+    if (c == m) m.retain();
+    if (!queue.add(c) && c == m) m.release();
+    synchronized (this) {
+      restartBehaviors = true;
+      unblocked = false;
+      wake();
+    }
+  }
+
+  /**
+   * Delivers a batch of messages to the agent.
+   * Called by the container as needed.
+   */
+  final void deliver(List<Message> msgs) {
+    if (container == null) return;
+    List<Message> q = new ArrayList<Message>(msgs.size());
+    for (Message m: msgs) {
+      if (log.isLoggable(Level.FINER)) log.finer("MSG "+m.getSender()+" > "+aid+"@"+tid+" : "+m.toString());
+      Message c = container.autoclone(m);
+      if (c == m) m.retain();
+      q.add(c);
+    }
+    delivered.add(q.size());
+    for (Message m: queue.addAll(q))
+      m.release();    // drops the references retained above, clones are not pooled
     synchronized (this) {
       restartBehaviors = true;
       unblocked = false;
@@ -755,16 +1062,35 @@ public class Agent implements Runnable, TimestampProvider, Messenger {
         activeBehaviors.addAll(blockedBehaviors);
         blockedBehaviors.clear();
         queue.commit(exclusions);
+        // only restart message behaviors that may accept a newly arrived message
+        Set<Class<?>> arrivals = queue.getArrivals();
+        if (!arrivals.isEmpty() && !blockedByClass.isEmpty()) {
+          Iterator<Map.Entry<Class<?>,List<Behavior>>> it = blockedByClass.entrySet().iterator();
+          while (it.hasNext()) {
+            Map.Entry<Class<?>,List<Behavior>> e = it.next();
+            for (Class<?> cls: arrivals) {
+              if (e.getKey().isAssignableFrom(cls)) {
+                activeBehaviors.addAll(e.getValue());
+                it.remove();
+                break;
+              }
+            }
+          }
+        }
+        queue.clearArrivals();
       }
     } else {
-      Iterator<Behavior> iterator = blockedBehaviors.iterator();
-      while (iterator.hasNext()) {
-        Behavior b = iterator.next();
-        if (!b.isBlocked()) {
-          iterator.remove();
-          activeBehaviors.add(b);
+      if (!blockedBehaviors.isEmpty()) {
+        Iterator<Behavior> iterator = blockedBehaviors.iterator();
+        while (iterator.hasNext()) {
+          Behavior b = iterator.next();
+          if (!b.isBlocked()) {
+            iterator.remove();
+            activeBehaviors.add(b);
+          }
         }
       }
+      restartIndexed();
     }
     try {
       // assimilate any new behaviors
@@ -778,12 +1104,21 @@ public class Agent implements Runnable, TimestampProvider, Messenger {
       b = activeBehaviors.poll();
       if (b != null) {
         b.unblock();
-        b.action();
+        long t0 = System.nanoTime();
+        try {
+          b.action();
+        } finally {
+          long dt = System.nanoTime() - t0;
+          b.addActionTime(dt);
+          actionTime += dt;
+          SimulationProfiler profiler = platform.profiler;
+          if (profiler != null) profiler.action(this, b, dt);
+        }
         if (b.done()) {
           b.onEnd();
           b.setOwner(null);
         } else {
-          if (b.isBlocked()) blockedBehaviors.add(b);
+          if (b.isBlocked()) blockBehavior(b);
           else activeBehaviors.add(b);
         }
         return true;
@@ -806,10 +1141,12 @@ public class Agent implements Runnable, TimestampProvider, Messenger {
   public final void run() {
     thread = Thread.currentThread();
     tid = thread.getId();
+    AgentLocalRandom.attach(this);
+    LogHandlerProxy.bind(platform);
     state = AgentState.RUNNING;
-    container.reportBusy(aid);
+    container.reportBusy(this);
     try {
-      init();
+      timedInit();
       while (!container.isRunning()) {
         block();
         Thread.interrupted(); // interrupts used for disrupting timeouts only
@@ -822,21 +1159,212 @@ public class Agent implements Runnable, TimestampProvider, Messenger {
       log.log(Level.SEVERE, "Exception in agent: "+aid, ex);
       die(ex);
     }
+    terminate();
+    LogHandlerProxy.bind(null);
+  }
+
+  /**
+   * Runs a slice of the lifecycle of the agent on a pool thread. The slice ends
+   * when the agent has nothing more to do (and is parked until woken up), or
+   * when the agent has used up its share of the thread. Called by the
+   * {@link PooledAgentExecutor} as needed.
+   */
+  final void runSlice() {
+    Thread t = Thread.currentThread();
+    thread = t;
+    tid = t.getId();
+    AgentLocalRandom.attach(this);
+    LogHandlerProxy.bind(platform);
+    if (parkedAt != 0) {
+      blockedTime += System.nanoTime() - parkedAt;
+      wakeups++;
+      parkedAt = 0;
+    }
+    try {
+      try {
+        if (!started) {
+          started = true;
+          state = AgentState.RUNNING;
+          container.reportBusy(this);
+          timedInit();
+        }
+        int n = 0;
+        while (state != AgentState.FINISHING) {
+          if (!container.isRunning() || !executeBehavior()) {
+            if (park()) return;
+          } else if (++n >= SLICE_SIZE) {
+            pool.execute(this::runSlice);
+            return;
+          }
+          Thread.interrupted(); // interrupts used for disrupting timeouts only
+        }
+      } catch (Throwable ex) {
+        log.log(Level.SEVERE, "Exception in agent: "+aid, ex);
+        die(ex);
+      }
+      terminate();
+    } finally {
+      AgentLocalRandom.detach();
+      LogHandlerProxy.bind(null);
+    }
+  }
+
+  /**
+   * Sets the thread pool that the agent runs on. Called by the
+   * {@link PooledAgentExecutor} before the agent is started.
+   */
+  final void setPool(ForkJoinPool pool) {
+    this.pool = pool;
+  }
+
+  // shuts down agent and removes it from the container
+  private void terminate() {
     state = AgentState.RUNNING;
-    container.reportBusy(aid);
+    container.reportBusy(this);
     try {
       shutdown();
     } catch (Throwable ex) {
       log.log(Level.SEVERE, "Exception in agent: "+aid, ex);
     }
     state = AgentState.FINISHED;
-    container.reportIdle(aid);
+    container.reportIdle(this);
     container.kill(aid);
-    AgentLocalRandom.unbind();
+    AgentLocalRandom.detach();
     container = null;
     platform = null;
   }
 
+  // message behaviors that accept a message class are indexed by that class, so
+  // that they are only restarted when a message of that class arrives
+  private void blockBehavior(Behavior b) {
+    Class<?> cls = (b instanceof MessageBehavior) ? ((MessageBehavior)b).getMessageClass() : null;
+    if (cls == null) {
+      blockedBehaviors.add(b);
+      return;
+    }
+    List<Behavior> list = blockedByClass.get(cls);
+    if (list == null) {
+      list = new ArrayList<>(1);
+      blockedByClass.put(cls, list);
+    }
+    list.add(b);
+  }
+
+  // restarts indexed behaviors that were explicitly unblocked
+  private void restartIndexed() {
+    if (blockedByClass.isEmpty()) return;
+    Iterator<List<Behavior>> it = blockedByClass.values().iterator();
+    while (it.hasNext()) {
+      List<Behavior> list = it.next();
+      Iterator<Behavior> it1 = list.iterator();
+      while (it1.hasNext()) {
+        Behavior b = it1.next();
+        if (!b.isBlocked()) {
+          it1.remove();
+          activeBehaviors.add(b);
+        }
+      }
+      if (list.isEmpty()) it.remove();
+    }
+  }
+
+  // calls init(), recording the time taken, and restores checkpointed state if any
+  private void timedInit() {
+    long t0 = System.nanoTime();
+    try {
+      init();
+    } finally {
+      initTime = System.nanoTime() - t0;
+    }
+    if (restoring) {
+      restoring = false;
+      ((Checkpointable)this).restore(restoreState);
+      restoreState = null;
+    }
+    restoreTimers();
+  }
+
+  // timers to restore when forking from a checkpoint, for behaviors in the order
+  // they were added to the agent, and for the agent itself
+  synchronized void setRestoreTimers(Map<Integer,long[]> behaviors, long[] own) {
+    restoredTimers = new HashMap<Integer,long[]>(behaviors);
+    restoredTimer = own;
+    for (Behavior b: newBehaviors)
+      b.restoredTimer = restoredTimers.remove(b.index);
+  }
+
+  // re-arms the agent's own timer, once behaviors restored from a checkpoint have been added
+  private synchronized void restoreTimers() {
+    if (restoredTimers == null) return;
+    if (!restoredTimers.isEmpty()) log.warning(restoredTimers.size()+" behavior timers in checkpoint not restored, behaviors not found");
+    restoredTimers = null;
+    if (restoredTimer != null) ((DiscreteEventSimulator)platform).restoreTimer(restoredTimer[0], restoredTimer[1], this::wake);
+    restoredTimer = null;
+  }
+
+  // timers of behaviors that are yet to fire, by the order the behaviors were added
+  synchronized Map<Integer,long[]> getPendingTimers() {
+    Map<Integer,long[]> timers = new HashMap<Integer,long[]>();
+    List<Behavior> all = new ArrayList<Behavior>(newBehaviors);
+    all.addAll(activeBehaviors);
+    all.addAll(blockedBehaviors);
+    for (List<Behavior> list: blockedByClass.values())
+      all.addAll(list);
+    for (Behavior b: all) {
+      long[] t = b.getPendingTimer();
+      if (t != null) timers.put(b.index, t);
+    }
+    return timers;
+  }
+
+  // the agent's own timer while it is blocked with a timeout, if it is yet to fire
+  long[] getPendingTimer() {
+    return DiscreteEventSimulator.getPendingTimer(timer);
+  }
+
+  // state to restore after init(), set when forking from a checkpoint
+  void setRestoreState(Serializable state) {
+    restoreState = state;
+    restoring = true;
+  }
+
+  // messages waiting to be received, for checkpoints of a quiescent simulation
+  List<Message> getPendingMessages() {
+    return queue.snapshot();
+  }
+
+  // time taken by init() in nanoseconds, for the container to log
+  long getInitTime() {
+    return initTime;
+  }
+
+  // marks the agent as idle if it has nothing to do, returns true if the agent went idle
+  private boolean goIdle() {
+    if (state == AgentState.FINISHING) return false;
+    if (!unblocked) {
+      unblocked = true;
+      if (restartBehaviors) return false;
+      for (Behavior b: blockedBehaviors)
+        if (!b.isBlocked()) return false;
+      for (List<Behavior> list: blockedByClass.values())
+        for (Behavior b: list)
+          if (!b.isBlocked()) return false;
+    }
+    unblocked = false;
+    oldState = state;
+    state = AgentState.IDLE;
+    container.reportIdle(this);
+    return true;
+  }
+
+  // parks a pooled agent if it has nothing to do, returns true if the agent was parked
+  private synchronized boolean park() {
+    if (!goIdle()) return false;
+    parked = true;
+    parkedAt = System.nanoTime();
+    return true;
+  }
+
   private class InternalRequestSender
       implements RequestSender {
 
@@ -934,6 +1462,9 @@ public class Agent implements Runnable, TimestampProvider, Messenger {
         }
       }
 
+      if (request.getMessageID() == null) {
+        throw new IllegalArgumentException("Message does not have an ID");
+      }
       messageBehavior = new StoppableMessageBehavior(new ReplyMessageFilter(request)) {
 
         @Override
@@ -964,6 +1495,10 @@ public class Agent implements Runnable, TimestampProvider, Messenger {
         }
       };
 
+      if (Thread.currentThread().getId() == tid) {
+        // index replies before sending, in case the response arrives before the behavior starts
+        messageBehavior.indexed = queue.await(request.getMessageID(), false);
+      }
       add(messageBehavior);
 
       Agent.this.send(request);
@@ -1105,31 +1640,12 @@ public class Agent implements Runnable, TimestampProvider, Messenger {
       }
     }
 
-    private class ReplyMessageFilter
-        implements MessageFilter {
-
-      private final String messageId;
-
-      public ReplyMessageFilter(Message request) {
-        super();
-
-        messageId = request.getMessageID();
-        if (messageId == null) {
-          throw new IllegalArgumentException("Message does not have an ID");
-        }
-      }
-
-      @Override
-      public boolean matches(Message message) {
-        return ((message.getInReplyTo() != null) && message.getInReplyTo().equals(messageId));
-      }
-    }
-
     private class StoppableMessageBehavior
         extends Behavior {
 
       private final MessageFilter filter;
       private boolean quit = false;
+      private boolean indexed = false;
 
       public StoppableMessageBehavior() {
         this((MessageFilter) null);
@@ -1173,6 +1689,20 @@ public class Agent implements Runnable, TimestampProvider, Messenger {
         }
       }
 
+      @Override
+      public void onStart() {
+        if (!indexed && (filter instanceof ReplyMessageFilter)) {
+          indexed = queue.await(((ReplyMessageFilter) filter).getMessageID(), true);
+        }
+      }
+
+      @Override
+      public void onEnd() {
+        if (indexed) {
+          queue.release(((ReplyMessageFilter) filter).getMessageID());
+        }
+      }
+
       public final void stop() {
         quit = true;
       }
@@ -0,0 +1,38 @@
+/******************************************************************************
+
+Copyright (c) 2021, Mandar Chitre
+
+This file is part of fjage which is released under Simplified BSD License.
+See file LICENSE.txt or go to http://www.opensource.org/licenses/BSD-3-Clause
+for full license details.
+
+******************************************************************************/
+
+package org.arl.fjage;
+
+/**
+ * Strategy used by a container to run its agents. By default, a container
+ * runs every agent on a dedicated thread ({@link ThreadAgentExecutor}). Containers
+ * hosting a large number of agents may use a {@link PooledAgentExecutor} instead,
+ * to run agents cooperatively on a bounded pool of threads.
+ *
+ * @see Container#setExecutor(AgentExecutor)
+ * @author  Mandar Chitre
+ */
+public interface AgentExecutor {
+
+  /**
+   * Starts running an agent. This method is called by the container once for
+   * every agent, when the agent is started.
+   *
+   * @param agent agent to run.
+   */
+  public void execute(Agent agent);
+
+  /**
+   * Releases any resources held by the executor. This method is called by the
+   * container once all its agents have terminated.
+   */
+  public void shutdown();
+
+}
@@ -124,13 +124,19 @@ public class AgentID implements Serializable, Comparable<AgentID> {
 
   /////////////// Proxy interface methods
 
+  // addresses a message to this agent id, leaving frozen messages already addressed here untouched
+  private void address(Message msg) {
+    if (msg.isFrozen() && equals(msg.getRecipient())) return;
+    msg.setRecipient(this);
+  }
+
   /**
    * Sends a message to the agent represented by this id.
    *
    * @param msg message to send.
    */
   public void send(Message msg) {
-    msg.setRecipient(this);
+    address(msg);
     owner.send(msg);
   }
 
@@ -142,7 +148,7 @@ public class AgentID implements Serializable, Comparable<AgentID> {
    * @return response.
    */
   public Message request(Message msg) {
-    msg.setRecipient(this);
+    address(msg);
     return owner.request(msg, 1000);
   }
 
@@ -155,7 +161,7 @@ public class AgentID implements Serializable, Comparable<AgentID> {
    * @return response.
    */
   public Message request(Message msg, long timeout) {
-    msg.setRecipient(this);
+    address(msg);
     return owner.request(msg, timeout);
   }
 
@@ -239,7 +245,7 @@ public class AgentID implements Serializable, Comparable<AgentID> {
    */
   @Override
   public int hashCode() {
-    return ((isTopic?"!":"[")+name).hashCode();
+    return 31*name.hashCode() + (isTopic ? 1 : 0);
   }
 
   /**
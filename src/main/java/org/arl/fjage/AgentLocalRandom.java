@@ -10,9 +10,6 @@ for full license details.
 
 package org.arl.fjage;
 
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.Map;
 import java.util.Random;
 import java.util.logging.Logger;
 
@@ -21,17 +18,32 @@ import java.util.logging.Logger;
  *
  * This should be used in preference to java.util.Random to ensure that
  * simulations are repeatable by setting a random number seed.
+ * <p>
+ * Each agent has its own generator, split from the generator of its platform
+ * when the agent is added, and bound to the thread running the agent. Drawing
+ * random numbers therefore needs no locks. The generator is the SplitMix64
+ * algorithm used by {@link java.util.SplittableRandom}, and is not thread-safe;
+ * a generator should only be used by the agent it is bound to. Threads that
+ * are not running an agent get their own generator, split from the root
+ * generator when first used. Bulk methods
+ * that fill arrays are provided for agents that draw many samples at once.
  */
 public class AgentLocalRandom extends Random {
 
-  private static final long serialVersionUID = 1L;
+  private static final long serialVersionUID = 2L;
+
+  private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+  private static final double DOUBLE_UNIT = 0x1.0p-53;
+  private static final float FLOAT_UNIT = 0x1.0p-24f;
 
   //// static stuff
 
   private static Logger log = Logger.getLogger(AgentLocalRandom.class.getName());
 
   private static AgentLocalRandom root = new AgentLocalRandom();
-  private static Map<Object,AgentLocalRandom> rng = Collections.synchronizedMap(new HashMap<Object,AgentLocalRandom>());
+  private static final ThreadLocal<AgentLocalRandom> bound = new ThreadLocal<AgentLocalRandom>();
+  private static final ThreadLocal<AgentLocalRandom> unbound = new ThreadLocal<AgentLocalRandom>();
+  private static volatile int rootEpoch = 0;    // incremented when the root seed is set
 
   /**
    * Returns the current agent's AgentLocalRandom.
@@ -39,35 +51,48 @@ public class AgentLocalRandom extends Random {
    * @return current agent's random number generator.
    */
   public static AgentLocalRandom current() {
-    Thread tid = Thread.currentThread();
-    AgentLocalRandom r = rng.get(tid);
+    AgentLocalRandom r = bound.get();
     if (r != null) return r;
-    return root;
+    r = unbound.get();
+    if (r == null || r.epoch != rootEpoch) {
+      // the root generator is shared, so threads without an agent draw from a split of it
+      synchronized (root) {
+        r = root.split();
+        r.epoch = rootEpoch;
+      }
+      unbound.set(r);
+    }
+    return r;
   }
 
   //// private operations for agent/container to use
 
   static void bind(Agent agent) {
-    AgentLocalRandom r = new AgentLocalRandom();
-    long seed = root.nextLong();
-    r.setSeed(seed);
-    rng.put(agent, r);
+    Platform platform = agent.getPlatform();
+    AgentLocalRandom parent = platform == null ? root : platform.getRandom();
+    synchronized (parent) {
+      agent.random = parent.split();
+    }
   }
 
-  static void bind(Agent agent, Thread tid) {
-    AgentLocalRandom r = rng.get(agent);
-    if (r != null) {
-      rng.put(tid, r);
-      rng.remove(agent);
-    }
+  static void attach(Agent agent) {
+    bound.set(agent.random);
   }
 
-  static void unbind(Thread tid) {
-    rng.remove(tid);
+  static void detach() {
+    bound.remove();
   }
 
-  static void unbind() {
-    unbind(Thread.currentThread());
+  static AgentLocalRandom get(Agent agent) {
+    return agent.random;
+  }
+
+  static void set(Agent agent, AgentLocalRandom r) {
+    agent.random = r;
+  }
+
+  static AgentLocalRandom getRoot() {
+    return root;
   }
 
   /**
@@ -77,8 +102,108 @@ public class AgentLocalRandom extends Random {
    * @param seed random number seed.
    */
   public static void setRootSeed(long seed) {
-    root.setSeed(seed);
-    rng.clear();
+    synchronized (root) {
+      root.setSeed(seed);
+      rootEpoch++;
+    }
+  }
+
+  //// generator state
+
+  private long seed;
+  private long gamma;
+  private double nextGaussian;
+  private boolean haveNextGaussian;
+  private transient int epoch;          // root epoch when split, for generators of threads without an agent
+
+  /**
+   * Creates a generator with a seed that is likely to be different from that
+   * of any other generator.
+   */
+  public AgentLocalRandom() {
+    super();
+  }
+
+  /**
+   * Creates a generator with a given seed.
+   *
+   * @param seed random number seed.
+   */
+  public AgentLocalRandom(long seed) {
+    super(seed);
+  }
+
+  private AgentLocalRandom(long seed, long gamma) {
+    super(0);
+    this.seed = seed;
+    this.gamma = gamma;
+  }
+
+  /**
+   * Splits off a new generator from this one. The new generator produces a
+   * sequence that is statistically independent of this one, and is fully
+   * determined by the state of this generator at the time of the split.
+   *
+   * @return new generator.
+   */
+  public AgentLocalRandom split() {
+    return new AgentLocalRandom(mix64(nextSeed()), mixGamma(nextSeed()));
+  }
+
+  @Override
+  public void setSeed(long seed) {
+    // called from the Random constructor, before field initializers would run
+    this.seed = seed;
+    gamma = GOLDEN_GAMMA;
+    haveNextGaussian = false;
+  }
+
+  @Override
+  protected int next(int bits) {
+    return (int)(nextLong() >>> (64 - bits));
+  }
+
+  @Override
+  public int nextInt() {
+    return (int)(nextLong() >>> 32);
+  }
+
+  @Override
+  public long nextLong() {
+    return mix64(nextSeed());
+  }
+
+  @Override
+  public boolean nextBoolean() {
+    return nextLong() < 0;
+  }
+
+  @Override
+  public float nextFloat() {
+    return (nextLong() >>> 40) * FLOAT_UNIT;
+  }
+
+  @Override
+  public double nextDouble() {
+    return (nextLong() >>> 11) * DOUBLE_UNIT;
+  }
+
+  @Override
+  public double nextGaussian() {
+    if (haveNextGaussian) {
+      haveNextGaussian = false;
+      return nextGaussian;
+    }
+    double v1, v2, s;
+    do {
+      v1 = 2*nextDouble() - 1;
+      v2 = 2*nextDouble() - 1;
+      s = v1*v1 + v2*v2;
+    } while (s >= 1 || s == 0);
+    double m = Math.sqrt(-2*Math.log(s)/s);
+    nextGaussian = v2*m;
+    haveNextGaussian = true;
+    return v1*m;
   }
 
   //// instance methods
@@ -110,8 +235,7 @@ public class AgentLocalRandom extends Random {
    * @return random number.
    */
   public double nextExp() {
-    double r = -Math.log(nextDouble());
-    return r;
+    return -Math.log(1-nextDouble());
   }
 
   /**
@@ -132,7 +256,7 @@ public class AgentLocalRandom extends Random {
    * @return random number.
    */
   public double nextRayleigh(double sigma) {
-    return Math.sqrt(-2*Math.log(nextDouble()))*sigma;
+    return Math.sqrt(-2*Math.log(1-nextDouble()))*sigma;
   }
 
   /**
@@ -143,7 +267,131 @@ public class AgentLocalRandom extends Random {
    * @return random number.
    */
   public double nextRician(double nu, double sigma) {
-    return Math.sqrt(Math.pow(nextGaussian()*sigma+nu,2) + Math.pow(nextGaussian()*sigma,2));
+    double a = nextGaussian()*sigma + nu;
+    double b = nextGaussian()*sigma;
+    return Math.sqrt(a*a + b*b);
+  }
+
+  //// bulk methods
+
+  /**
+   * Fills an array with uniformly distributed random numbers between 0 and 1.
+   *
+   * @param x array to fill.
+   */
+  public void nextDouble(double[] x) {
+    for (int i = 0; i < x.length; i++)
+      x[i] = (mix64(nextSeed()) >>> 11) * DOUBLE_UNIT;
+  }
+
+  /**
+   * Fills an array with Gaussian distributed random numbers with zero mean and
+   * unit variance.
+   *
+   * @param x array to fill.
+   */
+  public void nextGaussian(double[] x) {
+    nextGaussian(x, 0, 1);
+  }
+
+  /**
+   * Fills an array with Gaussian distributed random numbers.
+   *
+   * @param x array to fill.
+   * @param mu mean of the distribution.
+   * @param sigma2 variance of the distribution.
+   */
+  public void nextGaussian(double[] x, double mu, double sigma2) {
+    double sigma = Math.sqrt(sigma2);
+    int n = x.length;
+    int i = 0;
+    while (i < n) {
+      double v1, v2, s;
+      do {
+        v1 = 2*nextDouble() - 1;
+        v2 = 2*nextDouble() - 1;
+        s = v1*v1 + v2*v2;
+      } while (s >= 1 || s == 0);
+      double m = Math.sqrt(-2*Math.log(s)/s)*sigma;
+      x[i++] = v1*m + mu;
+      if (i < n) x[i++] = v2*m + mu;
+    }
+  }
+
+  /**
+   * Fills an array with exponentially distributed random numbers with unit mean.
+   *
+   * @param x array to fill.
+   */
+  public void nextExp(double[] x) {
+    nextExp(x, 1);
+  }
+
+  /**
+   * Fills an array with exponentially distributed random numbers with mean
+   * 1/lambda.
+   *
+   * @param x array to fill.
+   * @param lambda rate parameter.
+   */
+  public void nextExp(double[] x, double lambda) {
+    double scale = -1/lambda;
+    for (int i = 0; i < x.length; i++)
+      x[i] = Math.log(1-nextDouble())*scale;
+  }
+
+  /**
+   * Fills an array with Rayleigh distributed random numbers.
+   *
+   * @param x array to fill.
+   * @param sigma scale parameter.
+   */
+  public void nextRayleigh(double[] x, double sigma) {
+    double scale = -2*sigma*sigma;
+    for (int i = 0; i < x.length; i++)
+      x[i] = Math.sqrt(Math.log(1-nextDouble())*scale);
+  }
+
+  /**
+   * Fills an array with Rician distributed random numbers.
+   *
+   * @param x array to fill.
+   * @param nu location parameter.
+   * @param sigma scale parameter.
+   */
+  public void nextRician(double[] x, double nu, double sigma) {
+    for (int i = 0; i < x.length; i++) {
+      double v1, v2, s;
+      do {
+        v1 = 2*nextDouble() - 1;
+        v2 = 2*nextDouble() - 1;
+        s = v1*v1 + v2*v2;
+      } while (s >= 1 || s == 0);
+      double m = Math.sqrt(-2*Math.log(s)/s)*sigma;
+      double a = v1*m + nu;
+      double b = v2*m;
+      x[i] = Math.sqrt(a*a + b*b);
+    }
+  }
+
+  //// private methods
+
+  private long nextSeed() {
+    return seed += gamma;
+  }
+
+  private static long mix64(long z) {
+    z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+    z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+    return z ^ (z >>> 31);
+  }
+
+  private static long mixGamma(long z) {
+    z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+    z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+    z = (z ^ (z >>> 33)) | 1L;
+    int n = Long.bitCount(z ^ (z >>> 1));
+    return (n < 24) ? z ^ 0xaaaaaaaaaaaaaaaaL : z;
   }
 
 }
@@ -70,8 +70,9 @@ public class BackoffBehavior extends Behavior {
    */
   @Override
   public void onStart() {
-    wakeupTime = agent.currentTimeMillis() + period;
-    block(period);
+    long dt = restoredDelay(period);
+    wakeupTime = agent.currentTimeMillis() + dt;
+    block(dt);
   }
 
   /**
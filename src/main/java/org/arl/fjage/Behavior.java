@@ -10,7 +10,6 @@ for full license details.
 
 package org.arl.fjage;
 
-import java.util.TimerTask;
 import java.util.logging.Logger;
 
 /**
@@ -55,6 +54,14 @@ public class Behavior implements Comparable<Behavior> {
   ////////////// Private attributes
 
   private volatile boolean blocked = false;
+  private Cancellable timeout = null;
+  private volatile long actionCount = 0;
+  private volatile long actionTime = 0;
+
+  // order in which the behavior was added to its agent, and its timer when
+  // restored from a simulation checkpoint, as creation and due times
+  int index = -1;
+  long[] restoredTimer = null;
 
   ////////////// Methods for behaviors to override
 
@@ -103,6 +110,25 @@ public class Behavior implements Comparable<Behavior> {
     return 0;
   }
 
+  /**
+   * Gets the number of times the {@link #action()} method of this behavior has
+   * been called by the agent.
+   *
+   * @return number of calls.
+   */
+  public long getActionCount() {
+    return actionCount;
+  }
+
+  /**
+   * Gets the total time spent in the {@link #action()} method of this behavior.
+   *
+   * @return time in milliseconds.
+   */
+  public long getActionTime() {
+    return actionTime/1000000;
+  }
+
   /**
    * Implements natural ordering based on behavior priority.
    *
@@ -136,12 +162,23 @@ public class Behavior implements Comparable<Behavior> {
    */
   public void block(long millis) {
     blocked = true;
-    agent.getPlatform().schedule(new TimerTask() {
-      @Override
-      public void run() {
-        restart();
-      }
-    }, millis);
+    if (timeout != null) timeout.cancel();
+    if (restoredTimer != null) timeout = rearm();
+    else timeout = agent.getPlatform().scheduleCancellable(this::restart, millis);
+  }
+
+  /**
+   * Blocks the behavior for a specified period of time in nanoseconds. This is
+   * similar to {@link #block(long)}, but allows sub-millisecond periods on platforms
+   * that support them.
+   *
+   * @param nanos number of nanoseconds before the behavior should be unblocked.
+   */
+  public void blockNanos(long nanos) {
+    blocked = true;
+    if (timeout != null) timeout.cancel();
+    if (restoredTimer != null) timeout = rearm();
+    else timeout = agent.getPlatform().scheduleNanos(this::restart, nanos);
   }
 
   /**
@@ -160,6 +197,16 @@ public class Behavior implements Comparable<Behavior> {
    */
   void unblock() {
     blocked = false;
+    if (timeout != null) {
+      timeout.cancel();
+      timeout = null;
+    }
+  }
+
+  // called by the agent thread after each action
+  void addActionTime(long nanos) {
+    actionCount++;
+    actionTime += nanos;
   }
 
   /**
@@ -248,5 +295,32 @@ public class Behavior implements Comparable<Behavior> {
     this.log = (agent == null) ? null : agent.log;
   }
 
+  // gets the delay until the timer restored from a checkpoint is due, or the
+  // given delay if there is none, for behaviors that track their own wakeup time
+  long restoredDelay(long millis) {
+    if (restoredTimer == null) return millis;
+    return restoredTimer[1] - agent.currentTimeMillis();
+  }
+
+  // nanosecond version of restoredDelay()
+  long restoredDelayNanos(long nanos) {
+    if (restoredTimer == null) return nanos;
+    return restoredTimer[1]*1000000 - agent.nanoTime();
+  }
+
+  // gets the creation and due times of the behavior's timer, if it is pending
+  // on a discrete event simulator, null otherwise
+  long[] getPendingTimer() {
+    return DiscreteEventSimulator.getPendingTimer(timeout);
+  }
+
+  // schedules the timer restored from a checkpoint, in place of the first
+  // timer requested by the behavior
+  private Cancellable rearm() {
+    long[] t = restoredTimer;
+    restoredTimer = null;
+    return ((DiscreteEventSimulator)agent.getPlatform()).restoreTimer(t[0], t[1], this::restart);
+  }
+
 }
 
@@ -0,0 +1,203 @@
+/******************************************************************************
+
+Copyright (c) 2021, Mandar Chitre
+
+This file is part of fjage which is released under Simplified BSD License.
+See file LICENSE.txt or go to http://www.opensource.org/licenses/BSD-3-Clause
+for full license details.
+
+******************************************************************************/
+
+package org.arl.fjage;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Internal calendar queue of discrete events (R. Brown, "Calendar queues: a
+ * fast O(1) priority queue implementation for the simulation event set
+ * problem", CACM 31(10), 1988). Events are hashed by time into buckets
+ * ("days") of a circular calendar, each holding a sorted list of events
+ * linked through {@link DiscreteEvent#next}. The number of buckets and their
+ * width are adapted to the number and spacing of pending events, so that
+ * insertion and removal take constant time on average.
+ * <p>
+ * The queue is not thread-safe, and is meant to be owned by a single thread.
+ *
+ * @author  Mandar Chitre
+ */
+final class CalendarQueue {
+
+  /////////// Constants
+
+  private static final int MIN_BUCKETS = 16;
+  private static final int SAMPLES = 25;
+
+  /////////// Private attributes
+
+  private DiscreteEvent[] head;
+  private DiscreteEvent[] tail;
+  private int mask;
+  private long width = 1;
+  private int size = 0;
+  private int last = 0;           // bucket of the last event removed
+  private long top = 1;           // end of the current day of the last bucket
+  private long lastTime = 0;      // time of the last event removed
+
+  /////////// Interface methods
+
+  CalendarQueue() {
+    allocate(MIN_BUCKETS);
+  }
+
+  int size() {
+    return size;
+  }
+
+  boolean isEmpty() {
+    return size == 0;
+  }
+
+  void add(DiscreteEvent e) {
+    insert(e);
+    size++;
+    if (e.time < lastTime) position(e.time);
+    if (size > 2*head.length) resize(2*head.length);
+  }
+
+  DiscreteEvent peek() {
+    if (size == 0) return null;
+    int i = last;
+    long t = top;
+    for (int n = 0; n < head.length; n++) {
+      DiscreteEvent e = head[i];
+      if (e != null && e.time < t) {
+        last = i;
+        top = t;
+        lastTime = e.time;
+        return e;
+      }
+      i = (i+1) & mask;
+      t += width;
+    }
+    // nothing within a year, so search all buckets directly
+    DiscreteEvent min = null;
+    for (DiscreteEvent e: head)
+      if (e != null && (min == null || e.compareTo(min) < 0)) min = e;
+    position(min.time);
+    return min;
+  }
+
+  DiscreteEvent poll() {
+    DiscreteEvent e = peek();
+    if (e == null) return null;
+    head[last] = e.next;
+    if (e.next == null) tail[last] = null;
+    e.next = null;
+    size--;
+    if (size < head.length/2 && head.length > MIN_BUCKETS) resize(head.length/2);
+    return e;
+  }
+
+  List<DiscreteEvent> toList() {
+    List<DiscreteEvent> list = new ArrayList<DiscreteEvent>(size);
+    for (DiscreteEvent e: head)
+      for (; e != null; e = e.next)
+        list.add(e);
+    return list;
+  }
+
+  void clear() {
+    allocate(MIN_BUCKETS);
+    size = 0;
+    position(lastTime);
+  }
+
+  /////////// Private methods
+
+  private void allocate(int n) {
+    head = new DiscreteEvent[n];
+    tail = new DiscreteEvent[n];
+    mask = n-1;
+  }
+
+  private int bucket(long t) {
+    return (int)(t/width) & mask;
+  }
+
+  private void position(long t) {
+    last = bucket(t);
+    top = (t/width+1)*width;
+    lastTime = t;
+  }
+
+  // inserts an event in order into its bucket, appending in the common case
+  private void insert(DiscreteEvent e) {
+    int i = bucket(e.time);
+    DiscreteEvent p = tail[i];
+    e.next = null;
+    if (p == null) {
+      head[i] = e;
+      tail[i] = e;
+      return;
+    }
+    if (e.compareTo(p) >= 0) {
+      p.next = e;
+      tail[i] = e;
+      return;
+    }
+    p = head[i];
+    if (e.compareTo(p) < 0) {
+      e.next = p;
+      head[i] = e;
+      return;
+    }
+    while (p.next.compareTo(e) <= 0)
+      p = p.next;
+    e.next = p.next;
+    p.next = e;
+  }
+
+  // rebuilds the calendar with a given number of buckets and a bucket width
+  // estimated from the spacing of the earliest events
+  private void resize(int n) {
+    DiscreteEvent[] all = new DiscreteEvent[size];
+    long[] times = new long[Math.min(size, SAMPLES)];   // earliest event times, in order
+    int k = 0;
+    int m = 0;
+    for (DiscreteEvent e: head) {
+      while (e != null) {
+        all[k++] = e;
+        if (m < times.length || e.time < times[m-1]) {
+          // partial insertion sort, keeping only the earliest times
+          if (m < times.length) m++;
+          int j = m-1;
+          while (j > 0 && times[j-1] > e.time) {
+            times[j] = times[j-1];
+            j--;
+          }
+          times[j] = e.time;
+        }
+        e = e.next;
+      }
+    }
+    if (m > 1) {
+      double avg = (times[m-1] - times[0])/(double)(m-1);
+      long sum = 0;
+      int count = 0;
+      for (int j = 1; j < m; j++) {
+        long dt = times[j] - times[j-1];
+        if (dt <= 2*avg) {
+          sum += dt;
+          count++;
+        }
+      }
+      width = Math.max(1, count > 0 ? 3*sum/count : 1);
+    }
+    allocate(n);
+    for (DiscreteEvent e: all)
+      insert(e);
+    position(lastTime);
+  }
+
+}
@@ -0,0 +1,28 @@
+/******************************************************************************
+
+Copyright (c) 2021, Mandar Chitre
+
+This file is part of fjage which is released under Simplified BSD License.
+See file LICENSE.txt or go to http://www.opensource.org/licenses/BSD-3-Clause
+for full license details.
+
+******************************************************************************/
+
+package org.arl.fjage;
+
+/**
+ * Handle to a scheduled task that may be cancelled before it is executed.
+ *
+ * @see Platform#scheduleCancellable(Runnable, long)
+ * @author  Mandar Chitre
+ */
+public interface Cancellable {
+
+  /**
+   * Cancels the task, if it has not already been executed.
+   *
+   * @return true if the task was cancelled, false if it was already executed or cancelled.
+   */
+  public boolean cancel();
+
+}
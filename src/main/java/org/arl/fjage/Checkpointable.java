@@ -0,0 +1,47 @@
+/******************************************************************************
+
+Copyright (c) 2021, Mandar Chitre
+
+This file is part of fjage which is released under Simplified BSD License.
+See file LICENSE.txt or go to http://www.opensource.org/licenses/BSD-3-Clause
+for full license details.
+
+******************************************************************************/
+
+package org.arl.fjage;
+
+import java.io.Serializable;
+
+/**
+ * Interface implemented by agents whose state should be saved in, and restored
+ * from, a {@link SimulationCheckpoint}.
+ * <p>
+ * Threads and the behaviors running on them cannot be serialized, so an agent
+ * restored from a checkpoint is a fresh instance that goes through its
+ * {@link Agent#init()} as usual. Its saved state is then handed to
+ * {@link #restore(Serializable)}, before any behavior is run, so that the agent
+ * can pick up where the checkpointed agent left off.
+ *
+ * @see DiscreteEventSimulator#checkpoint(long)
+ * @author  Mandar Chitre
+ */
+public interface Checkpointable {
+
+  /**
+   * Gets the state of the agent to save in a checkpoint. This is called on the
+   * simulator thread while the agent is blocked, and must not block.
+   *
+   * @return serializable state of the agent.
+   */
+  public Serializable checkpoint();
+
+  /**
+   * Restores the state of the agent from a checkpoint. This is called on the
+   * agent's thread after {@link Agent#init()}, with the simulation time set to
+   * the time of the checkpoint.
+   *
+   * @param state state saved by {@link #checkpoint()}.
+   */
+  public void restore(Serializable state);
+
+}
@@ -13,6 +13,8 @@ package org.arl.fjage;
 import java.io.Serializable;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.logging.Logger;
 import java.lang.reflect.*;
 
@@ -25,7 +27,14 @@ import java.lang.reflect.*;
  * By default, messages sent between agents are not cloned. The developer must
  * ensure that a message or any object contained in the message is not modified
  * after it has been sent or received. During deployment, this default behavior
- * can be changed using {@link #setAutoClone(boolean)}.
+ * can be changed using {@link #setAutoClone(boolean)}. Messages frozen using
+ * {@link Message#freeze()} cannot be modified, and are never cloned.
+ * <p>
+ * Topic subscribers and service providers are held in immutable sets. Message
+ * routing and directory lookups read these sets without locking, while changes
+ * to subscriptions or registrations replace the affected sets. Each agent's own
+ * subscriptions and registrations are also indexed, so that the cost of removing
+ * an agent only depends on the number of topics and services it is associated with.
  *
  * @author  Mandar Chitre
  */
@@ -42,16 +51,36 @@ public class Container {
   protected Platform platform;
   protected Map<AgentID,Agent> agents = new ConcurrentHashMap<AgentID,Agent>();
   protected Map<AgentID,Agent> agentsToAdd = new ConcurrentHashMap<AgentID,Agent>();
-  protected Map<AgentID,Set<Agent>> topics = new HashMap<AgentID,Set<Agent>>();
-  protected Map<String,Set<AgentID>> services = new HashMap<String,Set<AgentID>>();
+  protected Map<AgentID,Set<Agent>> topics = new ConcurrentHashMap<AgentID,Set<Agent>>();
+  protected Map<String,Set<AgentID>> services = new ConcurrentHashMap<String,Set<AgentID>>();
+  protected Map<AgentID,Set<AgentID>> subscriptions = new HashMap<AgentID,Set<AgentID>>();
+  protected Map<AgentID,Set<String>> registrations = new HashMap<AgentID,Set<String>>();
   protected Logger log = Logger.getLogger(getClass().getName());
   protected boolean running = false;
-  protected boolean initing = false;
+  protected volatile boolean initing = false;
   protected Object cloner;
   protected Method doClone;
   protected boolean autoclone = false;
-  protected Set<AgentID> idle = new HashSet<AgentID>();
   protected Set<MessageListener> listeners = new HashSet<MessageListener>();
+  protected AgentExecutor executor = new ThreadAgentExecutor();
+  protected ServiceResolution resolution = ServiceResolution.ANY;
+  protected Map<String,AtomicInteger> turns = new ConcurrentHashMap<String,AtomicInteger>();
+
+  // number of agents that are not idle
+  private final AtomicInteger busy = new AtomicInteger();
+
+  // signalled during initialization when agents go idle or are added
+  private final Object barrier = new Object();
+  private long initStart = 0;
+
+  // expired messages dropped instead of being relayed
+  private final LongAdder expired = new LongAdder();
+
+  //////////// Agent activity states
+
+  static final int UNCOUNTED = 0;
+  static final int BUSY = 1;
+  static final int IDLE = 2;
 
   //////////// Interface methods
 
@@ -152,7 +181,7 @@ public class Container {
 
   /**
    * Deep clones an object. This is typically used to explicitly clone a message for
-   * modification when autocloning is not enabled.
+   * modification when autocloning is not enabled. Cloned messages are never pooled.
    *
    * @param obj object to clone.
    * @return cloned object.
@@ -161,7 +190,9 @@ public class Container {
   public <T extends Serializable> T clone(T obj) {
     if (doClone == null) throw new FjageException("Cloner unavailable");
     try {
-      return (T)doClone.invoke(cloner, obj);
+      T c = (T)doClone.invoke(cloner, obj);
+      if (c instanceof Message) ((Message)c).detach();   // the fast cloner copies transient pooling state too
+      return c;
     } catch (Exception ex) {
       log.warning("Cloning failed: "+ex.toString());
       throw new FjageException("Cloning failed");
@@ -186,6 +217,63 @@ public class Container {
     return autoclone;
   }
 
+  /**
+   * Sets the executor used to run agents in the container. By default, each agent
+   * runs on its own thread. The executor can only be changed before the container
+   * is started.
+   *
+   * @param executor agent executor.
+   * @see PooledAgentExecutor
+   */
+  public void setExecutor(AgentExecutor executor) {
+    if (running || initing) throw new FjageException("Cannot change executor of running container");
+    if (executor == null) executor = new ThreadAgentExecutor();
+    this.executor = executor;
+  }
+
+  /**
+   * Gets the executor used to run agents in the container.
+   *
+   * @return agent executor.
+   */
+  public AgentExecutor getExecutor() {
+    return executor;
+  }
+
+  /**
+   * Sets the strategy used to pick an agent when several agents provide the
+   * same service. By default, any of the providers may be returned.
+   *
+   * @param resolution service resolution strategy.
+   */
+  public void setServiceResolution(ServiceResolution resolution) {
+    if (resolution == null) resolution = ServiceResolution.ANY;
+    this.resolution = resolution;
+  }
+
+  /**
+   * Gets the strategy used to pick an agent when several agents provide the
+   * same service.
+   *
+   * @return service resolution strategy.
+   */
+  public ServiceResolution getServiceResolution() {
+    return resolution;
+  }
+
+  /**
+   * Gets the number of messages dropped by the container because they had
+   * expired before they could be relayed to remote containers. Expired messages
+   * dropped from the incoming message queue of an agent are counted by the
+   * agent.
+   *
+   * @return number of expired messages.
+   * @see Agent#getExpiredMessages()
+   */
+  public long getExpiredMessages() {
+    return expired.sum();
+  }
+
   /**
    * Adds an agent to the container.
    *
@@ -204,16 +292,18 @@ public class Container {
       return null;
     }
     agent.bind(aid, this);
-    if (initing) agentsToAdd.put(aid, agent);
-    else agents.put(aid, agent);
-    AgentLocalRandom.bind(agent);
-    if (running) {
-      Thread t = new Thread(agent);
-      t.setName(name);
-      t.setDaemon(false);
-      AgentLocalRandom.bind(agent, t);
-      t.start();
+    if (initing) {
+      agentsToAdd.put(aid, agent);
+      synchronized (barrier) {
+        barrier.notify();
+      }
+    }
+    else {
+      agents.put(aid, agent);
+      count(agent);
     }
+    AgentLocalRandom.bind(agent);
+    if (running) executor.execute(agent);
     return aid;
   }
 
@@ -281,10 +371,10 @@ public class Container {
       Agent agent = agents.get(aid);
       if (agent == null) return false;
       agent.stop();
-      agents.remove(aid);
-      idle.remove(aid);
       unsubscribe(aid);
       deregister(aid);
+      agents.remove(aid);
+      if (agent.activity.getAndSet(UNCOUNTED) == BUSY) removeBusy();
       notify();   // if we are waiting for shutdown
     }
     return true;
@@ -349,20 +439,14 @@ public class Container {
   public boolean send(Message m, boolean relay) {
     if (!running) return false;
     if (relay) log.warning("Container does not support relaying");
-    if (m.getSentAt() == null) m.setSentAt(platform.currentTimeMillis());
-    synchronized (listeners) {
-      for (MessageListener listener: listeners)
-        if (listener.onReceive(m)) return true;
-    }
+    if (intercept(m)) return true;
     AgentID aid = m.getRecipient();
     if (aid == null) return false;
     if (aid.isTopic()) {
-      synchronized (this) {
-        Set<Agent> subscribers = topics.get(aid);
-        if (subscribers != null) {
-          for (Agent a: subscribers)
-            a.deliver(m);
-        }
+      Set<Agent> subscribers = topics.get(aid);
+      if (subscribers != null) {
+        for (Agent a: subscribers)
+          a.deliver(m);
       }
     } else {
       Agent a = getAgent(aid);
@@ -372,6 +456,35 @@ public class Container {
     return true;
   }
 
+  /**
+   * Sends a batch of messages. Messages to the same recipient are delivered
+   * together, with a single wake-up of the recipient. In case of associated
+   * remote containers, the messages are only delivered to agents in this container.
+   *
+   * @param msgs messages to deliver.
+   * @return true if all messages were delivered, false otherwise.
+   */
+  public boolean send(Collection<Message> msgs) {
+    return send(msgs, false);
+  }
+
+  /**
+   * Sends a batch of messages. Messages to the same recipient are delivered
+   * together, with a single wake-up of the recipient.
+   *
+   * @param msgs messages to deliver.
+   * @param relay enable relaying to associated remote containers.
+   * @return true if all messages were delivered, false otherwise.
+   */
+  public boolean send(Collection<Message> msgs, boolean relay) {
+    if (!running) return false;
+    if (relay) log.warning("Container does not support relaying");
+    List<Message> pending = new ArrayList<Message>(msgs.size());
+    for (Message m: msgs)
+      if (!intercept(m)) pending.add(m);
+    return route(pending);
+  }
+
   /**
    * Subscribes an agent to messages sent to a topic.
    *
@@ -386,12 +499,7 @@ public class Container {
       log.warning("Unable to subscribe unknown agent "+aid+" to topic "+topic);
       return false;
     }
-    Set<Agent> subscribers = topics.get(topic);
-    if (subscribers == null) {
-      subscribers = new HashSet<Agent>();
-      topics.put(topic, subscribers);
-    }
-    subscribers.add(agent);
+    if (addEntry(topics, topic, agent)) addEntry(subscriptions, aid, topic);
     return true;
   }
 
@@ -406,9 +514,9 @@ public class Container {
     if (!topic.isTopic()) topic = new AgentID(topic.getName()+"__ntf", true);
     Agent agent = agents.get(aid);
     if (agent == null) return false;
-    Set<Agent> subscribers = topics.get(topic);
-    if (subscribers == null) return false;
-    return subscribers.remove(agent);
+    if (!removeEntry(topics, topic, agent)) return false;
+    removeEntry(subscriptions, aid, topic);
+    return true;
   }
 
   /**
@@ -419,10 +527,10 @@ public class Container {
   public synchronized void unsubscribe(AgentID aid) {
     Agent agent = agents.get(aid);
     if (agent == null) return;
-    for (AgentID topic: topics.keySet()) {
-      Set<Agent> subscribers = topics.get(topic);
-      subscribers.remove(agent);
-    }
+    Set<AgentID> subscribed = subscriptions.remove(aid);
+    if (subscribed == null) return;
+    for (AgentID topic: subscribed)
+      removeEntry(topics, topic, agent);
   }
 
   /**
@@ -433,12 +541,7 @@ public class Container {
    * @return true on success, false on failure.
    */
   public synchronized boolean register(AgentID aid, String service) {
-    Set<AgentID> providers = services.get(service);
-    if (providers == null) {
-      providers = new HashSet<AgentID>();
-      services.put(service, providers);
-    }
-    providers.add(aid);
+    if (addEntry(services, service, aid)) addEntry(registrations, aid, service);
     return true;
   }
 
@@ -447,7 +550,7 @@ public class Container {
    *
    * @return an array of service names.
    */
-  public synchronized String[] getServices() {
+  public String[] getServices() {
     Set<String> svc = services.keySet();
     return svc.toArray(new String[0]);
   }
@@ -458,10 +561,21 @@ public class Container {
    * @param service name of the service.
    * @return agent id for service provider, null if none found.
    */
-  public synchronized AgentID agentForService(String service) {
-    Set<AgentID> providers = services.get(service);
-    if (providers == null || providers.size() == 0) return null;
-    return providers.iterator().next();
+  public AgentID agentForService(String service) {
+    return resolveService(service, null);
+  }
+
+  /**
+   * Finds an agent providing a named service. The key is used to consistently
+   * pick the same provider for the same key, when the {@link ServiceResolution#STICKY}
+   * strategy is in use, and is ignored otherwise.
+   *
+   * @param service name of the service.
+   * @param key key for sticky resolution, or null.
+   * @return agent id for service provider, null if none found.
+   */
+  public AgentID agentForService(String service, Object key) {
+    return resolveService(service, key);
   }
 
   /**
@@ -470,7 +584,7 @@ public class Container {
    * @param service name of the service.
    * @return an array of agent ids for service providers, null if none found.
    */
-  public synchronized AgentID[] agentsForService(String service) {
+  public AgentID[] agentsForService(String service) {
     Set<AgentID> providers = services.get(service);
     if (providers == null || providers.size() == 0) return null;
     return providers.toArray(new AgentID[0]);
@@ -484,9 +598,9 @@ public class Container {
    * @return true on success, false on failure.
    */
   public synchronized boolean deregister(AgentID aid, String service) {
-    Set<AgentID> providers = services.get(service);
-    if (providers == null) return false;
-    return providers.remove(aid);
+    if (!removeProvider(service, aid)) return false;
+    removeEntry(registrations, aid, service);
+    return true;
   }
 
   /**
@@ -495,10 +609,10 @@ public class Container {
    * @param aid id of agent to deregister.
    */
   public synchronized void deregister(AgentID aid) {
-    for (String service: services.keySet()) {
-      Set<AgentID> providers = services.get(service);
-      providers.remove(aid);
-    }
+    Set<String> registered = registrations.remove(aid);
+    if (registered == null) return;
+    for (String service: registered)
+      removeProvider(service, aid);
   }
 
   /**
@@ -506,51 +620,71 @@ public class Container {
    * This should be called before start().
    */
   void init() {
-    if (!running) {
+    beginInit();
+    awaitInit();
+  }
+
+  /**
+   * Starts initialization of all agents in the container, without waiting for
+   * them to complete.
+   */
+  void beginInit() {
+    if (!running && !initing) {
       log.info("Initializing agents...");
+      initStart = System.nanoTime();
       initing = true;
       synchronized (agents) {
         SortedSet<AgentID> keys = new TreeSet<AgentID>(agents.keySet());
         for (AgentID aid: keys) {
           log.fine("Starting agent "+aid);
-          Agent a = agents.get(aid);
-          Thread t = new Thread(a);
-          t.setName(a.getName());
-          t.setDaemon(false);
-          AgentLocalRandom.bind(a, t);
-          t.start();
+          executor.execute(agents.get(aid));
         }
       }
-      log.fine("Waiting for agents...");
-      do {
-        try {
-          Thread.sleep(100);
-        } catch (InterruptedException ex) {
-          log.warning("Init interrupted!");
-          Thread.currentThread().interrupt();
-          initing = false;
-          return;
-        }
-        if (agentsToAdd.size() > 0) {
+    }
+  }
+
+  /**
+   * Waits for all agents in the container, including ones added during
+   * initialization, to complete initialization.
+   */
+  void awaitInit() {
+    if (!initing) return;
+    log.fine("Waiting for agents...");
+    synchronized (barrier) {
+      while (!agentsToAdd.isEmpty() || !isIdle()) {
+        if (!agentsToAdd.isEmpty()) {
           synchronized (agents) {
             agents.putAll(agentsToAdd);
+            for (Agent a: agentsToAdd.values())
+              count(a);
             SortedSet<AgentID> keys = new TreeSet<AgentID>(agentsToAdd.keySet());
             for (AgentID aid: keys) {
               log.fine("Starting agent "+aid);
-              Agent a = agents.get(aid);
-              Thread t = new Thread(a);
-              t.setName(a.getName());
-              t.setDaemon(false);
-              AgentLocalRandom.bind(a, t);
-              t.start();
+              executor.execute(agents.get(aid));
             }
             agentsToAdd.clear();
           }
+          continue;
+        }
+        try {
+          barrier.wait();
+        } catch (InterruptedException ex) {
+          log.warning("Init interrupted!");
+          Thread.currentThread().interrupt();
+          initing = false;
+          return;
         }
-      } while (!isIdle());
+      }
       initing = false;
-      log.info("Agents ready...");
     }
+    Agent slowest = null;
+    for (Agent a: agents.values()) {
+      log.fine("Agent "+a.getAgentID()+" initialized in "+a.getInitTime()/1000000+" ms");
+      if (slowest == null || a.getInitTime() > slowest.getInitTime()) slowest = a;
+    }
+    if (slowest == null) log.info("Agents ready...");
+    else log.info("Agents ready in "+(System.nanoTime()-initStart)/1000000+" ms (slowest "
+      +slowest.getAgentID()+": "+slowest.getInitTime()/1000000+" ms)");
   }
 
   /**
@@ -587,17 +721,17 @@ public class Container {
             } catch (InterruptedException ex) {
               log.warning("Shutdown interrupted!");
               Thread.currentThread().interrupt();
-              agents.clear();
-              idle.clear();
+              clearAgents();
               running = false;
+              executor.shutdown();
               return;
             }
           }
         }
         log.info("All agents have shutdown");
-        agents.clear();
-        idle.clear();
+        clearAgents();
         running = false;
+        executor.shutdown();
         return;
       } catch (ConcurrentModificationException ex) {
         // do nothing, try again
@@ -620,10 +754,7 @@ public class Container {
    * @return true if all agents are idle, false otherwise.
    */
   public boolean isIdle() {
-    int nAgents = agents.size();
-    synchronized (idle) {
-      return nAgents == idle.size();
-    }
+    return busy.get() == 0;
   }
 
   /**
@@ -654,18 +785,209 @@ public class Container {
   //////////////// Package private methods
 
   /**
-   * Deep clones an object if autoclone is enabled.
+   * Deep clones an object if autoclone is enabled. Frozen messages are not
+   * cloned. Cloned messages keep their priority, and are never pooled.
    *
    * @param obj object to clone.
    * @return cloned object, if autoclone is enabled, original object otherwise.
    */
   <T extends Serializable> T autoclone(T obj) {
-    if (autoclone) return clone(obj);
-    return obj;
+    if (!autoclone) return obj;
+    if (!(obj instanceof Message)) return clone(obj);
+    Message m = (Message)obj;
+    if (m.isFrozen()) return obj;
+    T c = clone(obj);
+    ((Message)c).priority = m.priority;   // transient, so not copied by the serial cloner
+    return c;
   }
 
   //////////////// Private methods
 
+  /**
+   * Timestamps a message being sent, and passes it through the listeners.
+   *
+   * @param m message being sent.
+   * @return true if a listener consumed the message, false otherwise.
+   */
+  protected boolean intercept(Message m) {
+    if (m.getSentAt() == null) m.setSentAtOnSend(platform.currentTimeMillis());
+    synchronized (listeners) {
+      if (listeners.isEmpty()) return false;
+      for (MessageListener listener: listeners) {
+        if (listener.onReceive(m)) {
+          m.detach();   // listeners may hold on to the message, so it cannot be recycled
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Checks if a message has expired, and counts it as dropped if it has. This
+   * is called before relaying a message to remote containers.
+   *
+   * @param m message to check.
+   * @return true if the message has expired, false otherwise.
+   */
+  protected boolean dropIfExpired(Message m) {
+    if (m.getExpiryTime() == null || !m.isExpired(platform.currentTimeMillis())) return false;
+    expired.increment();
+    log.fine("Dropping expired message "+m);
+    return true;
+  }
+
+  /**
+   * Delivers a batch of messages to agents in this container. Messages are
+   * grouped by recipient, and each group is delivered in a single operation.
+   * Listeners are not called.
+   *
+   * @param msgs messages to deliver.
+   * @return true if all messages were delivered, false otherwise.
+   */
+  protected boolean route(List<Message> msgs) {
+    boolean ok = true;
+    Map<AgentID,List<Message>> groups = new LinkedHashMap<AgentID,List<Message>>();
+    for (Message m: msgs) {
+      AgentID aid = m.getRecipient();
+      if (aid == null) ok = false;
+      else groups.computeIfAbsent(aid, k -> new ArrayList<Message>()).add(m);
+    }
+    for (Map.Entry<AgentID,List<Message>> e: groups.entrySet()) {
+      AgentID aid = e.getKey();
+      if (aid.isTopic()) {
+        Set<Agent> subscribers = topics.get(aid);
+        if (subscribers != null) {
+          for (Agent a: subscribers)
+            a.deliver(e.getValue());
+        }
+      } else {
+        Agent a = getAgent(aid);
+        if (a == null) ok = false;
+        else a.deliver(e.getValue());
+      }
+    }
+    return ok;
+  }
+
+  /**
+   * Picks a local agent providing a named service, based on the service
+   * resolution strategy.
+   *
+   * @param service name of the service.
+   * @param key key for sticky resolution, or null.
+   * @return agent id for service provider, null if none found.
+   */
+  private AgentID resolveService(String service, Object key) {
+    Set<AgentID> providers = services.get(service);
+    if (providers == null || providers.size() == 0) return null;
+    if (providers.size() == 1) return providers.iterator().next();
+    switch (resolution) {
+      case ROUND_ROBIN: {
+        AgentID[] p = providers.toArray(new AgentID[0]);
+        AtomicInteger turn = turns.computeIfAbsent(service, s -> new AtomicInteger());
+        return p[Math.floorMod(turn.getAndIncrement(), p.length)];
+      }
+      case LEAST_QUEUE: {
+        AgentID best = null;
+        int bestLen = Integer.MAX_VALUE;
+        for (AgentID aid: providers) {
+          Agent a = agents.get(aid);
+          int len = (a == null) ? Integer.MAX_VALUE : a.getQueueLength();
+          if (best == null || len < bestLen) {
+            best = aid;
+            bestLen = len;
+          }
+        }
+        return best;
+      }
+      case STICKY: {
+        if (key == null) break;
+        // rendezvous hashing, so that only keys on a departing provider move
+        AgentID best = null;
+        int bestScore = 0;
+        int h = key.hashCode();
+        for (AgentID aid: providers) {
+          int score = mix(h*31 + aid.hashCode());
+          if (best == null || score > bestScore) {
+            best = aid;
+            bestScore = score;
+          }
+        }
+        return best;
+      }
+      default:
+        break;
+    }
+    return providers.iterator().next();
+  }
+
+  // scrambles the bits of a hash code
+  private static int mix(int h) {
+    h ^= h >>> 16;
+    h *= 0x85ebca6b;
+    h ^= h >>> 13;
+    h *= 0xc2b2ae35;
+    return h ^ (h >>> 16);
+  }
+
+  /**
+   * Adds a value to an entry in a table of immutable sets. The set for the entry
+   * is replaced by an updated copy, so that readers never see it change. Must be
+   * called with the container lock held.
+   *
+   * @param table table to update.
+   * @param key key of the entry.
+   * @param value value to add.
+   * @return true if the value was added, false if it was already present.
+   */
+  private static <K,V> boolean addEntry(Map<K,Set<V>> table, K key, V value) {
+    Set<V> values = table.get(key);
+    if (values != null && values.contains(value)) return false;
+    values = (values == null) ? new HashSet<V>() : new HashSet<V>(values);
+    values.add(value);
+    table.put(key, Collections.unmodifiableSet(values));
+    return true;
+  }
+
+  /**
+   * Removes a value from an entry in a table of immutable sets. The set for the
+   * entry is replaced by an updated copy, or the entry is removed if no values
+   * remain. Must be called with the container lock held.
+   *
+   * @param table table to update.
+   * @param key key of the entry.
+   * @param value value to remove.
+   * @return true if the value was removed, false if it was not present.
+   */
+  private static <K,V> boolean removeEntry(Map<K,Set<V>> table, K key, V value) {
+    Set<V> values = table.get(key);
+    if (values == null || !values.contains(value)) return false;
+    if (values.size() == 1) {
+      table.remove(key);
+      return true;
+    }
+    values = new HashSet<V>(values);
+    values.remove(value);
+    table.put(key, Collections.unmodifiableSet(values));
+    return true;
+  }
+
+  /**
+   * Removes a provider of a service, forgetting the round-robin turn for the
+   * service once it has no providers left. Must be called with the container
+   * lock held.
+   *
+   * @param service name of the service.
+   * @param aid id of the provider.
+   * @return true if the provider was removed, false if it was not registered.
+   */
+  private boolean removeProvider(String service, AgentID aid) {
+    if (!removeEntry(services, service, aid)) return false;
+    if (!services.containsKey(service)) turns.remove(service);
+    return true;
+  }
+
   /**
    * Checks if an agent id already exists in the container.
    *
@@ -678,26 +1000,52 @@ public class Container {
   }
 
   /**
-   * Called by agent to report when its idle.
+   * Called by agent to report when its idle. When the last busy agent on the
+   * platform goes idle, the platform is notified.
    *
-   * @param aid agent that is idle.
+   * @param agent agent that is idle.
    */
-  void reportIdle(AgentID aid) {
-    synchronized (idle) {
-      idle.add(aid);
-    }
-    if (running && isIdle()) platform.idle();
+  void reportIdle(Agent agent) {
+    if (agent.activity.compareAndSet(BUSY, IDLE)) removeBusy();
   }
 
   /**
    * Called by agent to report when its busy.
    *
-   * @param aid agent that is busy.
+   * @param agent agent that is busy.
    */
-  void reportBusy(AgentID aid) {
-    synchronized (idle) {
-      idle.remove(aid);
+  void reportBusy(Agent agent) {
+    if (agent.activity.compareAndSet(IDLE, BUSY)) addBusy();
+  }
+
+  /////////// Private methods
+
+  // starts accounting for an agent added to the container, as a busy agent
+  private void count(Agent agent) {
+    if (agent.activity.getAndSet(BUSY) != BUSY) addBusy();
+  }
+
+  private void clearAgents() {
+    for (Agent a: agents.values())
+      if (a.activity.getAndSet(UNCOUNTED) == BUSY) removeBusy();
+    agents.clear();
+  }
+
+  // the platform counter is incremented before, and decremented after, the
+  // container counter, so that the platform never appears idle while a
+  // container is busy
+  private void addBusy() {
+    platform.addBusy();
+    busy.incrementAndGet();
+  }
+
+  private void removeBusy() {
+    if (busy.decrementAndGet() == 0 && initing) {
+      synchronized (barrier) {
+        barrier.notify();
+      }
     }
+    platform.removeBusy();
   }
 
 }
@@ -0,0 +1,71 @@
+/******************************************************************************
+
+Copyright (c) 2021, Mandar Chitre
+
+This file is part of fjage which is released under Simplified BSD License.
+See file LICENSE.txt or go to http://www.opensource.org/licenses/BSD-3-Clause
+for full license details.
+
+******************************************************************************/
+
+package org.arl.fjage;
+
+import java.security.SecureRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Message identifier generator that combines a random prefix with a counter.
+ * The prefix is drawn once when the generator is created, so generating an
+ * identifier only costs an atomic increment. Identifiers from generators with
+ * different prefixes do not collide, and the 64-bit random prefix makes a
+ * collision between generators in different processes unlikely.
+ * <p>
+ * This is the default generator for messages, whose identifiers are only
+ * converted to strings when first needed.
+ *
+ * @author  Mandar Chitre
+ */
+public class CounterIdGenerator implements MessageIdGenerator {
+
+  /////////// Private attributes
+
+  private final String prefix;
+  private final AtomicLong counter = new AtomicLong();
+
+  /////////// Interface methods
+
+  /**
+   * Creates a generator with a random prefix.
+   */
+  public CounterIdGenerator() {
+    this(Long.toHexString(new SecureRandom().nextLong() | Long.MIN_VALUE));
+  }
+
+  /**
+   * Creates a generator with a given prefix. The prefix should be unique
+   * amongst generators whose identifiers may be mixed.
+   *
+   * @param prefix identifier prefix.
+   */
+  public CounterIdGenerator(String prefix) {
+    this.prefix = prefix+"-";
+  }
+
+  @Override
+  public String nextId() {
+    return format(next());
+  }
+
+  /////////// Package private methods
+
+  // draws the next counter value, which is always positive
+  long next() {
+    return counter.incrementAndGet();
+  }
+
+  // converts a counter value to an identifier
+  String format(long n) {
+    return prefix+Long.toString(n, 36);
+  }
+
+}
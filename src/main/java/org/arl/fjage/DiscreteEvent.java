@@ -10,50 +10,95 @@ for full license details.
 
 package org.arl.fjage;
 
-import java.util.TimerTask;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * Internal class representing a discrete event for simulation.
  *
  * @author  Mandar Chitre
  */
-class DiscreteEvent implements Comparable<DiscreteEvent> {
+class DiscreteEvent implements Comparable<DiscreteEvent>, Cancellable {
 
   /////////// Attributes
 
-  static volatile long count = 0;
-
   long id;               // event count, for resolving ordering ties
   long tid;              // thread id of creator
   long created;          // time when the event was created
   long time;             // time of the event
-  TimerTask task;        // task to be executed when time is reached
+  Runnable task;         // task to be executed when time is reached
+  Thread waiter;         // thread to be woken up when time is reached, if no task
   boolean passive;       // passive tasks are ones which do not wake up any agent
+  boolean pooled;        // pooled events are recycled after they fire
+  DiscreteEvent next;    // link in event queue or free list
+  private volatile long live = -1;   // id of the event until it is fired or cancelled, -1 after
+
+  private static final AtomicLongFieldUpdater<DiscreteEvent> liveUpdater = AtomicLongFieldUpdater.newUpdater(DiscreteEvent.class, "live");
 
   /////////// Constructors for convenience
 
-  DiscreteEvent(long created, long time, TimerTask task) {
-    synchronized (DiscreteEvent.class) {
-      this.id = count++;
-    }
-    this.tid = Thread.currentThread().getId();
+  DiscreteEvent() {
+    // for event pools
+  }
+
+  DiscreteEvent(long created, long time, Runnable task, long tid, long id) {
+    this.id = id;
+    this.tid = tid;
     this.created = created;
     this.time = time;
     this.task = task;
     passive = false;
+    live = id;
   }
 
-  DiscreteEvent(long created, long time, TimerTask task, boolean passive) {
-    synchronized (DiscreteEvent.class) {
-      this.id = count++;
-    }
+  // (re)initializes an event created by the current thread
+  DiscreteEvent set(long created, long time, Runnable task, Thread waiter, long id) {
+    this.id = id;
     this.tid = Thread.currentThread().getId();
     this.created = created;
     this.time = time;
     this.task = task;
-    this.passive = passive;
+    this.waiter = waiter;
+    passive = waiter != null;
+    live = id;
+    return this;
   }
-  
+
+  // executes the task or wakes up the waiting thread
+  void fire() {
+    if (waiter != null) LockSupport.unpark(waiter);
+    else task.run();
+  }
+
+  // releases references held by a pooled event
+  void clear() {
+    task = null;
+    waiter = null;
+  }
+
+  // marks the event as fired, returning false if it was already fired or cancelled
+  boolean trigger() {
+    return liveUpdater.compareAndSet(this, id, -1);
+  }
+
+  // checks if the event is yet to be fired or cancelled
+  boolean isLive() {
+    return live == id;
+  }
+
+  //////////// Cancellation
+
+  @Override
+  public boolean cancel() {
+    return cancel(id);
+  }
+
+  // cancels the event, only if it still has the given id and has not been
+  // recycled for another use
+  boolean cancel(long id) {
+    return liveUpdater.compareAndSet(this, id, -1);
+  }
+
   //////////// For display
   
   public String toString() {
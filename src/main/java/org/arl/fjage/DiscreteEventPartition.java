@@ -0,0 +1,293 @@
+/******************************************************************************
+
+Copyright (c) 2021, Mandar Chitre
+
+This file is part of fjage which is released under Simplified BSD License.
+See file LICENSE.txt or go to http://www.opensource.org/licenses/BSD-3-Clause
+for full license details.
+
+******************************************************************************/
+
+package org.arl.fjage;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimerTask;
+import java.util.logging.Logger;
+
+/**
+ * A partition of a {@link ParallelDiscreteEventSimulator}. Each partition is a
+ * platform with its own simulation clock and event queue, and the containers
+ * on it only interact with other partitions through messages sent using
+ * {@link #send(Message, DiscreteEventPartition, long)}.
+ * <p>
+ * Partitions are created by the simulator:
+ * <pre>
+ * ParallelDiscreteEventSimulator sim = new ParallelDiscreteEventSimulator();
+ * DiscreteEventPartition p1 = sim.addPartition("node1");
+ * DiscreteEventPartition p2 = sim.addPartition("node2");
+ * sim.link(p1, p2, 10);                            // messages take at least 10 ms
+ * Container c1 = new Container(p1);
+ * Container c2 = new Container(p2);
+ * c1.add("myAgent", new myAgent());                // add appropriate agents
+ * c2.add("yourAgent", new yourAgent());
+ * sim.start();
+ * </pre>
+ *
+ * @author  Mandar Chitre
+ */
+public final class DiscreteEventPartition extends Platform {
+
+  /////////// Private attributes
+
+  private final ParallelDiscreteEventSimulator sim;
+  private final String name;
+  private final int index;
+  private final Map<DiscreteEventPartition,Long> lookahead = new HashMap<DiscreteEventPartition,Long>();
+  private final CalendarQueue events = new CalendarQueue();
+  private List<DiscreteEvent> outbox = new ArrayList<DiscreteEvent>();
+  private List<DiscreteEventPartition> outboxDest = new ArrayList<DiscreteEventPartition>();
+  private volatile long time = 0;
+  private long seq = 0;
+  private long sent = 0;
+  private Logger log = Logger.getLogger(getClass().getName());
+
+  /////////// Constructor
+
+  DiscreteEventPartition(ParallelDiscreteEventSimulator sim, String name, int index) {
+    this.sim = sim;
+    this.name = name;
+    this.index = index;
+  }
+
+  /////////// Interface methods
+
+  /**
+   * Gets the name of the partition.
+   *
+   * @return name of the partition.
+   */
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * Gets the simulator that this partition is part of.
+   *
+   * @return parallel discrete event simulator.
+   */
+  public ParallelDiscreteEventSimulator getSimulator() {
+    return sim;
+  }
+
+  /**
+   * Sends a message to agents on another partition. The message is delivered
+   * to the other partition after the specified delay of simulation time, which
+   * must be no shorter than the lookahead declared for the link between the
+   * partitions. The message is delivered to the recipient agent, or to all
+   * subscribers of a topic, on the containers of the other partition.
+   *
+   * @param msg message to send.
+   * @param dest partition to deliver the message to.
+   * @param delay delay in milliseconds.
+   */
+  public void send(Message msg, DiscreteEventPartition dest, long delay) {
+    Long la = lookahead.get(dest);
+    if (la == null) throw new FjageException("No link from "+name+" to "+dest.getName());
+    if (delay < la) throw new FjageException("Delay "+delay+" ms is shorter than lookahead "+la+" ms from "+name+" to "+dest.getName());
+    long t = time;
+    if (msg.getSentAt() == null) msg.setSentAtOnSend(t);
+    synchronized (events) {
+      // ordered by origin and sequence number, so that ties are broken the same
+      // way irrespective of how partitions are scheduled
+      outbox.add(new DiscreteEvent(t, t+delay, () -> dest.deliver(msg), index+1, sent++));
+      outboxDest.add(dest);
+    }
+  }
+
+  /**
+   * Gets the lookahead declared for the link to another partition.
+   *
+   * @param dest other partition.
+   * @return lookahead in milliseconds, or -1 if the partitions are not linked.
+   */
+  public long getLookahead(DiscreteEventPartition dest) {
+    Long la = lookahead.get(dest);
+    return la == null ? -1 : la;
+  }
+
+  @Override
+  public long currentTimeMillis() {
+    return time;
+  }
+
+  @Override
+  public long nanoTime() {
+    return time*1000000;
+  }
+
+  @Override
+  public void schedule(TimerTask task, long millis) {
+    if (millis <= 0) task.run();
+    else addEvent(newEvent(time+millis, task));
+  }
+
+  @Override
+  public Cancellable scheduleCancellable(Runnable task, long millis) {
+    DiscreteEvent e = newEvent(time+Math.max(millis, 0), task);
+    if (millis <= 0) {
+      task.run();
+      e.trigger();
+    }
+    else addEvent(e);
+    return e;
+  }
+
+  @Override
+  public void idle() {
+    synchronized (this) {
+      notify();
+    }
+  }
+
+  @Override
+  public void delay(long millis) {
+    if (millis <= 0) return;
+    long t = time + millis;
+    while (time < t && sim.isRunning()) {
+      try {
+        Thread.sleep(1);
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+        return;
+      }
+    }
+  }
+
+  @Override
+  public void start() {
+    sim.start();
+  }
+
+  @Override
+  public void shutdown() {
+    sim.shutdown();
+  }
+
+  @Override
+  public String toString() {
+    return getClass().getSimpleName()+"["+name+"@"+time+"]";
+  }
+
+  /////////// Methods called by the simulator
+
+  void link(DiscreteEventPartition dest, long millis) {
+    lookahead.put(dest, millis);
+  }
+
+  int getIndex() {
+    return index;
+  }
+
+  Map<DiscreteEventPartition,Long> getLinks() {
+    return lookahead;
+  }
+
+  void startContainers() {
+    super.start();
+  }
+
+  void shutdownContainers() {
+    super.shutdown();
+  }
+
+  // moves messages sent to other partitions into their event queues
+  void flush() {
+    List<DiscreteEvent> out;
+    List<DiscreteEventPartition> dest;
+    synchronized (events) {
+      if (outbox.isEmpty()) return;
+      out = outbox;
+      dest = outboxDest;
+      outbox = new ArrayList<DiscreteEvent>();
+      outboxDest = new ArrayList<DiscreteEventPartition>();
+    }
+    for (int i = 0; i < out.size(); i++)
+      dest.get(i).addEvent(out.get(i));
+  }
+
+  // time of the next pending event, Long.MAX_VALUE if none
+  long nextEventTime() {
+    DiscreteEvent e = nextEvent();
+    return e == null ? Long.MAX_VALUE : e.time;
+  }
+
+  // processes all events before the given time, and waits for agents to go idle
+  void run(long until) {
+    LogHandlerProxy.bind(this);
+    waitIdle();
+    while (sim.isRunning()) {
+      DiscreteEvent e;
+      synchronized (events) {
+        e = nextEvent();
+        if (e == null || e.time >= until) break;
+        events.poll();
+      }
+      if (e.time > time) time = e.time;
+      log.fine("Fire "+e);
+      if (e.trigger()) e.task.run();
+      waitIdle();
+    }
+  }
+
+  /////////// Private methods
+
+  private DiscreteEvent newEvent(long t, Runnable task) {
+    synchronized (events) {
+      return new DiscreteEvent(time, t, task, 0, seq++);
+    }
+  }
+
+  private void addEvent(DiscreteEvent e) {
+    synchronized (events) {
+      events.add(e);
+    }
+  }
+
+  private DiscreteEvent nextEvent() {
+    synchronized (events) {
+      DiscreteEvent e = events.peek();
+      while (e != null && !e.isLive()) {
+        events.poll();
+        e = events.peek();
+      }
+      return e;
+    }
+  }
+
+  private void deliver(Message msg) {
+    AgentID aid = msg.getRecipient();
+    for (Container c: containers) {
+      if (aid.isTopic()) c.send(msg);
+      else if (c.getAgent(aid) != null) {
+        c.send(msg);
+        return;
+      }
+    }
+    if (!aid.isTopic()) log.warning("Message "+msg+" undeliverable on partition "+name);
+  }
+
+  private synchronized void waitIdle() {
+    while (sim.isRunning() && !isIdle()) {
+      try {
+        wait();
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+        return;
+      }
+    }
+  }
+
+}
@@ -10,9 +10,14 @@ for full license details.
 
 package org.arl.fjage;
 
-import java.util.Queue;
+import java.util.Map;
 import java.util.TimerTask;
-import java.util.concurrent.PriorityBlockingQueue;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -36,10 +41,25 @@ import java.util.logging.Logger;
  */
 public final class DiscreteEventSimulator extends Platform implements Runnable {
 
+  /////////// Constants
+
+  private static final int MAX_SPARE_EVENTS = 4096;
+  private static final long DELAY_POLL = 1000000000L;
+  private static final Cancellable EXECUTED = () -> false;     // handle to a task executed when scheduled
+
   /////////// Private attributes
 
   private volatile long time = 0;
-  private Queue<DiscreteEvent> events = new PriorityBlockingQueue<DiscreteEvent>();
+  private volatile boolean done = false;
+  private volatile boolean stopping = false;                                             // time stops advancing once shutdown is requested
+  private final AtomicLong ids = new AtomicLong();                                       // event ids, for resolving ties
+  private final CalendarQueue events = new CalendarQueue();                              // owned by simulator thread
+  private final AtomicReference<DiscreteEvent> incoming = new AtomicReference<DiscreteEvent>();  // scheduled from other threads
+  private final AtomicReference<DiscreteEvent> recycled = new AtomicReference<DiscreteEvent>();  // fired events for reuse
+  private final ThreadLocal<DiscreteEvent[]> spares = ThreadLocal.withInitial(() -> new DiscreteEvent[1]);
+  private DiscreteEvent spare = null;                                                    // owned by simulator thread
+  private int nSpares = 0;
+  private final TreeMap<Long,CompletableFuture<SimulationCheckpoint>> checkpoints = new TreeMap<Long,CompletableFuture<SimulationCheckpoint>>();
   private Logger log = Logger.getLogger(getClass().getName());
   private Thread thread = null;
   private float speed = Float.NaN;
@@ -71,39 +91,42 @@ public final class DiscreteEventSimulator extends Platform implements Runnable {
 
   @Override
   public long nanoTime() {
-    return time*1000;
+    return time*1000000;
   }
 
   @Override
   public void delay(long millis) {
     if (millis <= 0) return;
-    final Object sync = new Object();
     long t = time + millis;
-    long dt = millis;
-    while (dt > 0) {
-      synchronized (sync) {
-        addEvent(new DiscreteEvent(time, t, new TimerTask() {
-          @Override
-          public void run() {
-            synchronized (sync) {
-              sync.notify();
-            }
-          }
-        }, true));
-        try {
-          sync.wait();
-        } catch (InterruptedException e) {
-          Thread.currentThread().interrupt();
-        }
-      }
-      dt = t - time;
-    }
+    addEvent(obtain(t, null, Thread.currentThread()));
+    while (time < t && !done)
+      LockSupport.parkNanos(this, DELAY_POLL);
   }
 
   @Override
   public void schedule(TimerTask task, long millis) {
     if (millis <= 0) task.run();
-    else addEvent(new DiscreteEvent(time, time+millis, task));
+    else addEvent(obtain(time+millis, task, null));
+  }
+
+  /**
+   * Schedules a task to be executed after a given delay. Cancelled tasks are
+   * discarded without advancing simulation time to them.
+   *
+   * @param task task to be executed.
+   * @param millis delay in milliseconds.
+   * @return handle to cancel the task.
+   */
+  @Override
+  public Cancellable scheduleCancellable(Runnable task, long millis) {
+    if (millis <= 0) {
+      task.run();
+      return EXECUTED;
+    }
+    DiscreteEvent e = obtain(time+millis, task, null);
+    Cancellable c = new EventHandle(e, e.id);
+    addEvent(e);
+    return c;
   }
 
   @Override
@@ -123,12 +146,23 @@ public final class DiscreteEventSimulator extends Platform implements Runnable {
     thread.start();
   }
 
+  /**
+   * Waits for the simulation to end and all containers to shut down.
+   *
+   * @throws InterruptedException if interrupted while waiting.
+   */
+  public void awaitTermination() throws InterruptedException {
+    Thread t = thread;
+    if (t != null) t.join();
+    while (isRunning())
+      Thread.sleep(1);
+  }
+
   @Override
   public void shutdown() {
+    if (stopping) return;
+    stopping = true;
     super.shutdown();
-    synchronized (events) {
-      events.clear();
-    }
     synchronized (this) {
       notify();
     }
@@ -141,19 +175,34 @@ public final class DiscreteEventSimulator extends Platform implements Runnable {
    */
   @Override
   public void run() {
+    LogHandlerProxy.bind(this);
+    SimulationProfiler profiler = this.profiler;
+    if (profiler != null) profiler.start();
     try {
-      DiscreteEvent e = events.peek();
-      while (running) {
+      DiscreteEvent e = nextEvent();
+      while (running && !stopping) {
+        boolean woke = false;
         while (e != null && e.time <= time) {
-          log.fine("Fire "+e);
-          synchronized (events) {
-            if (events.size() > 0) events.poll().task.run();
+          events.poll();
+          if (log.isLoggable(Level.FINE)) log.fine("Fire "+e);
+          if (e.trigger()) {
+            if (profiler != null) {
+              long t0 = System.nanoTime();
+              e.fire();
+              profiler.event(System.nanoTime() - t0);
+            } else {
+              e.fire();
+            }
+            woke |= !isIdle();
           }
-          e = events.peek();
+          if (e.pooled) recycle(e);
+          e = nextEvent();
         }
-        Thread.yield();
+        publish();
+        // give woken agents a chance to run and block before resorting to wait/notify
+        if (woke) Thread.yield();
         synchronized (this) {
-          while (running && !isIdle()) {
+          while (running && !stopping && !isIdle()) {
             try {
               log.fine("Waiting for agents");
               wait();
@@ -162,10 +211,18 @@ public final class DiscreteEventSimulator extends Platform implements Runnable {
             }
           }
         }
-        e = events.peek();
+        if (stopping) break;
+        e = nextEvent();
+        long dt = 0;
+        synchronized (checkpoints) {
+          if (!checkpoints.isEmpty()) takeCheckpoints(e == null ? Long.MAX_VALUE : e.time);
+          if (e != null) {
+            dt = e.time - time;
+            time = e.time;
+          }
+        }
+        if (profiler != null) profiler.sample(time, events.size());
         if (e != null) {
-          long dt = e.time - time;
-          time = e.time;
           if (dt > 0 && !Float.isNaN(speed)) {
             long t = Math.round(dt/speed);
             try {
@@ -183,14 +240,157 @@ public final class DiscreteEventSimulator extends Platform implements Runnable {
     } catch (Exception ex) {
       log.log(Level.SEVERE, "Exception: ", ex);
     }
+    synchronized (checkpoints) {
+      done = true;
+      for (CompletableFuture<SimulationCheckpoint> f: checkpoints.values())
+        f.completeExceptionally(new FjageException("Simulation terminated before checkpoint"));
+      checkpoints.clear();
+    }
+    drain();
+    events.clear();
+    if (profiler != null) profiler.stop(time);
     log.info("Simulator shutdown");
+    LogHandlerProxy.bind(null);
+  }
+
+  /**
+   * Takes a checkpoint of the simulation at a given simulation time. The
+   * checkpoint is taken once all events up to the given time have been
+   * processed and all agents are idle, and before any later event. This method
+   * blocks until the simulation reaches the checkpoint, and the simulation then
+   * continues.
+   *
+   * @param millis simulation time in milliseconds.
+   * @return the checkpoint.
+   * @see #restore(SimulationCheckpoint)
+   */
+  public SimulationCheckpoint checkpoint(long millis) {
+    CompletableFuture<SimulationCheckpoint> f;
+    synchronized (checkpoints) {
+      if (done) throw new FjageException("Simulation has terminated");
+      if (millis < time) throw new FjageException("Simulation is already past checkpoint time");
+      f = checkpoints.computeIfAbsent(millis, k -> new CompletableFuture<SimulationCheckpoint>());
+    }
+    try {
+      return f.get();
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new FjageException("Checkpoint interrupted");
+    } catch (ExecutionException ex) {
+      throw new FjageException(ex.getCause().getMessage());
+    }
+  }
+
+  /**
+   * Restores a simulation from a checkpoint. The containers and agents of the
+   * simulation should be created as for the checkpointed simulation, and then
+   * restored before the simulator is started. The simulation starts at the
+   * time of the checkpoint.
+   *
+   * @param checkpoint checkpoint to restore from.
+   * @see #checkpoint(long)
+   */
+  public void restore(SimulationCheckpoint checkpoint) {
+    if (thread != null) throw new FjageException("Cannot restore a simulation that has started");
+    time = checkpoint.getTime();
+    checkpoint.restore(this);
+  }
+
+  /**
+   * Sets a profiler to record the cost of events and agents' behaviors during
+   * the simulation. The profiler should be set before the simulator is
+   * started.
+   *
+   * @param profiler profiler, or null to disable profiling.
+   */
+  public void setProfiler(SimulationProfiler profiler) {
+    if (thread != null) throw new FjageException("Cannot set a profiler once the simulation has started");
+    this.profiler = profiler;
+  }
+
+  /**
+   * Gets the profiler set on the simulator.
+   *
+   * @return profiler, or null if profiling is disabled.
+   */
+  public SimulationProfiler getProfiler() {
+    return profiler;
   }
 
   /////////// Private methods
 
+  // schedules an event restored from a checkpoint
+  void restoreEvent(long created, long t, Runnable task) {
+    addEvent(new DiscreteEvent(created, t, task, Thread.currentThread().getId(), ids.getAndIncrement()));
+  }
+
+  // schedules a timer restored from a checkpoint, returning a handle to cancel it
+  Cancellable restoreTimer(long created, long t, Runnable task) {
+    DiscreteEvent e = new DiscreteEvent(created, t, task, Thread.currentThread().getId(), ids.getAndIncrement());
+    addEvent(e);
+    return e;
+  }
+
+  // gets the creation and due times of a timer scheduled on a simulator, if it
+  // is yet to fire or be cancelled, null otherwise
+  static long[] getPendingTimer(Cancellable c) {
+    if (c instanceof DiscreteEvent) {
+      DiscreteEvent e = (DiscreteEvent)c;
+      return e.isLive() ? new long[] { e.created, e.time } : null;
+    }
+    if (!(c instanceof EventHandle)) return null;
+    EventHandle h = (EventHandle)c;
+    DiscreteEvent e = h.event;
+    return e.id == h.id && e.isLive() ? new long[] { e.created, e.time } : null;
+  }
+
+  // takes checkpoints due before the next event, at a quiescent point
+  private void takeCheckpoints(long next) {
+    while (!checkpoints.isEmpty() && checkpoints.firstKey() < next) {
+      Map.Entry<Long,CompletableFuture<SimulationCheckpoint>> c = checkpoints.pollFirstEntry();
+      time = c.getKey();
+      log.info("Checkpoint at "+time);
+      try {
+        c.getValue().complete(SimulationCheckpoint.capture(this, time, events.toList()));
+      } catch (Exception ex) {
+        c.getValue().completeExceptionally(ex);
+      }
+    }
+  }
+
+  // gets the next event due, discarding cancelled events
+  private DiscreteEvent nextEvent() {
+    drain();
+    DiscreteEvent e = events.peek();
+    while (e != null && !e.isLive()) {
+      events.poll();
+      if (e.pooled) recycle(e);
+      e = events.peek();
+    }
+    return e;
+  }
+
+  // moves events scheduled by other threads into the event queue
+  private void drain() {
+    DiscreteEvent e = incoming.getAndSet(null);
+    while (e != null) {
+      DiscreteEvent next = e.next;
+      events.add(e);
+      e = next;
+    }
+  }
+
   private void addEvent(DiscreteEvent event) {
-    log.fine("Adding "+event);
-    events.add(event);
+    if (log.isLoggable(Level.FINE)) log.fine("Adding "+event);
+    if (Thread.currentThread() == thread) {
+      events.add(event);
+      return;
+    }
+    DiscreteEvent h;
+    do {
+      h = incoming.get();
+      event.next = h;
+    } while (!incoming.compareAndSet(h, event));
     if (thread != null && thread.getState() == Thread.State.WAITING) {
       synchronized (this) {
         notify();
@@ -198,4 +398,66 @@ public final class DiscreteEventSimulator extends Platform implements Runnable {
     }
   }
 
+  // gets an event from the pool, or creates one if the pool is empty; events
+  // released by the simulator thread are handed over to other threads in batches
+  private DiscreteEvent obtain(long t, Runnable task, Thread waiter) {
+    DiscreteEvent e;
+    if (Thread.currentThread() == thread) {
+      e = spare;
+      if (e != null) {
+        spare = e.next;
+        nSpares--;
+      }
+    } else {
+      DiscreteEvent[] local = spares.get();
+      e = local[0];
+      if (e == null) e = recycled.getAndSet(null);
+      if (e != null) local[0] = e.next;
+    }
+    if (e == null) {
+      e = new DiscreteEvent();
+      e.pooled = true;
+    }
+    e.next = null;
+    return e.set(time, t, task, waiter, ids.getAndIncrement());
+  }
+
+  private void recycle(DiscreteEvent e) {
+    e.clear();
+    if (nSpares >= MAX_SPARE_EVENTS) return;
+    e.next = spare;
+    spare = e;
+    nSpares++;
+  }
+
+  // makes recycled events available to other threads, once they have used up
+  // the previous batch
+  private void publish() {
+    if (spare == null || recycled.get() != null) return;
+    recycled.set(spare);
+    spare = null;
+    nSpares = 0;
+  }
+
+  /////////// Cancellation handles
+
+  // handle to a pooled event, which only cancels the event it was issued for,
+  // even once the event has been recycled for another use
+  private static class EventHandle implements Cancellable {
+
+    private final DiscreteEvent event;
+    private final long id;
+
+    EventHandle(DiscreteEvent event, long id) {
+      this.event = event;
+      this.id = id;
+    }
+
+    @Override
+    public boolean cancel() {
+      return event.cancel(id);
+    }
+
+  }
+
 }
@@ -347,6 +347,14 @@ public class FSMBehavior extends Behavior {
       if (fsm != null) fsm.block(millis);
     }
 
+    /**
+     * Blocks the behavior.
+     * @see org.arl.fjage.Behavior#blockNanos(long)
+     */
+    public void blockNanos(long nanos) {
+      if (fsm != null) fsm.blockNanos(nanos);
+    }
+
     /**
      * Restarts the behavior.
      * @see org.arl.fjage.Behavior#restart()
@@ -85,6 +85,7 @@ public class GenericMessage extends Message implements Map<Object,Object> {
 
   @Override
   public void clear() {
+    ensureMutable();
     map.clear();
   }
 
@@ -116,11 +117,13 @@ public class GenericMessage extends Message implements Map<Object,Object> {
 
   @Override
   public Set<Object> keySet() {
+    if (frozen) return Collections.unmodifiableSet(map.keySet());
     return map.keySet();
   }
 
   @Override
   public Object put(Object key, Object value) {
+    ensureMutable();
     if (key.equals("performative")) {
       setPerformative((Performative)value);
       return value;
@@ -150,6 +153,7 @@ public class GenericMessage extends Message implements Map<Object,Object> {
 
   @Override
   public void putAll(Map<? extends Object, ? extends Object> map) {
+    ensureMutable();
     for (Map.Entry<? extends Object, ? extends Object> entry: map.entrySet()) {
       Object k = entry.getKey();
       Object v = entry.getValue();
@@ -160,6 +164,7 @@ public class GenericMessage extends Message implements Map<Object,Object> {
 
   @Override
   public Object remove(Object key) {
+    ensureMutable();
     return map.remove(key);
   }
 
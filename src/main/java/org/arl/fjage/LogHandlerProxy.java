@@ -16,7 +16,10 @@ import java.util.logging.Logger;
 
 /**
  * Proxy log handler to allow discrete time stamps in logs when the discrete
- * event platform is used.
+ * event platform is used. Since loggers are shared by all platforms in a JVM,
+ * agent and simulator threads bind their platform to the thread, and records
+ * logged on those threads are timestamped by the bound platform. Records logged
+ * on other threads are timestamped by the handler's TimestampProvider.
  *
  * @author  Mandar Chitre
  */
@@ -24,6 +27,8 @@ public class LogHandlerProxy extends Handler {
 
   ////////// Private attributes
 
+  private static final ThreadLocal<TimestampProvider> bound = new ThreadLocal<TimestampProvider>();
+
   private Handler delegate;
   private TimestampProvider timesrc;
 
@@ -57,7 +62,9 @@ public class LogHandlerProxy extends Handler {
    */
   @Override
   public void publish(LogRecord rec) {
-    if (timesrc != null) rec.setMillis(timesrc.currentTimeMillis());
+    TimestampProvider t = bound.get();
+    if (t == null) t = timesrc;
+    if (t != null) rec.setMillis(t.currentTimeMillis());
     delegate.publish(rec);
   }
 
@@ -81,6 +88,17 @@ public class LogHandlerProxy extends Handler {
     delegate.flush();
   }
 
+  /**
+   * Binds a TimestampProvider to the current thread, for records logged on
+   * the thread.
+   *
+   * @param timesrc TimestampProvider to use for timestamps, null to unbind.
+   */
+  public static void bind(TimestampProvider timesrc) {
+    if (timesrc == null) bound.remove();
+    else bound.set(timesrc);
+  }
+
   /**
    * Installs this handler for all handlers in the root logger.
    *
@@ -0,0 +1,56 @@
+/******************************************************************************
+
+Copyright (c) 2021, Mandar Chitre
+
+This file is part of fjage which is released under Simplified BSD License.
+See file LICENSE.txt or go to http://www.opensource.org/licenses/BSD-3-Clause
+for full license details.
+
+******************************************************************************/
+
+package org.arl.fjage;
+
+import org.arl.fjage.param.Parameter;
+
+/**
+ * Parameters describing the incoming message queue of an agent. To expose
+ * these parameters, add them to the agent's parameter message behavior:
+ * <pre>
+ * add(new ParameterMessageBehavior(MyParams.class, MailboxParam.class));
+ * </pre>
+ *
+ * @author  Mandar Chitre
+ */
+public enum MailboxParam implements Parameter {
+
+  /**
+   * Maximum number of messages in the queue, 0 if unlimited.
+   */
+  queueSize,
+
+  /**
+   * Number of messages waiting in the queue.
+   */
+  queueLength,
+
+  /**
+   * Largest number of messages that have waited in the queue at once.
+   */
+  queueHighWaterMark,
+
+  /**
+   * Number of messages dropped due to queue overflow.
+   */
+  droppedMessages,
+
+  /**
+   * Number of messages dropped because they had expired.
+   */
+  expiredMessages,
+
+  /**
+   * Number of messages spilled to disk due to queue overflow.
+   */
+  spilledMessages
+
+}
@@ -10,14 +10,27 @@ for full license details.
 
 package org.arl.fjage;
 
+import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
-import java.util.UUID;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 
 /**
  * Base class for messages transmitted by one agent to another. This class provides
  * the basic attributes of messages and is typically extended by application-specific
  * message classes. To ensure that messages can be sent between agents running
  * on remote containers, all attributes of a message must be serializable.
+ * <p>
+ * Each message is given a unique identifier when it is created. By default,
+ * identifiers are drawn from a {@link CounterIdGenerator}, and their string
+ * form is only created when first needed. A different generator may be set
+ * using {@link #setIdGenerator(MessageIdGenerator)}.
+ * <p>
+ * Messages sent at high rates may be reused through a {@link MessagePool}.
+ * <p>
+ * A message may be given a time to live, counted from the time it is sent.
+ * Messages that expire before they are received, such as stale reports or
+ * requests that have timed out, are dropped.
  *
  * @author  Mandar Chitre
  */
@@ -25,17 +38,51 @@ public class Message implements Serializable {
 
   private static final long serialVersionUID = 1L;
 
+  private static final CounterIdGenerator defaultIds = new CounterIdGenerator();
+  private static volatile MessageIdGenerator ids = null;
+  private static final AtomicIntegerFieldUpdater<Message> refsUpdater = AtomicIntegerFieldUpdater.newUpdater(Message.class, "refs");
+
   //////////// Private attributes
 
-  protected String msgID = UUID.randomUUID().toString();
+  protected String msgID = null;          // null until needed, if msgSeq is set
+  private transient long msgSeq = 0;      // sequence number from default generator
   protected Performative perf;
   protected AgentID recipient;
   protected AgentID sender = null;
   protected String inReplyTo = null;
   protected Long sentAt = null;
+  protected Long ttl = null;
+  protected transient boolean frozen = false;
+  protected transient MessagePriority priority = null;
+  private transient MessagePool<?> pool = null;     // pool to recycle the message to, if pooled
+  private transient volatile int refs = 0;          // references held by the sender and recipients, if pooled
+  private transient Thread owner = null;            // thread that obtained it, until first sent
+  transient Message nextFree = null;                // link in the free list of the pool
+
+  {
+    newMessageID();
+  }
 
   //////////// Interface methods
 
+  /**
+   * Sets the generator used to create identifiers for new messages.
+   *
+   * @param gen message identifier generator, or null to use the default.
+   */
+  public static void setIdGenerator(MessageIdGenerator gen) {
+    ids = gen;
+  }
+
+  /**
+   * Gets the generator used to create identifiers for new messages.
+   *
+   * @return message identifier generator, or null if the default is used.
+   */
+  public static MessageIdGenerator getIdGenerator() {
+    return ids;
+  }
+
   /**
    * Creates an empty message.
    */
@@ -83,7 +130,7 @@ public class Message implements Serializable {
   public Message(Message inReplyTo) {
     perf = null;
     this.recipient = inReplyTo.sender;
-    this.inReplyTo = inReplyTo.msgID;
+    this.inReplyTo = inReplyTo.getMessageID();
   }
 
   /**
@@ -95,7 +142,7 @@ public class Message implements Serializable {
   public Message(Message inReplyTo, Performative perf) {
     this.perf = perf;
     this.recipient = inReplyTo.sender;
-    this.inReplyTo = inReplyTo.msgID;
+    this.inReplyTo = inReplyTo.getMessageID();
   }
 
   /**
@@ -104,6 +151,7 @@ public class Message implements Serializable {
    * @param perf performative.
    */
   public void setPerformative(Performative perf) {
+    ensureMutable();
     this.perf = perf;
   }
 
@@ -122,6 +170,7 @@ public class Message implements Serializable {
    * @param aid recipient agent id.
    */
   public void setRecipient(AgentID aid) {
+    ensureMutable();
     recipient = aid;
   }
 
@@ -140,6 +189,7 @@ public class Message implements Serializable {
    * @param aid sender agent id.
    */
   public void setSender(AgentID aid) {
+    ensureMutable();
     sender = aid;
   }
 
@@ -158,7 +208,9 @@ public class Message implements Serializable {
    * @param id message identifier.
    */
   public void setMessageID(String id) {
+    ensureMutable();
     msgID = id;
+    msgSeq = 0;
   }
 
   /**
@@ -167,6 +219,7 @@ public class Message implements Serializable {
    * @return message identifier.
    */
   public String getMessageID() {
+    if (msgID == null && msgSeq != 0) msgID = defaultIds.format(msgSeq);
     return msgID;
   }
 
@@ -176,6 +229,7 @@ public class Message implements Serializable {
    * @param id message id of request message.
    */
   public void setInReplyTo(String id) {
+    ensureMutable();
     inReplyTo = id;
   }
 
@@ -194,6 +248,7 @@ public class Message implements Serializable {
    * @param ms timestamp in milliseconds
    */
   public void setSentAt(long ms) {
+    ensureMutable();
     sentAt = ms;
   }
 
@@ -206,6 +261,225 @@ public class Message implements Serializable {
     return sentAt;
   }
 
+  /**
+   * Sets the time for which this message remains useful after it is sent.
+   * Messages that have expired are dropped rather than being delivered,
+   * received or relayed to remote containers.
+   *
+   * @param ms time to live in milliseconds, or null if the message does not expire.
+   */
+  public void setTimeToLive(Long ms) {
+    ensureMutable();
+    ttl = ms;
+  }
+
+  /**
+   * Gets the time for which this message remains useful after it is sent.
+   *
+   * @return time to live in milliseconds, or null if the message does not expire.
+   */
+  public Long getTimeToLive() {
+    return ttl;
+  }
+
+  /**
+   * Gets the time (milliseconds since epoch) at which this message expires.
+   *
+   * @return expiry time in milliseconds, or null if the message does not expire
+   *         or has not been sent.
+   */
+  public Long getExpiryTime() {
+    Long t = sentAt;
+    Long dt = ttl;
+    if (t == null || dt == null) return null;
+    return t + dt;
+  }
+
+  /**
+   * Checks if this message has expired.
+   *
+   * @param now current time in milliseconds.
+   * @return true if the message has expired, false otherwise.
+   */
+  public boolean isExpired(long now) {
+    Long t = getExpiryTime();
+    return t != null && now > t;
+  }
+
+  /**
+   * Sets the priority of this message in the incoming message queue of its
+   * recipients. The priority is a local delivery hint, and is not sent to
+   * remote containers.
+   *
+   * @param priority message priority, or null if unspecified.
+   */
+  public void setPriority(MessagePriority priority) {
+    ensureMutable();
+    this.priority = priority;
+  }
+
+  /**
+   * Gets the priority of this message in the incoming message queue of its
+   * recipients. Messages of unspecified priority are queued at
+   * {@link MessagePriority#NORMAL} priority, unless the recipient derives their
+   * priority from their performative.
+   *
+   * @return message priority, or null if unspecified.
+   * @see Agent#setPriorityFromPerformative(boolean)
+   */
+  public MessagePriority getPriority() {
+    return priority;
+  }
+
+  /**
+   * Freezes this message. A frozen message cannot be modified, and is shared
+   * by all its recipients rather than being cloned for each, even if autoclone
+   * is enabled on the container. The sender and timestamp of a frozen message
+   * are set when it is first sent, and kept if it is sent again. Copies of a
+   * frozen message, such as deep clones or messages received from remote
+   * containers, are not frozen.
+   * <p>
+   * Message classes with attributes of their own should call
+   * {@link #ensureMutable()} before modifying them, so that frozen messages are
+   * safe to share.
+   *
+   * @return this message.
+   */
+  public Message freeze() {
+    frozen = true;
+    return this;
+  }
+
+  /**
+   * Checks if this message is frozen.
+   *
+   * @return true if the message is frozen, false otherwise.
+   * @see #freeze()
+   */
+  public boolean isFrozen() {
+    return frozen;
+  }
+
+  /**
+   * Checks that this message may be modified.
+   *
+   * @throws FjageException if the message is frozen.
+   */
+  protected void ensureMutable() {
+    if (frozen) throw new FjageException("Message is frozen");
+  }
+
+  /**
+   * Releases this message, if it was obtained from a {@link MessagePool}. Agents
+   * release pooled messages automatically once they are first sent, and once a
+   * {@link MessageBehavior} has processed them. An agent that receives a pooled
+   * message using one of the receive() methods may release it once it no
+   * longer needs it, so that it can be reused sooner. The message should not
+   * be used after it is released. This method has no effect on messages that
+   * are not pooled.
+   */
+  public void release() {
+    MessagePool<?> p = pool;
+    if (p == null) return;
+    if (refsUpdater.decrementAndGet(this) == 0) {
+      onRecycle();
+      p.recycle(this);
+    }
+  }
+
+  /**
+   * Keeps this message from being returned to its pool until a matching call
+   * to {@link #release()}, if it was obtained from a {@link MessagePool}. An
+   * agent that holds on to a pooled message after its {@link MessageBehavior}
+   * has processed it should retain it. This method has no effect on messages
+   * that are not pooled.
+   */
+  public void retain() {
+    if (pool != null) refsUpdater.incrementAndGet(this);
+  }
+
+  /**
+   * Checks if this message was obtained from a {@link MessagePool}.
+   *
+   * @return true if the message is pooled, false otherwise.
+   */
+  public boolean isPooled() {
+    return pool != null;
+  }
+
+  /**
+   * Called when a pooled message is returned to its pool. Message classes
+   * with attributes of their own may override this to clear them, so that
+   * they do not hold on to objects while the message is in the pool.
+   */
+  protected void onRecycle() {
+    // do nothing
+  }
+
+  /////////////// Package private methods
+
+  // prepares a message taken from a pool for reuse
+  void reuse(MessagePool<?> pool) {
+    newMessageID();
+    recipient = null;
+    sender = null;
+    inReplyTo = null;
+    sentAt = null;
+    ttl = null;
+    frozen = false;
+    priority = null;
+    nextFree = null;
+    this.pool = pool;
+    refs = 1;
+    owner = Thread.currentThread();
+  }
+
+  // releases the reference of the agent that obtained a pooled message, when it is first sent,
+  // but not when a recipient forwards the message
+  void releaseOnSend() {
+    if (owner != Thread.currentThread()) return;
+    owner = null;
+    release();
+  }
+
+  // stops a pooled message from being recycled, once it is held where references are not tracked
+  void detach() {
+    pool = null;
+    refs = 0;
+    owner = null;
+    nextFree = null;
+  }
+
+  // sets the sender of a message being sent, unless it is frozen and already sent
+  void setSenderOnSend(AgentID aid) {
+    if (!frozen || sender == null) sender = aid;
+  }
+
+  // sets the timestamp of a message being sent, unless it already has one
+  void setSentAtOnSend(long ms) {
+    if (sentAt == null) sentAt = ms;
+  }
+
+  /////////////// Private methods
+
+  private void newMessageID() {
+    MessageIdGenerator g = ids;
+    if (g == null) {
+      msgID = null;
+      msgSeq = defaultIds.next();
+    } else {
+      msgID = g.nextId();
+      msgSeq = 0;
+    }
+  }
+
+  /////////////// Serialization
+
+  private void writeObject(ObjectOutputStream out) throws IOException {
+    getMessageID();
+    out.defaultWriteObject();
+  }
+
   /////////////// Standard Java methods to customize
 
   /**
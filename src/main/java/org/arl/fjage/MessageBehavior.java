@@ -24,6 +24,7 @@ public class MessageBehavior extends Behavior {
   ///////////// Private attributes
 
   private MessageFilter filter;
+  private Class<?> msgClass = null;
 
   //////////// Interface methods
 
@@ -42,6 +43,7 @@ public class MessageBehavior extends Behavior {
    */
   public MessageBehavior(final Class<?> cls) {
     filter = m -> cls.isInstance(m);
+    msgClass = cls;
   }
 
   /**
@@ -101,6 +103,16 @@ public class MessageBehavior extends Behavior {
     return filter != null;
   }
 
+  /**
+   * Gets the message class accepted by this MessageBehavior, if it was created
+   * with a class rather than an arbitrary filter.
+   *
+   * @return message class, or null if the behavior uses a filter or accepts all messages.
+   */
+  Class<?> getMessageClass() {
+    return msgClass;
+  }
+
   /**
    * Check if this MessageBehavior accepts a specific message.
    *
@@ -139,7 +151,13 @@ public class MessageBehavior extends Behavior {
     if (filter == null) msg = agent.receive();
     else msg = agent.receive(filter, 0);
     if (msg == null) block();
-    else onReceive(msg);
+    else {
+      try {
+        onReceive(msg);
+      } finally {
+        msg.release();
+      }
+    }
   }
 
   /**
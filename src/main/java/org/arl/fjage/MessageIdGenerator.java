@@ -0,0 +1,31 @@
+/******************************************************************************
+
+Copyright (c) 2021, Mandar Chitre
+
+This file is part of fjage which is released under Simplified BSD License.
+See file LICENSE.txt or go to http://www.opensource.org/licenses/BSD-3-Clause
+for full license details.
+
+******************************************************************************/
+
+package org.arl.fjage;
+
+/**
+ * Generator of unique message identifiers.
+ *
+ * @see Message#setIdGenerator(MessageIdGenerator)
+ * @author  Mandar Chitre
+ */
+@FunctionalInterface
+public interface MessageIdGenerator {
+
+  /**
+   * Generates a new message identifier. Identifiers should be unique across
+   * all agents that may exchange messages, including agents on remote
+   * containers and gateways.
+   *
+   * @return message identifier.
+   */
+  public String nextId();
+
+}
@@ -0,0 +1,163 @@
+/******************************************************************************
+
+Copyright (c) 2021, Mandar Chitre
+
+This file is part of fjage which is released under Simplified BSD License.
+See file LICENSE.txt or go to http://www.opensource.org/licenses/BSD-3-Clause
+for full license details.
+
+******************************************************************************/
+
+package org.arl.fjage;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Pool of reusable messages, for agents that send many messages of the same
+ * class at high rates. Messages are obtained from the pool, filled in and
+ * sent as usual:
+ * <pre>
+ * MessagePool&lt;SensorReading&gt; pool = new MessagePool&lt;&gt;(SensorReading::new);
+ * ...
+ * SensorReading m = pool.obtain();
+ * m.setRecipient(topic);
+ * m.value = x;
+ * send(m);
+ * </pre>
+ * The sender gives up the message when it is sent, and must not use it after
+ * that. Each agent in the same container that the message is delivered to
+ * holds on to it until it has been processed by a {@link MessageBehavior}, or
+ * until the agent calls {@link Message#release()}. The message returns to the
+ * pool once all of them are done with it. Messages that are cloned, relayed to
+ * remote containers, or consumed by message listeners are not returned to the
+ * pool, and are left to the garbage collector.
+ * <p>
+ * A pool may be shared by agents on different threads.
+ *
+ * @param <T> class of messages in the pool.
+ * @author  Mandar Chitre
+ */
+public class MessagePool<T extends Message> {
+
+  /////////// Private attributes
+
+  private static final int DEFAULT_CAPACITY = 1024;
+
+  // messages owned by one thread, to obtain without contention
+  private static final class Cache {
+    Message head = null;
+  }
+
+  private final Supplier<T> factory;
+  private final int capacity;
+  private final AtomicReference<Message> returned = new AtomicReference<Message>();   // recycled by any thread
+  private final AtomicInteger size = new AtomicInteger();
+  private final ThreadLocal<Cache> cache = ThreadLocal.withInitial(Cache::new);
+  private final LongAdder created = new LongAdder();
+  private final LongAdder reused = new LongAdder();
+
+  /////////// Interface methods
+
+  /**
+   * Creates a message pool that holds up to 1024 idle messages.
+   *
+   * @param factory creates new messages when the pool is empty.
+   */
+  public MessagePool(Supplier<T> factory) {
+    this(factory, DEFAULT_CAPACITY);
+  }
+
+  /**
+   * Creates a message pool.
+   *
+   * @param factory creates new messages when the pool is empty.
+   * @param capacity maximum number of idle messages held by the pool.
+   */
+  public MessagePool(Supplier<T> factory, int capacity) {
+    if (capacity < 1) throw new IllegalArgumentException("Capacity must be positive");
+    this.factory = factory;
+    this.capacity = capacity;
+  }
+
+  /**
+   * Obtains a message from the pool, or creates one if the pool is empty. The
+   * message has a new message id, and no recipient, sender or timestamp.
+   *
+   * @return message.
+   */
+  @SuppressWarnings("unchecked")
+  public T obtain() {
+    Cache c = cache.get();
+    Message m = c.head;
+    if (m == null) {
+      // take over everything recycled since the last time
+      m = returned.getAndSet(null);
+      if (m != null) {
+        int n = 0;
+        for (Message p = m; p != null; p = p.nextFree)
+          n++;
+        size.addAndGet(-n);
+      }
+    }
+    if (m == null) {
+      m = factory.get();
+      created.increment();
+    } else {
+      c.head = m.nextFree;
+      reused.increment();
+    }
+    m.reuse(this);
+    return (T)m;
+  }
+
+  /**
+   * Gets the number of idle messages in the pool.
+   *
+   * @return number of messages waiting to be reused, approximately.
+   */
+  public int size() {
+    return size.get();
+  }
+
+  /**
+   * Gets the number of messages created by the pool.
+   *
+   * @return number of messages created.
+   */
+  public long getCreated() {
+    return created.sum();
+  }
+
+  /**
+   * Gets the number of times a message was reused from the pool.
+   *
+   * @return number of messages reused.
+   */
+  public long getReused() {
+    return reused.sum();
+  }
+
+  @Override
+  public String toString() {
+    return getClass().getSimpleName()+"["+size()+" idle, "+getCreated()+" created, "+getReused()+" reused]";
+  }
+
+  /////////// Package private methods
+
+  // called when the last reference to a pooled message is released
+  void recycle(Message m) {
+    if (size.incrementAndGet() > capacity) {
+      size.decrementAndGet();
+      return;
+    }
+    Message head;
+    do {
+      head = returned.get();
+      m.nextFree = head;
+    } while (!returned.compareAndSet(head, m));
+  }
+
+}
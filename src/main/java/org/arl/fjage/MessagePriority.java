@@ -0,0 +1,79 @@
+/******************************************************************************
+
+Copyright (c) 2021, Mandar Chitre
+
+This file is part of fjage which is released under Simplified BSD License.
+See file LICENSE.txt or go to http://www.opensource.org/licenses/BSD-3-Clause
+for full license details.
+
+******************************************************************************/
+
+package org.arl.fjage;
+
+/**
+ * Priority of a message in the incoming message queue of an agent. Messages
+ * of higher priority are received before messages of lower priority, but lower
+ * priority messages are not starved. Messages of the same priority are
+ * received in the order they arrive.
+ *
+ * @see Message#setPriority(MessagePriority)
+ * @see Agent#setPriorityFromPerformative(boolean)
+ * @author  Mandar Chitre
+ */
+public enum MessagePriority {
+
+  /**
+   * Urgent messages, such as control requests.
+   */
+  HIGH,
+
+  /**
+   * Default priority of messages.
+   */
+  NORMAL,
+
+  /**
+   * Bulk messages, such as routine telemetry.
+   */
+  LOW;
+
+  /**
+   * Gets the priority conventionally associated with a message. Responses to
+   * other messages are of high priority, whatever their performative, and other
+   * messages take the priority associated with their performative.
+   *
+   * @param msg message.
+   * @return message priority.
+   * @see #of(Performative)
+   */
+  public static MessagePriority of(Message msg) {
+    if (msg.getInReplyTo() != null) return HIGH;
+    return of(msg.getPerformative());
+  }
+
+  /**
+   * Gets the priority conventionally associated with a performative. Requests,
+   * cancellations and the performatives only used in responses to requests
+   * (such as AGREE, REFUSE and FAILURE) are of high priority, and all other
+   * performatives, including INFORM, are of normal priority. Responses with
+   * other performatives are recognized by {@link #of(Message)}.
+   *
+   * @param perf performative.
+   * @return message priority.
+   */
+  public static MessagePriority of(Performative perf) {
+    if (perf == null) return NORMAL;
+    switch (perf) {
+      case REQUEST:
+      case CANCEL:
+      case AGREE:
+      case REFUSE:
+      case FAILURE:
+      case NOT_UNDERSTOOD:
+        return HIGH;
+      default:
+        return NORMAL;
+    }
+  }
+
+}
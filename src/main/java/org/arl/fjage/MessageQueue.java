@@ -10,11 +10,56 @@ for full license details.
 
 package org.arl.fjage;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * Internal class representing a message queue.
+ * <p>
+ * The queue is a multi-producer single-consumer mailbox. Any thread may add
+ * messages to the queue without locking, but all other methods must only be
+ * called by the thread consuming messages (typically the agent thread). Newly
+ * added messages are held in a lock-free inbox until the consumer drains them
+ * into its quarantine on the next call to {@link #commit(Iterable)}, {@link #get()}
+ * or {@link #get(MessageFilter)}.
+ * <p>
+ * Responses to outstanding requests are indexed by the id of the request they
+ * reply to. Once the consumer declares that it awaits replies to a request using
+ * {@link #await(String, boolean)}, such replies bypass the queue, and are retrieved in
+ * constant time using a {@link ReplyMessageFilter}.
+ * <p>
+ * When the queue is full, messages are dropped, block the sender or are spilled
+ * to disk, as specified by the {@link OverflowPolicy}. Spilled messages are not
+ * visible to filtered retrieval until they are read back into the queue.
+ * <p>
+ * Messages are held in one lane per {@link MessagePriority}. Messages are
+ * received from the highest priority lane that is not empty, but a lane that
+ * has been passed over several times in favor of higher priority lanes is
+ * served next, so that lower priority messages are not starved. When the queue
+ * overflows, messages are dropped from the lowest priority lane first.
+ * <p>
+ * Messages that have expired are dropped when they are added to the queue, and
+ * when they reach the head of the queue. Expiry is checked against the clock
+ * set using {@link #setClock(TimestampProvider)}, or the system clock if none is
+ * set.
  *
  * @author  Mandar Chitre
  */
@@ -22,76 +67,756 @@ public class MessageQueue {
 
   /////////// Private attributes
 
-  private LinkedList<Message> queue = new LinkedList<Message>();
-  private LinkedList<Message> quarantine = new LinkedList<Message>();
-  private int maxQueueLen;
+  // producers link nodes at the tail, consumer unlinks them from the head
+  private final AtomicReference<Node> tail;
+  private Node head;
+
+  // only accessed by the consumer
+  private final ArrayDeque<Message>[] lanes;    // one per priority, highest first
+  private final int[] skipped;                  // times each lane was passed over while not empty
+  private int queued = 0;                       // number of messages in all lanes
+  private ArrayDeque<Message> quarantine = new ArrayDeque<Message>();
+  private Map<String,ArrayDeque<Message>> replies = new HashMap<String,ArrayDeque<Message>>();
+  private Set<Class<?>> arrivals = new HashSet<Class<?>>();
+
+  private Spill spill = null;
+  private File spillFile = null;               // reused by every spill, and deleted when drained
+
+  // number of times a lane may be passed over in favor of higher priority
+  // lanes before it is served
+  private static final int FAIRNESS = 8;
+
+  private volatile int maxQueueLen;
+  private volatile OverflowPolicy policy = OverflowPolicy.DROP_OLDEST;
+  private volatile long overflowTimeout = 1000;
+  private volatile boolean derive = false;
+  private volatile boolean resized = false;    // set by any thread, cleared by the consumer once trimmed
+  private volatile TimestampProvider clock = null;
+  private final LongAdder added = new LongAdder();
+  private volatile long removed = 0;
+  private final LongAdder dropped = new LongAdder();
+  private final LongAdder spilled = new LongAdder();
+  private final LongAdder expired = new LongAdder();
+  private final LongAccumulator highWaterMark = new LongAccumulator(Math::max, 0);
+
+  // senders blocked on a full queue wait on this monitor
+  private final Object space = new Object();
+  private volatile int waiting = 0;
 
   /////////// Interface methods
 
   public MessageQueue() {
-    maxQueueLen = 0;  // unlimited queue
+    this(0);  // unlimited queue
   }
 
+  @SuppressWarnings({"unchecked", "rawtypes"})
   public MessageQueue(int maxlen) {
     maxQueueLen = maxlen;
+    int n = MessagePriority.values().length;
+    lanes = new ArrayDeque[n];
+    for (int i = 0; i < n; i++)
+      lanes[i] = new ArrayDeque<Message>();
+    skipped = new int[n];
+    head = new Node(null);
+    tail = new AtomicReference<Node>(head);
   }
 
-  public synchronized void setSize(int size) {
+  /**
+   * Sets the maximum length of the queue. If the queue is longer than the new
+   * size, excess messages are dropped as specified by the overflow policy when
+   * the consumer next accesses the queue. With {@link OverflowPolicy#SPILL},
+   * messages already in the queue are kept, and new messages are spilled until
+   * the queue is shorter than the new size.
+   *
+   * @param size maximum number of messages in the queue, 0 for unlimited.
+   */
+  public void setSize(int size) {
     maxQueueLen = size;
-    while (maxQueueLen > 0 && queue.size() >= maxQueueLen)
-      queue.remove();
+    resized = true;
+    signal();
   }
 
-  public synchronized void add(Message m) {
-    quarantine.offer(m);
-    while (maxQueueLen > 0 && quarantine.size() >= maxQueueLen)
-      quarantine.remove();
+  public int getSize() {
+    return maxQueueLen;
   }
 
-  public synchronized void commit(Iterable<MessageFilter> exclusions) {
-    Iterator<Message> it = quarantine.iterator();
-    while (it.hasNext()) {
-      Message m = it.next();
-      boolean exclude = false;
-      for (MessageFilter mf: exclusions) {
-        if (mf == null || mf.matches(m)) {
-          exclude = true;
-          break;
+  /**
+   * Sets the action taken when a message is added to a full queue.
+   *
+   * @param policy overflow policy.
+   */
+  public void setOverflowPolicy(OverflowPolicy policy) {
+    if (policy == null) throw new IllegalArgumentException("Overflow policy cannot be null");
+    this.policy = policy;
+    signal();
+  }
+
+  /**
+   * Gets the action taken when a message is added to a full queue.
+   *
+   * @return overflow policy.
+   */
+  public OverflowPolicy getOverflowPolicy() {
+    return policy;
+  }
+
+  /**
+   * Sets the maximum time a sender is blocked on a full queue, when the
+   * overflow policy is {@link OverflowPolicy#BLOCK}.
+   *
+   * @param millis timeout in milliseconds.
+   */
+  public void setOverflowTimeout(long millis) {
+    overflowTimeout = millis;
+  }
+
+  /**
+   * Gets the maximum time a sender is blocked on a full queue.
+   *
+   * @return timeout in milliseconds.
+   */
+  public long getOverflowTimeout() {
+    return overflowTimeout;
+  }
+
+  /**
+   * Sets whether messages of unspecified priority are queued at the priority
+   * associated with their performative, or at normal priority. Responses are
+   * always queued at high priority when the priority is derived.
+   *
+   * @param b true to derive priority from the performative, false otherwise.
+   * @see MessagePriority#of(Message)
+   */
+  public void setPriorityFromPerformative(boolean b) {
+    derive = b;
+  }
+
+  /**
+   * Checks whether messages of unspecified priority are queued at the priority
+   * associated with their performative.
+   *
+   * @return true if priority is derived from the performative, false otherwise.
+   */
+  public boolean getPriorityFromPerformative() {
+    return derive;
+  }
+
+  /**
+   * Sets the clock used to check if messages have expired.
+   *
+   * @param clock clock, or null to use the system clock.
+   */
+  public void setClock(TimestampProvider clock) {
+    this.clock = clock;
+  }
+
+  /**
+   * Adds a message to the queue. Depending on the overflow policy, the caller
+   * may be blocked if the queue is full.
+   *
+   * @param m message to add.
+   * @return true if the message was added, false if it was dropped.
+   */
+  public boolean add(Message m) {
+    if (expired(m)) {
+      expired.increment();
+      return false;
+    }
+    if (!admit()) return false;
+    Node n = new Node(m);
+    added.increment();
+    Node prev = tail.getAndSet(n);
+    prev.next = n;
+    highWaterMark.accumulate(length());
+    return true;
+  }
+
+  /**
+   * Adds messages to the queue. Depending on the overflow policy, the caller
+   * may be blocked if the queue is full.
+   *
+   * @param msgs messages to add.
+   * @return messages that were not added, because they were dropped or had expired.
+   */
+  public List<Message> addAll(Collection<Message> msgs) {
+    List<Message> rejected = Collections.emptyList();
+    OverflowPolicy p = policy;
+    if (maxQueueLen > 0 && (p == OverflowPolicy.DROP_NEWEST || p == OverflowPolicy.BLOCK)) {
+      for (Message m: msgs) {
+        if (add(m)) continue;
+        if (rejected.isEmpty()) rejected = new ArrayList<Message>();
+        rejected.add(m);
+      }
+      return rejected;
+    }
+    Node first = null;
+    Node last = null;
+    int count = 0;
+    for (Message m: msgs) {
+      if (expired(m)) {
+        expired.increment();
+        if (rejected.isEmpty()) rejected = new ArrayList<Message>();
+        rejected.add(m);
+        continue;
+      }
+      Node n = new Node(m);
+      if (first == null) first = n;
+      else last.next = n;
+      last = n;
+      count++;
+    }
+    if (first == null) return rejected;
+    added.add(count);
+    Node prev = tail.getAndSet(last);
+    prev.next = first;
+    highWaterMark.accumulate(length());
+    return rejected;
+  }
+
+  public void commit(Iterable<MessageFilter> exclusions) {
+    drain();
+    if (!exclusions.iterator().hasNext() && (policy != OverflowPolicy.SPILL || maxQueueLen <= 0)) {
+      for (Message m: quarantine)
+        enqueue(m);
+      quarantine.clear();
+    } else {
+      Iterator<Message> it = quarantine.iterator();
+      while (it.hasNext()) {
+        Message m = it.next();
+        boolean exclude = false;
+        for (MessageFilter mf: exclusions) {
+          if (mf == null || mf.matches(m)) {
+            exclude = true;
+            break;
+          }
+        }
+        if (!exclude) {
+          it.remove();
+          offer(m);
         }
       }
-      if (!exclude) {
+    }
+    if (policy != OverflowPolicy.SPILL) trimLanes();
+  }
+
+  public Message get() {
+    drain();
+    if (spill != null) unspill();
+    return take(null);
+  }
+
+  public Message get(MessageFilter filter) {
+    if (filter == null) return get();
+    drain();
+    if (spill != null) unspill();
+    if (filter instanceof ReplyMessageFilter) {
+      String mid = ((ReplyMessageFilter)filter).getMessageID();
+      if (mid != null && replies.containsKey(mid)) {
+        ArrayDeque<Message> q = replies.get(mid);
+        if (q == null) return null;
+        Message m;
+        while ((m = q.poll()) != null) {
+          removed(1);
+          if (!expired(m)) return m;
+          discard(m);
+        }
+        return null;
+      }
+    }
+    return take(filter);
+  }
+
+  public void clear() {
+    int n = queued;
+    for (int i = 0; i < lanes.length; i++) {
+      for (Message m: lanes[i])
+        m.release();
+      lanes[i].clear();
+      skipped[i] = 0;
+    }
+    queued = 0;
+    if (spill != null) {
+      n += spill.size();
+      spill.close();
+      spill = null;
+    }
+    removed(n);
+  }
+
+  /**
+   * Gets a copy of the messages waiting to be received, including any spilled
+   * to disk. This may only be called while the consumer is blocked.
+   *
+   * @return list of messages.
+   */
+  List<Message> snapshot() {
+    List<Message> msgs = new ArrayList<Message>(queued + quarantine.size());
+    for (ArrayDeque<Message> q: lanes)
+      msgs.addAll(q);
+    if (spill != null) msgs.addAll(spill.peek());
+    msgs.addAll(quarantine);
+    for (ArrayDeque<Message> q: replies.values())
+      if (q != null) msgs.addAll(q);
+    for (Node n = head.next; n != null; n = n.next)
+      if (n.msg != null) msgs.add(n.msg);
+    return msgs;
+  }
+
+  /**
+   * Gets the number of messages waiting to be received. This includes messages
+   * that have not yet been drained by the consumer, and may be called from any
+   * thread.
+   *
+   * @return number of messages in the queue.
+   */
+  public int length() {
+    return (int)(added.sum() - removed);
+  }
+
+  /**
+   * Gets the largest number of messages that have waited in the queue at once.
+   *
+   * @return high-water mark of the queue length.
+   */
+  public long getHighWaterMark() {
+    return highWaterMark.get();
+  }
+
+  /**
+   * Gets the number of messages dropped due to queue overflow.
+   *
+   * @return number of dropped messages.
+   */
+  public long getDropped() {
+    return dropped.sum();
+  }
+
+  /**
+   * Gets the number of messages spilled to disk due to queue overflow.
+   *
+   * @return number of spilled messages.
+   */
+  public long getSpilled() {
+    return spilled.sum();
+  }
+
+  /**
+   * Gets the number of messages dropped because they had expired.
+   *
+   * @return number of expired messages.
+   */
+  public long getExpired() {
+    return expired.sum();
+  }
+
+  /**
+   * Starts indexing replies to a request. If the request has already been sent,
+   * replies already in the queue are moved to the index.
+   *
+   * @param mid message id of the request.
+   * @param sent true if the request may already have been sent, false otherwise.
+   * @return true if the request was not already indexed, false otherwise.
+   */
+  public boolean await(String mid, boolean sent) {
+    if (mid == null || replies.containsKey(mid)) return false;
+    ArrayDeque<Message> q = null;
+    if (sent) {
+      drain();
+      for (ArrayDeque<Message> lane: lanes) {
+        int n = lane.size();
+        q = extract(lane, mid, q);
+        queued -= n - lane.size();
+      }
+      q = extract(quarantine, mid, q);
+    }
+    replies.put(mid, q);
+    return true;
+  }
+
+  /**
+   * Stops indexing replies to a request. Any unclaimed replies are returned to
+   * the queue.
+   *
+   * @param mid message id of the request.
+   */
+  public void release(String mid) {
+    if (mid == null || !replies.containsKey(mid)) return;
+    drain();
+    ArrayDeque<Message> q = replies.remove(mid);
+    if (q != null) quarantine.addAll(q);
+  }
+
+  /**
+   * Gets the classes of messages that have entered the queue since the
+   * arrivals were last cleared.
+   *
+   * @return set of message classes.
+   */
+  public Set<Class<?>> getArrivals() {
+    return arrivals;
+  }
+
+  /**
+   * Clears the record of classes of messages that have entered the queue.
+   */
+  public void clearArrivals() {
+    arrivals.clear();
+  }
+
+  /////////// Private methods
+
+  // moves a message into the lane for its priority, noting its class
+  private void enqueue(Message m) {
+    MessagePriority p = m.getPriority();
+    int k;
+    if (p != null) k = p.ordinal();
+    else if (derive) k = MessagePriority.of(m).ordinal();
+    else k = MessagePriority.NORMAL.ordinal();
+    lanes[k].offer(m);
+    queued++;
+    arrivals.add(m.getClass());
+  }
+
+  // takes the first message matching a filter, serving lanes that have been
+  // passed over too often before the others, and the rest in priority order
+  private Message take(MessageFilter filter) {
+    if (queued == 0) return null;
+    for (int i = lanes.length-1; i > 0; i--) {
+      if (skipped[i] < FAIRNESS) continue;
+      if (lanes[i].isEmpty()) skipped[i] = 0;
+      else {
+        Message m = take(i, filter);
+        if (m != null) return m;
+      }
+    }
+    for (int i = 0; i < lanes.length; i++) {
+      Message m = take(i, filter);
+      if (m != null) return m;
+    }
+    return null;
+  }
+
+  // takes the first message matching a filter from a lane
+  private Message take(int k, MessageFilter filter) {
+    ArrayDeque<Message> q = lanes[k];
+    if (q.isEmpty()) return null;
+    Message m = null;
+    Iterator<Message> it = q.iterator();
+    while (it.hasNext()) {
+      Message m1 = it.next();
+      if (expired(m1)) {
         it.remove();
-        queue.offer(m);
+        queued--;
+        removed(1);
+        discard(m1);
+      } else if (filter == null || filter.matches(m1)) {
+        it.remove();
+        m = m1;
+        break;
+      }
+    }
+    if (m == null) return null;
+    queued--;
+    skipped[k] = 0;
+    for (int j = k+1; j < lanes.length; j++)
+      if (!lanes[j].isEmpty()) skipped[j]++;
+    removed(1);
+    return m;
+  }
+
+  // called by producers, returns false if the message should be dropped
+  private boolean admit() {
+    int max = maxQueueLen;
+    if (max <= 0) return true;
+    OverflowPolicy p = policy;
+    if (p == OverflowPolicy.DROP_NEWEST) {
+      if (length() < max) return true;
+      dropped.increment();
+      return false;
+    }
+    if (p != OverflowPolicy.BLOCK || length() < max) return true;
+    long deadline = System.currentTimeMillis() + overflowTimeout;
+    synchronized (space) {
+      // announce before re-checking length, so that the consumer cannot miss us
+      waiting++;
+      try {
+        while (length() >= maxQueueLen && maxQueueLen > 0 && policy == OverflowPolicy.BLOCK) {
+          long dt = deadline - System.currentTimeMillis();
+          if (dt <= 0) {
+            dropped.increment();
+            return false;
+          }
+          space.wait(dt);
+        }
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+        dropped.increment();
+        return false;
+      } finally {
+        waiting--;
+      }
+    }
+    return true;
+  }
+
+  // called by the consumer after messages leave the queue
+  private void removed(int n) {
+    if (n <= 0) return;
+    removed += n;
+    if (waiting > 0) signal();
+  }
+
+  private void signal() {
+    synchronized (space) {
+      space.notifyAll();
+    }
+  }
+
+  // moves a message into the queue, spilling it to disk if necessary
+  private void offer(Message m) {
+    int max = maxQueueLen;
+    if (max > 0 && policy == OverflowPolicy.SPILL && (spill != null || queued >= max)) {
+      if (spill == null) spill = new Spill();
+      if (spill.write(m)) spilled.increment();
+      else drop(1);
+      m.release();    // the queue holds a copy on disk, if any
+      if (spill.size() == 0) {
+        spill.close();
+        spill = null;
       }
+      return;
     }
-    while (maxQueueLen > 0 && queue.size() >= maxQueueLen)
-      queue.remove();
+    enqueue(m);
+  }
+
+  // reads spilled messages back into the queue as room becomes available
+  private void unspill() {
+    int max = maxQueueLen;
+    while (spill.size() > 0 && (max <= 0 || queued < max)) {
+      int n = spill.size();
+      Message m = spill.read();
+      if (m == null) drop(n - spill.size());
+      else enqueue(m);
+    }
+    if (spill.size() == 0) {
+      spill.close();
+      spill = null;
+    }
+  }
+
+  // checks if a message has expired, without reading the clock if it cannot expire
+  private boolean expired(Message m) {
+    Long t = m.getExpiryTime();
+    if (t == null) return false;
+    TimestampProvider c = clock;
+    return (c == null ? System.currentTimeMillis() : c.currentTimeMillis()) > t;
   }
 
-  public synchronized Message get() {
-    return queue.poll();
+  // drops an expired message that was in the queue
+  private void discard(Message m) {
+    expired.increment();
+    m.release();
+  }
+
+  private void drop(int n) {
+    dropped.add(n);
+    removed(n);
+  }
+
+  // moves newly added messages from the inbox to the quarantine
+  private void drain() {
+    if (resized) {
+      // the lanes are only accessed by the consumer, so a shrunk queue is trimmed here
+      resized = false;
+      if (policy != OverflowPolicy.SPILL) {
+        trim(quarantine);
+        trimLanes();
+      }
+    }
+    Node n = head.next;
+    if (n == null) return;
+    while (n != null) {
+      Message m = n.msg;
+      String irt = replies.isEmpty() ? null : m.getInReplyTo();
+      if (irt != null && replies.containsKey(irt)) {
+        ArrayDeque<Message> q = replies.get(irt);
+        if (q == null) {
+          q = new ArrayDeque<Message>();
+          replies.put(irt, q);
+        }
+        q.offer(m);
+      } else {
+        quarantine.offer(m);
+      }
+      n.msg = null;
+      head = n;
+      n = n.next;
+    }
+    if (policy != OverflowPolicy.SPILL) trim(quarantine);
   }
 
-  public synchronized Message get(MessageFilter filter) {
-    if (filter == null) return queue.poll();
-    Iterator<Message> it = queue.iterator();
+  // moves replies to a request from a queue to a list of replies
+  private ArrayDeque<Message> extract(ArrayDeque<Message> src, String mid, ArrayDeque<Message> dst) {
+    Iterator<Message> it = src.iterator();
     while (it.hasNext()) {
       Message m = it.next();
-      if (filter.matches(m)) {
+      if (mid.equals(m.getInReplyTo())) {
         it.remove();
-        return m;
+        if (dst == null) dst = new ArrayDeque<Message>();
+        dst.offer(m);
       }
     }
-    return null;
+    return dst;
   }
 
-  public synchronized void clear() {
-    queue.clear();
+  // drops messages if the queue is full
+  private void trim(ArrayDeque<Message> q) {
+    int max = maxQueueLen;
+    if (max <= 0) return;
+    OverflowPolicy p = policy;
+    int n = 0;
+    if (p == OverflowPolicy.DROP_NEWEST || p == OverflowPolicy.BLOCK) {
+      // senders enforce the limit for these policies, so anything beyond it
+      // arrived in a race and is dropped from the tail
+      while (q.size() > max) {
+        q.pollLast().release();
+        n++;
+      }
+    } else {
+      while (q.size() >= max) {
+        q.poll().release();
+        n++;
+      }
+    }
+    drop(n);
   }
 
-  public int length() {
-    return queue.size();
+  // drops messages from the lowest priority lanes first if the queue is full
+  private void trimLanes() {
+    int max = maxQueueLen;
+    if (max <= 0) return;
+    OverflowPolicy p = policy;
+    // senders enforce the limit for DROP_NEWEST and BLOCK, so anything beyond
+    // it arrived in a race and is dropped from the tail
+    boolean newest = p == OverflowPolicy.DROP_NEWEST || p == OverflowPolicy.BLOCK;
+    int limit = newest ? max : max-1;
+    int n = 0;
+    for (int i = lanes.length-1; i >= 0 && queued > limit; i--) {
+      ArrayDeque<Message> q = lanes[i];
+      while (queued > limit && !q.isEmpty()) {
+        if (newest) q.pollLast().release();
+        else q.poll().release();
+        queued--;
+        n++;
+      }
+    }
+    drop(n);
   }
 
-}
+  // gets the file to spill messages to, registering it for deletion on exit once
+  private File spillFile() throws IOException {
+    if (spillFile == null) {
+      spillFile = File.createTempFile("fjage-spill-", ".tmp");
+      spillFile.deleteOnExit();
+    }
+    return spillFile;
+  }
+
+  // temporary file holding messages that do not fit in the queue
+  private class Spill {
+
+    private RandomAccessFile raf = null;
+    private File file = null;
+    private long readPos = 0;
+    private long writePos = 0;
+    private int count = 0;
+
+    boolean write(Message m) {
+      try {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bos)) {
+          out.writeObject(m);
+        }
+        if (raf == null) {
+          file = spillFile();
+          raf = new RandomAccessFile(file, "rw");
+        }
+        byte[] buf = bos.toByteArray();
+        raf.seek(writePos);
+        raf.writeInt(buf.length);
+        raf.write(buf);
+        writePos = raf.getFilePointer();
+        count++;
+        return true;
+      } catch (IOException ex) {
+        return false;
+      }
+    }
+
+    Message read() {
+      if (count == 0) return null;
+      byte[] buf;
+      try {
+        raf.seek(readPos);
+        buf = new byte[raf.readInt()];
+        raf.readFully(buf);
+        readPos = raf.getFilePointer();
+        count--;
+      } catch (IOException ex) {
+        // the rest of the file cannot be trusted after a failed read
+        count = 0;
+        return null;
+      }
+      try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(buf))) {
+        return (Message)in.readObject();
+      } catch (IOException | ClassNotFoundException | ClassCastException ex) {
+        return null;
+      }
+    }
+
+    // reads the spilled messages without removing them, skipping any that cannot be read
+    List<Message> peek() {
+      List<Message> msgs = new ArrayList<Message>(count);
+      try {
+        raf.seek(readPos);
+        for (int i = 0; i < count; i++) {
+          byte[] buf = new byte[raf.readInt()];
+          raf.readFully(buf);
+          try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(buf))) {
+            msgs.add((Message)in.readObject());
+          } catch (IOException | ClassNotFoundException | ClassCastException ex) {
+            // skip message
+          }
+        }
+      } catch (IOException ex) {
+        // return the messages read so far
+      }
+      return msgs;
+    }
+
+    int size() {
+      return count;
+    }
 
+    void close() {
+      try {
+        if (raf != null) raf.close();
+      } catch (IOException ex) {
+        // do nothing
+      }
+      if (file != null) file.delete();
+      raf = null;
+      file = null;
+    }
+
+  }
+
+  private static class Node {
+    Message msg;
+    volatile Node next;
+    Node(Message msg) {
+      this.msg = msg;
+    }
+  }
+
+}
@@ -0,0 +1,53 @@
+/******************************************************************************
+
+Copyright (c) 2021, Mandar Chitre
+
+This file is part of fjage which is released under Simplified BSD License.
+See file LICENSE.txt or go to http://www.opensource.org/licenses/BSD-3-Clause
+for full license details.
+
+******************************************************************************/
+
+package org.arl.fjage;
+
+import org.arl.fjage.param.Parameter;
+
+/**
+ * Runtime metrics of an agent. To expose these parameters, add them to the
+ * agent's parameter message behavior:
+ * <pre>
+ * add(new ParameterMessageBehavior(MyParams.class, MetricsParam.class));
+ * </pre>
+ * Current and peak queue depths are available as {@link MailboxParam}
+ * parameters.
+ *
+ * @author  Mandar Chitre
+ */
+public enum MetricsParam implements Parameter {
+
+  /**
+   * Number of messages delivered to the agent.
+   */
+  messagesDelivered,
+
+  /**
+   * Number of messages received by the agent.
+   */
+  messagesReceived,
+
+  /**
+   * Time spent executing behavior actions, in milliseconds.
+   */
+  behaviorTime,
+
+  /**
+   * Time spent blocked, in milliseconds.
+   */
+  blockedTime,
+
+  /**
+   * Number of times the agent has been woken up after blocking.
+   */
+  wakeups
+
+}
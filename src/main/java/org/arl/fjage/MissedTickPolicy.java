@@ -0,0 +1,33 @@
+/******************************************************************************
+
+Copyright (c) 2021, Mandar Chitre
+
+This file is part of fjage which is released under Simplified BSD License.
+See file LICENSE.txt or go to http://www.opensource.org/licenses/BSD-3-Clause
+for full license details.
+
+******************************************************************************/
+
+package org.arl.fjage;
+
+/**
+ * Action taken by a {@link PeriodicBehavior} when it falls behind schedule by one
+ * or more periods.
+ *
+ * @author  Mandar Chitre
+ */
+public enum MissedTickPolicy {
+
+  /**
+   * Missed ticks are executed back-to-back until the behavior is back on
+   * schedule.
+   */
+  CATCH_UP,
+
+  /**
+   * Missed ticks are skipped, and the behavior resumes at the next scheduled
+   * tick. Skipped ticks are counted.
+   */
+  SKIP
+
+}
@@ -0,0 +1,45 @@
+/******************************************************************************
+
+Copyright (c) 2021, Mandar Chitre
+
+This file is part of fjage which is released under Simplified BSD License.
+See file LICENSE.txt or go to http://www.opensource.org/licenses/BSD-3-Clause
+for full license details.
+
+******************************************************************************/
+
+package org.arl.fjage;
+
+/**
+ * Action taken when a message is delivered to an agent whose incoming message
+ * queue is full.
+ *
+ * @see Agent#setOverflowPolicy(OverflowPolicy)
+ * @author  Mandar Chitre
+ */
+public enum OverflowPolicy {
+
+  /**
+   * The oldest message in the queue is dropped to make room for the new one.
+   */
+  DROP_OLDEST,
+
+  /**
+   * The new message is dropped.
+   */
+  DROP_NEWEST,
+
+  /**
+   * The sender is blocked until there is room in the queue. If no room becomes
+   * available within the overflow timeout, the new message is dropped.
+   */
+  BLOCK,
+
+  /**
+   * Messages that do not fit in the queue are written to a temporary file,
+   * and read back in order as room becomes available. Messages that cannot be
+   * serialized are dropped.
+   */
+  SPILL
+
+}
@@ -0,0 +1,261 @@
+/******************************************************************************
+
+Copyright (c) 2021, Mandar Chitre
+
+This file is part of fjage which is released under Simplified BSD License.
+See file LICENSE.txt or go to http://www.opensource.org/licenses/BSD-3-Clause
+for full license details.
+
+******************************************************************************/
+
+package org.arl.fjage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Conservative parallel discrete event simulator. The simulation is divided
+ * into {@link DiscreteEventPartition partitions}, each with its own simulation
+ * clock and event queue. Partitions interact only through messages with a
+ * minimum delay (lookahead) declared for each link between partitions.
+ * <p>
+ * The simulation advances in windows. At the start of each window, every
+ * partition is allowed to process all events that are earlier than the earliest
+ * time at which a message from any linked partition could arrive. Since no
+ * partition can affect another within a window, partitions process their
+ * windows concurrently, on as many threads as specified. Messages between
+ * partitions are exchanged at the end of each window.
+ * <p>
+ * Ties between events at the same time are broken in the same way irrespective
+ * of the number of threads, and so simulations of deterministic models give
+ * identical results when run with one thread or many.
+ *
+ * @see DiscreteEventPartition
+ * @author  Mandar Chitre
+ */
+public final class ParallelDiscreteEventSimulator implements Runnable {
+
+  /////////// Constants
+
+  /**
+   * Longest window, in milliseconds, for partitions that are not linked to any
+   * other partition.
+   */
+  public static final long MAX_WINDOW = 1000;
+
+  /////////// Private attributes
+
+  private final List<DiscreteEventPartition> partitions = new ArrayList<DiscreteEventPartition>();
+  private final int nThreads;
+  private ExecutorService pool = null;
+  private Thread thread = null;
+  private volatile boolean running = false;
+  private volatile long time = 0;
+  private long windows = 0;
+  private Logger log = Logger.getLogger(getClass().getName());
+
+  /////////// Interface methods
+
+  /**
+   * Creates a parallel discrete event simulator that uses one thread per
+   * available processor.
+   */
+  public ParallelDiscreteEventSimulator() {
+    this(Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * Creates a parallel discrete event simulator that uses a given number of
+   * threads to process partitions.
+   *
+   * @param nThreads number of threads, 1 for sequential simulation.
+   */
+  public ParallelDiscreteEventSimulator(int nThreads) {
+    if (nThreads < 1) throw new IllegalArgumentException("Number of threads must be positive");
+    this.nThreads = nThreads;
+  }
+
+  /**
+   * Adds a partition to the simulation.
+   *
+   * @param name name of the partition.
+   * @return the partition.
+   */
+  public synchronized DiscreteEventPartition addPartition(String name) {
+    if (running) throw new FjageException("Cannot add partition to running simulation");
+    DiscreteEventPartition p = new DiscreteEventPartition(this, name, partitions.size());
+    partitions.add(p);
+    return p;
+  }
+
+  /**
+   * Gets a partition by name.
+   *
+   * @param name name of the partition.
+   * @return the partition, or null if not found.
+   */
+  public synchronized DiscreteEventPartition getPartition(String name) {
+    for (DiscreteEventPartition p: partitions)
+      if (p.getName().equals(name)) return p;
+    return null;
+  }
+
+  /**
+   * Gets all partitions in the simulation.
+   *
+   * @return an array of partitions.
+   */
+  public synchronized DiscreteEventPartition[] getPartitions() {
+    return partitions.toArray(new DiscreteEventPartition[0]);
+  }
+
+  /**
+   * Links two partitions, so that they can send messages to each other. Messages
+   * between the partitions must be delayed by at least the lookahead. Larger
+   * lookaheads allow partitions to run further ahead of each other.
+   *
+   * @param a first partition.
+   * @param b second partition.
+   * @param lookahead minimum message delay in milliseconds.
+   */
+  public synchronized void link(DiscreteEventPartition a, DiscreteEventPartition b, long lookahead) {
+    if (running) throw new FjageException("Cannot link partitions in running simulation");
+    if (lookahead < 1) throw new IllegalArgumentException("Lookahead must be at least 1 ms");
+    a.link(b, lookahead);
+    b.link(a, lookahead);
+  }
+
+  /**
+   * Gets the simulation time up to which all partitions have been simulated.
+   *
+   * @return time in milliseconds.
+   */
+  public long currentTimeMillis() {
+    return time;
+  }
+
+  /**
+   * Gets the number of windows simulated.
+   *
+   * @return number of windows.
+   */
+  public long getWindowCount() {
+    return windows;
+  }
+
+  /**
+   * Starts all partitions and the simulation.
+   */
+  public synchronized void start() {
+    if (running) return;
+    running = true;
+    for (DiscreteEventPartition p: partitions)
+      p.startContainers();
+    pool = Executors.newFixedThreadPool(nThreads, r -> {
+      Thread t = new Thread(r, getClass().getSimpleName()+"-worker");
+      t.setDaemon(true);
+      return t;
+    });
+    thread = new Thread(this);
+    thread.setName(getClass().getSimpleName());
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /**
+   * Terminates the simulation and all partitions.
+   */
+  public void shutdown() {
+    if (!running) return;
+    running = false;
+    for (DiscreteEventPartition p: getPartitions()) {
+      p.idle();
+      p.shutdownContainers();
+    }
+  }
+
+  /**
+   * Checks if the simulation is running.
+   *
+   * @return true if running, false otherwise.
+   */
+  public boolean isRunning() {
+    return running;
+  }
+
+  /**
+   * Thread implementation.
+   *
+   * @see java.lang.Runnable#run()
+   */
+  @Override
+  public void run() {
+    DiscreteEventPartition[] parts = getPartitions();
+    int n = parts.length;
+    long[] next = new long[n];
+    long[] until = new long[n];
+    try {
+      // let agents initialize at time 0 before the first window
+      runWindow(parts, null);
+      while (running) {
+        for (DiscreteEventPartition p: parts)
+          p.flush();
+        long tmin = Long.MAX_VALUE;
+        for (int i = 0; i < n; i++) {
+          next[i] = parts[i].nextEventTime();
+          if (next[i] < tmin) tmin = next[i];
+        }
+        if (tmin == Long.MAX_VALUE) {
+          log.fine("No more events pending, initiating shutdown");
+          shutdown();
+          break;
+        }
+        // a partition is safe up to the earliest time a linked partition could
+        // deliver a message to it
+        for (int i = 0; i < n; i++) {
+          long w = tmin + MAX_WINDOW;
+          for (Map.Entry<DiscreteEventPartition,Long> e: parts[i].getLinks().entrySet()) {
+            long nq = next[e.getKey().getIndex()];
+            if (nq != Long.MAX_VALUE) w = Math.min(w, nq + e.getValue());
+          }
+          until[i] = w;
+        }
+        time = tmin;
+        runWindow(parts, until);
+        windows++;
+      }
+    } catch (Exception ex) {
+      log.log(Level.SEVERE, "Exception: ", ex);
+      shutdown();
+    }
+    pool.shutdown();
+    log.info("Simulator shutdown");
+  }
+
+  /////////// Private methods
+
+  // runs one window on all partitions with pending work, and waits for them to finish
+  private void runWindow(DiscreteEventPartition[] parts, long[] until) throws InterruptedException, ExecutionException {
+    List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+    for (int i = 0; i < parts.length; i++) {
+      final DiscreteEventPartition p = parts[i];
+      final long t = (until == null) ? 0 : until[i];
+      if (until != null && p.nextEventTime() >= t) continue;
+      tasks.add(() -> {
+        p.run(t);
+        return null;
+      });
+    }
+    for (Future<Object> f: pool.invokeAll(tasks))
+      f.get();
+  }
+
+}
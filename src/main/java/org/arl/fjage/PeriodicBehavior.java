@@ -0,0 +1,269 @@
+/******************************************************************************
+
+Copyright (c) 2021, Mandar Chitre
+
+This file is part of fjage which is released under Simplified BSD License.
+See file LICENSE.txt or go to http://www.opensource.org/licenses/BSD-3-Clause
+for full license details.
+
+******************************************************************************/
+
+package org.arl.fjage;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A high-resolution behavior that is executed every specified period. The
+ * {@link #onTick()} method of this behavior is called at intervals defined by
+ * the period, which may be shorter than a millisecond.
+ * <p>
+ * Unlike {@link TickerBehavior}, the schedule is computed in nanoseconds of
+ * platform time, with the n<sup>th</sup> tick due exactly n periods after the
+ * behavior starts. Timing errors therefore do not accumulate. If the behavior
+ * falls behind by one or more periods, missed ticks are handled as specified
+ * by the {@link MissedTickPolicy}. The lateness of each tick with respect to its
+ * schedule is tracked as jitter statistics.
+ * <p>
+ * On a {@link DiscreteEventSimulator}, platform time advances in steps of a
+ * millisecond, so several ticks of a shorter period fall due at once. With the
+ * default {@link MissedTickPolicy#SKIP} policy, only one of them is executed
+ * each millisecond and the rest are counted as skipped. Use
+ * {@link MissedTickPolicy#CATCH_UP} to execute all of them.
+ *
+ * @author  Mandar Chitre
+ */
+public class PeriodicBehavior extends Behavior {
+
+  ////////// Private attributes
+
+  private long period;
+  private long next;
+  private long ticks;
+  private long skipped;
+  private boolean quit;
+  private MissedTickPolicy policy = MissedTickPolicy.SKIP;
+
+  // jitter statistics, in nanoseconds
+  private double jitterSum;
+  private double jitterSumSq;
+  private long jitterMax;
+
+  ////////// Interface methods
+
+  /**
+   * Creates a behavior that is executed every specified period.
+   *
+   * @param period period.
+   * @param unit unit of the period.
+   */
+  public PeriodicBehavior(long period, TimeUnit unit) {
+    this.period = unit.toNanos(period);
+    if (this.period <= 0) throw new IllegalArgumentException("Period must be positive");
+    ticks = 0;
+    quit = false;
+  }
+
+  /**
+   * Creates a behavior that is executed every specified period.
+   *
+   * @param period period.
+   * @param unit unit of the period.
+   * @param runnable Runnable to run.
+   */
+  public PeriodicBehavior(long period, TimeUnit unit, Runnable runnable) {
+    this(period, unit);
+    if (runnable != null) {
+      this.action = param -> runnable.run();
+    }
+  }
+
+  /**
+   * Terminates the behavior.
+   */
+  public final void stop() {
+    quit = true;
+  }
+
+  /**
+   * Sets the action taken when the behavior falls behind schedule by one or
+   * more periods. The default policy is to skip missed ticks.
+   *
+   * @param policy missed tick policy.
+   */
+  public void setMissedTickPolicy(MissedTickPolicy policy) {
+    if (policy == null) throw new IllegalArgumentException("Missed tick policy cannot be null");
+    this.policy = policy;
+  }
+
+  /**
+   * Gets the action taken when the behavior falls behind schedule.
+   *
+   * @return missed tick policy.
+   */
+  public MissedTickPolicy getMissedTickPolicy() {
+    return policy;
+  }
+
+  /**
+   * Gets the period of the behavior.
+   *
+   * @return period in nanoseconds.
+   */
+  public long getPeriod() {
+    return period;
+  }
+
+  /**
+   * Returns the number of times the {@link #onTick()} method of this behavior
+   * has been called (including any ongoing call).
+   *
+   * @return the number of times the {@link #onTick()} method has been called.
+   */
+  public final long getTickCount() {
+    return ticks;
+  }
+
+  /**
+   * Returns the number of ticks skipped because the behavior fell behind
+   * schedule.
+   *
+   * @return number of skipped ticks.
+   */
+  public final long getSkippedTicks() {
+    return skipped;
+  }
+
+  /**
+   * Gets the mean lateness of ticks with respect to their schedule.
+   *
+   * @return mean jitter in nanoseconds.
+   */
+  public double getMeanJitter() {
+    if (ticks == 0) return 0;
+    return jitterSum/ticks;
+  }
+
+  /**
+   * Gets the standard deviation of the lateness of ticks with respect to their
+   * schedule.
+   *
+   * @return jitter standard deviation in nanoseconds.
+   */
+  public double getJitterStdDev() {
+    if (ticks < 2) return 0;
+    double mean = jitterSum/ticks;
+    return Math.sqrt(Math.max(jitterSumSq/ticks - mean*mean, 0));
+  }
+
+  /**
+   * Gets the largest lateness of a tick with respect to its schedule.
+   *
+   * @return maximum jitter in nanoseconds.
+   */
+  public long getMaxJitter() {
+    return jitterMax;
+  }
+
+  ////////// Method to be overridden by subclass
+
+  /**
+   * This method is called once every specified period. The method is usually
+   * overridden by a behavior.
+   */
+  public void onTick() {
+    super.action();
+  }
+
+  ////////// Overridden methods
+
+  /**
+   * Computes the time for the first execution of this behavior.
+   *
+   * @see org.arl.fjage.Behavior#onStart()
+   */
+  @Override
+  public void onStart() {
+    long dt = restoredDelayNanos(period);
+    next = agent.nanoTime() + dt;
+    blockNanos(dt);
+  }
+
+  /**
+   * This method calls {@link #onTick()} once every specified period.
+   *
+   * @see org.arl.fjage.Behavior#action()
+   */
+  @Override
+  public final void action() {
+    if (quit) return;
+    long t = agent.nanoTime();
+    long dt = next - t;
+    if (dt > 0) {
+      blockNanos(dt);
+      return;
+    }
+    long late = -dt;
+    ticks++;
+    jitterSum += late;
+    jitterSumSq += (double)late*late;
+    if (late > jitterMax) jitterMax = late;
+    onTick();
+    next += period;
+    if (policy == MissedTickPolicy.SKIP && next <= t) {
+      long n = (t - next)/period + 1;
+      skipped += n;
+      next += n*period;
+    }
+  }
+
+  /**
+   * Returns true once {@link #stop()} is called, false otherwise.
+   *
+   * @return true once {@link #stop()} is called, false otherwise.
+   * @see org.arl.fjage.Behavior#done()
+   */
+  @Override
+  public final boolean done() {
+    return quit;
+  }
+
+  /**
+   * Resets the behavior, allowing it to be used again.
+   *
+   * @see org.arl.fjage.Behavior#reset()
+   */
+  @Override
+  public void reset() {
+    super.reset();
+    ticks = 0;
+    skipped = 0;
+    jitterSum = 0;
+    jitterSumSq = 0;
+    jitterMax = 0;
+    quit = false;
+  }
+
+  @Override
+  public int getPriority() {
+    return Integer.MIN_VALUE;
+  }
+
+  /**
+   * Creates a new PeriodicBehavior which runs the specified Runnable every specified period.
+   *
+   * @param period period.
+   * @param unit unit of the period.
+   * @param runnable Runnable to run.
+   * @return PeriodicBehavior
+   */
+  public static PeriodicBehavior create(long period, TimeUnit unit, final Runnable runnable) {
+    return new PeriodicBehavior(period, unit) {
+
+      @Override
+      public void onTick() {
+        runnable.run();
+      }
+    };
+  }
+
+}
@@ -15,6 +15,7 @@ import java.util.ArrayList;
 import java.util.Enumeration;
 import java.util.List;
 import java.util.TimerTask;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.jar.Attributes;
 import java.util.jar.Manifest;
 
@@ -33,6 +34,9 @@ public abstract class Platform implements TimestampProvider {
   private String hostname = null;
   private int port = 1099;
   private NetworkInterface nif = null;
+  private final AtomicInteger busy = new AtomicInteger();    // busy agents in all containers
+  private AgentLocalRandom random = null;                   // root generator, if seeded for this platform
+  volatile SimulationProfiler profiler = null;              // set by simulators when profiling
 
   ////////// Interface methods for platforms to implement
 
@@ -64,6 +68,41 @@ public abstract class Platform implements TimestampProvider {
    */
   public abstract void schedule(TimerTask task, long millis);
 
+  /**
+   * Schedules a task to be executed after a given delay, and returns a handle
+   * that may be used to cancel it. Platforms should override this method to
+   * discard cancelled tasks efficiently. The default implementation schedules
+   * the task using {@link #schedule(TimerTask, long)}.
+   *
+   * @param task task to be executed.
+   * @param millis delay in milliseconds.
+   * @return handle to cancel the task.
+   */
+  public Cancellable scheduleCancellable(final Runnable task, long millis) {
+    final TimerTask t = (task instanceof TimerTask) ? (TimerTask)task : new TimerTask() {
+      @Override
+      public void run() {
+        task.run();
+      }
+    };
+    schedule(t, millis);
+    return t::cancel;
+  }
+
+  /**
+   * Schedules a task to be executed after a given delay in nanoseconds, and
+   * returns a handle that may be used to cancel it. Platforms that support
+   * sub-millisecond timing should override this method. The default
+   * implementation rounds the delay up to the next millisecond.
+   *
+   * @param task task to be executed.
+   * @param nanos delay in nanoseconds.
+   * @return handle to cancel the task.
+   */
+  public Cancellable scheduleNanos(Runnable task, long nanos) {
+    return scheduleCancellable(task, (Math.max(nanos, 0) + 999999)/1000000);
+  }
+
   /**
    * Internal method called by a container when all agents are idle.
    */
@@ -106,7 +145,9 @@ public abstract class Platform implements TimestampProvider {
    */
   public void start() {
     for (Container c: containers)
-      c.init();
+      c.beginInit();
+    for (Container c: containers)
+      c.awaitInit();
     for (Container c: containers)
       c.start();
     running = true;
@@ -187,6 +228,20 @@ public abstract class Platform implements TimestampProvider {
     this.nif = nif;
   }
 
+  /**
+   * Sets the seed of the random number generator from which agents on this
+   * platform derive their {@link AgentLocalRandom} generators. Platforms that
+   * are not seeded share a global generator, seeded using
+   * {@link AgentLocalRandom#setRootSeed(long)}. Independent simulations running
+   * concurrently should each seed their own platform. This should be called
+   * before any agents are added.
+   *
+   * @param seed random number seed.
+   */
+  public void setRandomSeed(long seed) {
+    random = new AgentLocalRandom(seed);
+  }
+
   /**
    * Check if any container on the platform is running.
    *
@@ -205,10 +260,7 @@ public abstract class Platform implements TimestampProvider {
    * @return true if all containers are idle, false otherwise.
    */
   public boolean isIdle() {
-    for (Container c: containers) {
-      if (c != null && !c.isIdle()) return false;
-    }
-    return true;
+    return busy.get() == 0;
   }
 
   /**
@@ -229,4 +281,22 @@ public abstract class Platform implements TimestampProvider {
     }
   }
 
+  /////////// Package private methods
+
+  AgentLocalRandom getRandom() {
+    return random == null ? AgentLocalRandom.getRoot() : random;
+  }
+
+  void setRandom(AgentLocalRandom r) {
+    random = r;
+  }
+
+  void addBusy() {
+    busy.incrementAndGet();
+  }
+
+  void removeBusy() {
+    if (busy.decrementAndGet() == 0) idle();
+  }
+
 }
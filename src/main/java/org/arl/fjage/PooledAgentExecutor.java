@@ -0,0 +1,113 @@
+/******************************************************************************
+
+Copyright (c) 2021, Mandar Chitre
+
+This file is part of fjage which is released under Simplified BSD License.
+See file LICENSE.txt or go to http://www.opensource.org/licenses/BSD-3-Clause
+for full license details.
+
+******************************************************************************/
+
+package org.arl.fjage;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+
+/**
+ * Agent executor that runs agents cooperatively on a bounded work-stealing
+ * thread pool. An agent only occupies a pool thread while it has behaviors to
+ * execute. When it has nothing to do, the agent is parked without holding on
+ * to a thread, and is resubmitted to the pool when it is woken up.
+ * <p>
+ * Agents that make blocking calls (such as a blocking {@link Agent#receive(long)},
+ * {@link Agent#request(Message)} or {@link Agent#delay(long)}) hold on to their pool
+ * thread while blocked. The pool compensates for such agents by starting additional
+ * threads as necessary, so these agents effectively retain a dedicated thread
+ * while they are blocked.
+ * <p>
+ * Typical use of this executor is shown below:
+ * <pre>
+ * Platform platform = new RealTimePlatform();
+ * Container container = new Container(platform);
+ * container.setExecutor(new PooledAgentExecutor());
+ * </pre>
+ * An executor should not be shared between containers, as it is shutdown along with
+ * the container that uses it.
+ *
+ * @author  Mandar Chitre
+ */
+public class PooledAgentExecutor implements AgentExecutor {
+
+  ////////// Private attributes
+
+  private ForkJoinPool pool;
+  private Thread keeper = null;
+  private volatile boolean quit = false;
+
+  ////////// Interface methods
+
+  /**
+   * Creates a pooled agent executor with as many threads as the number of
+   * available processors.
+   */
+  public PooledAgentExecutor() {
+    this(Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * Creates a pooled agent executor with a specified number of threads.
+   *
+   * @param nthreads number of threads in the pool.
+   */
+  public PooledAgentExecutor(int nthreads) {
+    pool = new ForkJoinPool(nthreads, p -> {
+      ForkJoinWorkerThread t = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(p);
+      t.setName("fjage-pool-"+t.getPoolIndex());
+      return t;
+    }, null, true);
+  }
+
+  /**
+   * Gets the number of threads in the pool.
+   *
+   * @return number of threads.
+   */
+  public int getPoolSize() {
+    return pool.getParallelism();
+  }
+
+  @Override
+  public synchronized void execute(Agent agent) {
+    if (quit) throw new FjageException("Executor has been shutdown");
+    if (keeper == null) {
+      // pool threads are daemon threads, so we keep the JVM alive while agents are running
+      keeper = new Thread(getClass().getSimpleName()) {
+        @Override
+        public void run() {
+          synchronized (PooledAgentExecutor.this) {
+            while (!quit) {
+              try {
+                PooledAgentExecutor.this.wait();
+              } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return;
+              }
+            }
+          }
+        }
+      };
+      keeper.setDaemon(false);
+      keeper.start();
+    }
+    agent.setPool(pool);
+    pool.execute(agent::runSlice);
+  }
+
+  @Override
+  public synchronized void shutdown() {
+    quit = true;
+    notifyAll();
+    pool.shutdown();
+  }
+
+}
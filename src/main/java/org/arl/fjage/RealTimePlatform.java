@@ -12,6 +12,9 @@ package org.arl.fjage;
 
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * A platform that runs the agents in its containers in real-time.  The notion
@@ -34,7 +37,9 @@ public final class RealTimePlatform extends Platform {
 
   /////////// Private attributes
 
-  private Timer timer = new Timer("fjage-timer", true);
+  private Timer timer = null;
+  private TimerWheel wheel = new TimerWheel("fjage-timer");
+  private ScheduledThreadPoolExecutor hrtimer = null;
 
   /////////// Implementation methods
 
@@ -50,9 +55,54 @@ public final class RealTimePlatform extends Platform {
 
   @Override
   public void schedule(TimerTask task, long millis) {
+    // TimerTask.cancel() is only honoured by a Timer, so tasks scheduled
+    // through this method do not go through the timer wheel
+    synchronized (this) {
+      if (timer == null) timer = new Timer("fjage-timer-legacy", true);
+    }
     timer.schedule(task, millis);
   }
 
+  /**
+   * Schedules a task to be executed after a given delay. Tasks are held in a
+   * timer wheel, so that they can be scheduled and cancelled in constant time,
+   * irrespective of the number of pending tasks.
+   *
+   * @param task task to be executed.
+   * @param millis delay in milliseconds.
+   * @return handle to cancel the task.
+   */
+  @Override
+  public Cancellable scheduleCancellable(Runnable task, long millis) {
+    return wheel.schedule(task, millis);
+  }
+
+  /**
+   * Schedules a task to be executed after a given delay in nanoseconds. Tasks
+   * are executed by a dedicated high-resolution timer thread, whose accuracy is
+   * limited only by the operating system scheduler.
+   *
+   * @param task task to be executed.
+   * @param nanos delay in nanoseconds.
+   * @return handle to cancel the task.
+   */
+  @Override
+  public Cancellable scheduleNanos(Runnable task, long nanos) {
+    synchronized (this) {
+      if (hrtimer == null) {
+        hrtimer = new ScheduledThreadPoolExecutor(1, r -> {
+          Thread t = new Thread(r, "fjage-hrtimer");
+          t.setDaemon(true);
+          t.setPriority(Thread.MAX_PRIORITY);
+          return t;
+        });
+        hrtimer.setRemoveOnCancelPolicy(true);
+      }
+    }
+    ScheduledFuture<?> f = hrtimer.schedule(task, nanos, TimeUnit.NANOSECONDS);
+    return () -> f.cancel(false);
+  }
+
   @Override
   public void idle() {
     // do nothing
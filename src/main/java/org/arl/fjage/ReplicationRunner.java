@@ -0,0 +1,195 @@
+/******************************************************************************
+
+Copyright (c) 2021, Mandar Chitre
+
+This file is part of fjage which is released under Simplified BSD License.
+See file LICENSE.txt or go to http://www.opensource.org/licenses/BSD-3-Clause
+for full license details.
+
+******************************************************************************/
+
+package org.arl.fjage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
+
+/**
+ * Runs independent replications of a discrete event simulation concurrently in
+ * one JVM. Each replication runs on its own {@link DiscreteEventSimulator},
+ * seeded with its own random number seed, and yields a result once the
+ * simulation ends.
+ * <p>
+ * Typical use is shown below:
+ * <pre>
+ * ReplicationRunner runner = new ReplicationRunner();
+ * runner.setSeed(42);
+ * runner.setDuration(3600000);
+ * List&lt;Integer&gt; delivered = runner.run(100, (platform, i) -&gt; {
+ *   Container container = new Container(platform);
+ *   SinkAgent sink = new SinkAgent();
+ *   container.add("source", new SourceAgent());
+ *   container.add("sink", sink);
+ *   return sink::getDelivered;
+ * });
+ * </pre>
+ * Replications are repeatable as long as the model only uses
+ * {@link AgentLocalRandom} for random numbers.
+ *
+ * @author  Mandar Chitre
+ */
+public final class ReplicationRunner {
+
+  /**
+   * Simulation model to replicate.
+   *
+   * @param <T> type of result of a replication.
+   */
+  @FunctionalInterface
+  public interface Model<T> {
+
+    /**
+     * Creates the containers and agents for a replication on a platform.
+     *
+     * @param platform platform for the replication, not yet started.
+     * @param replication index of the replication.
+     * @return supplier of the result, called after the simulation ends.
+     */
+    public Supplier<T> build(DiscreteEventSimulator platform, int replication);
+
+  }
+
+  /////////// Private attributes
+
+  private final int nThreads;
+  private long seed = 0;
+  private long duration = 0;
+
+  /////////// Interface methods
+
+  /**
+   * Creates a replication runner that runs one replication per available
+   * processor at a time.
+   */
+  public ReplicationRunner() {
+    this(Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * Creates a replication runner that runs a given number of replications at
+   * a time.
+   *
+   * @param nThreads number of concurrent replications.
+   */
+  public ReplicationRunner(int nThreads) {
+    if (nThreads < 1) throw new IllegalArgumentException("Number of threads must be positive");
+    this.nThreads = nThreads;
+  }
+
+  /**
+   * Sets the base seed from which replication seeds are derived.
+   *
+   * @param seed base random number seed.
+   */
+  public void setSeed(long seed) {
+    this.seed = seed;
+  }
+
+  /**
+   * Gets the base seed from which replication seeds are derived.
+   *
+   * @return base random number seed.
+   */
+  public long getSeed() {
+    return seed;
+  }
+
+  /**
+   * Gets the random number seed used for a replication. A single replication
+   * may be rerun by seeding a platform with this seed using
+   * {@link Platform#setRandomSeed(long)}.
+   *
+   * @param replication index of the replication.
+   * @return random number seed.
+   */
+  public long getSeed(int replication) {
+    // SplitMix64 finalizer, so that nearby indices get unrelated seeds
+    long z = seed + (replication+1) * 0x9E3779B97F4A7C15L;
+    z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+    z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+    return z ^ (z >>> 31);
+  }
+
+  /**
+   * Sets the simulated duration of each replication. A replication ends at
+   * this time, or earlier if no more events are pending.
+   *
+   * @param millis duration in milliseconds, 0 to run until no events are pending.
+   */
+  public void setDuration(long millis) {
+    duration = millis;
+  }
+
+  /**
+   * Gets the simulated duration of each replication.
+   *
+   * @return duration in milliseconds, 0 if replications run until no events are pending.
+   */
+  public long getDuration() {
+    return duration;
+  }
+
+  /**
+   * Runs replications of a model, and collects their results.
+   *
+   * @param n number of replications.
+   * @param model model to replicate.
+   * @return list of results, in order of replication index.
+   * @throws FjageException if a replication fails.
+   */
+  public <T> List<T> run(int n, Model<T> model) {
+    ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(nThreads, n)), r -> {
+      Thread t = new Thread(r, getClass().getSimpleName());
+      t.setDaemon(true);
+      return t;
+    });
+    try {
+      List<Future<T>> futures = new ArrayList<Future<T>>(n);
+      for (int i = 0; i < n; i++) {
+        final int replication = i;
+        futures.add(pool.submit(() -> replicate(model, replication)));
+      }
+      List<T> results = new ArrayList<T>(n);
+      for (int i = 0; i < n; i++) {
+        try {
+          results.add(futures.get(i).get());
+        } catch (ExecutionException ex) {
+          throw new FjageException("Replication "+i+" failed: "+ex.getCause());
+        }
+      }
+      return results;
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new FjageException("Replications interrupted");
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  /////////// Private methods
+
+  private <T> T replicate(Model<T> model, int replication) throws InterruptedException {
+    DiscreteEventSimulator platform = new DiscreteEventSimulator();
+    platform.setRandomSeed(getSeed(replication));
+    Supplier<T> result = model.build(platform, replication);
+    if (duration > 0) platform.scheduleCancellable(platform::shutdown, duration);
+    platform.start();
+    platform.awaitTermination();
+    return result == null ? null : result.get();
+  }
+
+}
@@ -0,0 +1,50 @@
+/******************************************************************************
+
+Copyright (c) 2021, Mandar Chitre
+
+This file is part of fjage which is released under Simplified BSD License.
+See file LICENSE.txt or go to http://www.opensource.org/licenses/BSD-3-Clause
+for full license details.
+
+******************************************************************************/
+
+package org.arl.fjage;
+
+/**
+ * Message filter that selects responses to a request. A message matches the
+ * filter if it is in reply to the request. Agents recognize this filter and
+ * locate responses to outstanding requests directly, without scanning the
+ * incoming message queue.
+ *
+ * @author  Mandar Chitre
+ */
+public class ReplyMessageFilter implements MessageFilter {
+
+  private final String messageId;
+
+  /**
+   * Creates a filter that selects responses to a request.
+   *
+   * @param request request message.
+   */
+  public ReplyMessageFilter(Message request) {
+    messageId = request.getMessageID();
+  }
+
+  /**
+   * Gets the message id of the request.
+   *
+   * @return message id of the request.
+   */
+  public String getMessageID() {
+    return messageId;
+  }
+
+  @Override
+  public boolean matches(Message m) {
+    String s = m.getInReplyTo();
+    if (s == null) return false;
+    return s.equals(messageId);
+  }
+
+}
@@ -0,0 +1,46 @@
+/******************************************************************************
+
+Copyright (c) 2021, Mandar Chitre
+
+This file is part of fjage which is released under Simplified BSD License.
+See file LICENSE.txt or go to http://www.opensource.org/licenses/BSD-3-Clause
+for full license details.
+
+******************************************************************************/
+
+package org.arl.fjage;
+
+/**
+ * Strategy used by a container to pick one of several agents providing
+ * the same service.
+ *
+ * @see Container#setServiceResolution(ServiceResolution)
+ * @author  Mandar Chitre
+ */
+public enum ServiceResolution {
+
+  /**
+   * Any provider of the service may be returned. Successive lookups typically
+   * return the same provider.
+   */
+  ANY,
+
+  /**
+   * Providers of the service are returned in turn.
+   */
+  ROUND_ROBIN,
+
+  /**
+   * The provider with the fewest messages in its incoming message queue is
+   * returned.
+   */
+  LEAST_QUEUE,
+
+  /**
+   * Lookups with the same key return the same provider, as long as that
+   * provider remains registered. Lookups made by an agent use the agent's id
+   * as the key, unless a key is explicitly specified.
+   */
+  STICKY
+
+}
@@ -0,0 +1,196 @@
+/******************************************************************************
+
+Copyright (c) 2021, Mandar Chitre
+
+This file is part of fjage which is released under Simplified BSD License.
+See file LICENSE.txt or go to http://www.opensource.org/licenses/BSD-3-Clause
+for full license details.
+
+******************************************************************************/
+
+package org.arl.fjage;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * Checkpoint of a discrete event simulation at a quiescent point. A checkpoint
+ * holds the simulation time, the state of the random number generators, the
+ * messages waiting in agents' queues (including those spilled to disk), the
+ * state of agents implementing {@link Checkpointable}, the pending timers of
+ * agents and their behaviors, and pending events whose tasks are serializable.
+ * <p>
+ * Any number of simulations may be forked from a checkpoint, by building the
+ * same set of containers and agents on a fresh {@link DiscreteEventSimulator}
+ * and calling {@link DiscreteEventSimulator#restore(SimulationCheckpoint)}
+ * before starting it. Each fork gets its own copy of the saved state.
+ * Checkpoints may be saved to a file and loaded in another JVM.
+ * <p>
+ * Timers of behaviors are matched to the behaviors of the restored agents in
+ * the order that the behaviors are added to each agent. The first timer that a
+ * restored behavior asks for is then scheduled at the time the checkpointed
+ * timer was due, rather than after the requested delay, so that the fork stays
+ * in step with the checkpointed simulation. Other pending events that are not
+ * serializable are not saved. Agents are expected to recreate them during
+ * {@link Agent#init()} or {@link Checkpointable#restore(Serializable)}.
+ *
+ * @author  Mandar Chitre
+ */
+public final class SimulationCheckpoint implements Serializable {
+
+  private static final long serialVersionUID = 1L;
+
+  /////////// Private attributes
+
+  private final long time;
+  private final byte[] data;
+
+  // saved state, serialized into data when the checkpoint is taken
+  private static class State implements Serializable {
+    private static final long serialVersionUID = 1L;
+    AgentLocalRandom root;
+    Map<String,AgentLocalRandom> rng = new HashMap<String,AgentLocalRandom>();
+    Map<String,Serializable> agents = new HashMap<String,Serializable>();
+    Map<String,List<Message>> messages = new HashMap<String,List<Message>>();
+    List<long[]> eventTimes = new ArrayList<long[]>();
+    List<Runnable> eventTasks = new ArrayList<Runnable>();
+    Map<String,Map<Integer,long[]>> behaviorTimers = new HashMap<String,Map<Integer,long[]>>();
+    Map<String,long[]> agentTimers = new HashMap<String,long[]>();
+  }
+
+  /////////// Constructor
+
+  private SimulationCheckpoint(long time, byte[] data) {
+    this.time = time;
+    this.data = data;
+  }
+
+  /////////// Interface methods
+
+  /**
+   * Gets the simulation time at which the checkpoint was taken.
+   *
+   * @return time in milliseconds.
+   */
+  public long getTime() {
+    return time;
+  }
+
+  /**
+   * Saves the checkpoint to a file.
+   *
+   * @param file file to save to.
+   * @throws IOException if the file could not be written.
+   */
+  public void save(File file) throws IOException {
+    try (ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+      out.writeObject(this);
+    }
+  }
+
+  /**
+   * Loads a checkpoint from a file.
+   *
+   * @param file file to load from.
+   * @return the checkpoint.
+   * @throws IOException if the file could not be read or is not a checkpoint.
+   */
+  public static SimulationCheckpoint load(File file) throws IOException {
+    try (ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+      return (SimulationCheckpoint)in.readObject();
+    } catch (ClassNotFoundException | ClassCastException ex) {
+      throw new IOException("Not a simulation checkpoint: "+file, ex);
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "SimulationCheckpoint @"+time+" ("+data.length+" bytes)";
+  }
+
+  /////////// Methods called by the simulator
+
+  // captures the state of a quiescent simulation
+  static SimulationCheckpoint capture(Platform platform, long time, List<DiscreteEvent> events) {
+    Logger log = Logger.getLogger(SimulationCheckpoint.class.getName());
+    State s = new State();
+    s.root = platform.getRandom();
+    int timers = 0;
+    for (Container c: platform.getContainers()) {
+      for (Agent a: c.agents.values()) {
+        String name = a.getAgentID().getName();
+        AgentLocalRandom r = AgentLocalRandom.get(a);
+        if (r != null) s.rng.put(name, r);
+        List<Message> msgs = a.getPendingMessages();
+        if (!msgs.isEmpty()) s.messages.put(name, msgs);
+        if (a instanceof Checkpointable) s.agents.put(name, ((Checkpointable)a).checkpoint());
+        else log.warning("Agent "+name+" is not checkpointable, state not saved");
+        Map<Integer,long[]> bt = a.getPendingTimers();
+        if (!bt.isEmpty()) s.behaviorTimers.put(name, bt);
+        long[] t = a.getPendingTimer();
+        if (t != null) s.agentTimers.put(name, t);
+        timers += bt.size() + (t != null ? 1 : 0);
+      }
+    }
+    int skipped = 0;
+    for (DiscreteEvent e: events) {
+      if (!e.isLive() || e.waiter != null) continue;
+      if (e.task instanceof Serializable) {
+        s.eventTimes.add(new long[] { e.created, e.time });
+        s.eventTasks.add(e.task);
+      }
+      else skipped++;
+    }
+    // timers of agents and behaviors are saved separately
+    skipped -= timers;
+    if (skipped > 0) log.fine("Checkpoint skipped "+skipped+" non-serializable events");
+    try {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+        out.writeObject(s);
+      }
+      return new SimulationCheckpoint(time, bytes.toByteArray());
+    } catch (IOException ex) {
+      throw new FjageException("Unable to checkpoint simulation: "+ex.toString());
+    }
+  }
+
+  // restores state into the agents and events of a simulator that is yet to be started
+  void restore(DiscreteEventSimulator platform) {
+    Logger log = Logger.getLogger(SimulationCheckpoint.class.getName());
+    State s;
+    try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(data))) {
+      s = (State)in.readObject();
+    } catch (IOException | ClassNotFoundException ex) {
+      throw new FjageException("Unable to restore simulation: "+ex.toString());
+    }
+    platform.setRandom(s.root);
+    for (Container c: platform.getContainers()) {
+      for (Agent a: c.agents.values()) {
+        String name = a.getAgentID().getName();
+        AgentLocalRandom r = s.rng.remove(name);
+        if (r != null) AgentLocalRandom.set(a, r);
+        List<Message> msgs = s.messages.remove(name);
+        if (msgs != null) a.deliver(msgs);
+        if (s.agents.containsKey(name)) {
+          if (a instanceof Checkpointable) a.setRestoreState(s.agents.get(name));
+          s.agents.remove(name);
+        }
+        Map<Integer,long[]> timers = s.behaviorTimers.get(name);
+        long[] t = s.agentTimers.get(name);
+        if (timers != null || t != null) a.setRestoreTimers(timers == null ? new HashMap<Integer,long[]>() : timers, t);
+      }
+    }
+    for (String name: s.agents.keySet())
+      log.warning("Agent "+name+" in checkpoint not found, state not restored");
+    for (int i = 0; i < s.eventTasks.size(); i++) {
+      long[] t = s.eventTimes.get(i);
+      platform.restoreEvent(t[0], t[1], s.eventTasks.get(i));
+    }
+  }
+
+}
@@ -0,0 +1,293 @@
+/******************************************************************************
+
+Copyright (c) 2021, Mandar Chitre
+
+This file is part of fjage which is released under Simplified BSD License.
+See file LICENSE.txt or go to http://www.opensource.org/licenses/BSD-3-Clause
+for full license details.
+
+******************************************************************************/
+
+package org.arl.fjage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import com.google.gson.GsonBuilder;
+
+/**
+ * Profiler for discrete event simulations. When set on a
+ * {@link DiscreteEventSimulator}, the profiler records the wall-clock time
+ * spent firing each event, the time spent in behavior actions for each agent
+ * and for each class of behavior, and samples the ratio of simulated to
+ * wall-clock time and the length of the event queue as the simulation
+ * progresses.
+ * <p>
+ * The profile is available as a JSON report through {@link #toJson()}. If a
+ * report file is specified, the report is written to it when the simulation
+ * ends:
+ * <pre>
+ * DiscreteEventSimulator platform = new DiscreteEventSimulator();
+ * platform.setProfiler(new SimulationProfiler(new File("profile.json")));
+ * </pre>
+ * All times in the report are in milliseconds, except for the cost of
+ * events and actions, which are in nanoseconds.
+ *
+ * @author  Mandar Chitre
+ */
+public final class SimulationProfiler {
+
+  /////////// Private attributes
+
+  // cost of one kind of activity, updated concurrently by agent threads
+  private static class Stats {
+    final LongAdder count = new LongAdder();
+    final LongAdder time = new LongAdder();
+    final LongAccumulator max = new LongAccumulator(Long::max, 0);
+    void add(long nanos) {
+      count.increment();
+      time.add(nanos);
+      max.accumulate(nanos);
+    }
+  }
+
+  private final File report;
+  private final Map<String,Stats> agents = new ConcurrentHashMap<String,Stats>();
+  private final Map<String,Stats> behaviors = new ConcurrentHashMap<String,Stats>();
+  private final List<long[]> samples = new ArrayList<long[]>();
+  private long interval = 1000;
+  private volatile long wallStart = 0;
+  private volatile long wallTime = 0;
+  private volatile long simTime = 0;
+  private long nextSample = 0;
+  private long events = 0;
+  private long eventTime = 0;
+  private long maxEventTime = 0;
+  private Logger log = Logger.getLogger(getClass().getName());
+
+  /////////// Interface methods
+
+  /**
+   * Creates a profiler that does not write a report file.
+   */
+  public SimulationProfiler() {
+    this(null);
+  }
+
+  /**
+   * Creates a profiler that writes a JSON report to a file when the
+   * simulation ends.
+   *
+   * @param report report file, or null to not write a report.
+   */
+  public SimulationProfiler(File report) {
+    this.report = report;
+  }
+
+  /**
+   * Sets the interval between samples of the simulation progress and event
+   * queue length.
+   *
+   * @param millis sampling interval in simulated milliseconds.
+   */
+  public void setSampleInterval(long millis) {
+    if (millis < 1) throw new IllegalArgumentException("Sample interval must be positive");
+    interval = millis;
+  }
+
+  /**
+   * Gets the interval between samples of the simulation progress and event
+   * queue length.
+   *
+   * @return sampling interval in simulated milliseconds.
+   */
+  public long getSampleInterval() {
+    return interval;
+  }
+
+  /**
+   * Gets the number of events fired.
+   *
+   * @return number of events.
+   */
+  public synchronized long getEventCount() {
+    return events;
+  }
+
+  /**
+   * Gets the wall-clock time spent firing events.
+   *
+   * @return time in nanoseconds.
+   */
+  public synchronized long getEventTime() {
+    return eventTime;
+  }
+
+  /**
+   * Gets the wall-clock time spent in behavior actions of an agent.
+   *
+   * @param name name of the agent.
+   * @return time in nanoseconds.
+   */
+  public long getAgentTime(String name) {
+    Stats s = agents.get(name);
+    return s == null ? 0 : s.time.sum();
+  }
+
+  /**
+   * Gets the wall-clock time spent in actions of a class of behaviors.
+   *
+   * @param cls class of behavior.
+   * @return time in nanoseconds.
+   */
+  public long getBehaviorTime(Class<? extends Behavior> cls) {
+    Stats s = behaviors.get(cls.getName());
+    return s == null ? 0 : s.time.sum();
+  }
+
+  /**
+   * Gets the ratio of simulated time to wall-clock time since the simulation
+   * started.
+   *
+   * @return time ratio, or 0 if no wall-clock time has elapsed.
+   */
+  public double getTimeRatio() {
+    return ratio(simTime, wallMillis());
+  }
+
+  /**
+   * Gets the profile as a JSON report.
+   *
+   * @return JSON report.
+   */
+  public String toJson() {
+    Map<String,Object> m = new LinkedHashMap<String,Object>();
+    long wall = wallMillis();
+    synchronized (this) {
+      m.put("simTime", simTime);
+      m.put("wallTime", wall);
+      m.put("timeRatio", ratio(simTime, wall));
+      m.put("events", events);
+      m.put("eventsPerSecond", wall > 0 ? 1000.0*events/wall : 0.0);
+      m.put("eventTime", eventTime);
+      m.put("meanEventTime", events > 0 ? eventTime/events : 0);
+      m.put("maxEventTime", maxEventTime);
+    }
+    m.put("agents", table("name", agents));
+    m.put("behaviors", table("class", behaviors));
+    List<Map<String,Object>> q = new ArrayList<Map<String,Object>>();
+    synchronized (this) {
+      for (long[] s: samples) {
+        Map<String,Object> e = new LinkedHashMap<String,Object>();
+        e.put("simTime", s[0]);
+        e.put("wallTime", s[1]);
+        e.put("queueLength", s[2]);
+        q.add(e);
+      }
+    }
+    m.put("samples", q);
+    return new GsonBuilder().setPrettyPrinting().create().toJson(m);
+  }
+
+  /**
+   * Writes the JSON report to a file.
+   *
+   * @param file report file.
+   * @throws IOException if the file could not be written.
+   */
+  public void save(File file) throws IOException {
+    Files.write(file.toPath(), toJson().getBytes(StandardCharsets.UTF_8));
+  }
+
+  @Override
+  public String toString() {
+    return getClass().getSimpleName()+"["+getEventCount()+" events, "+agents.size()+" agents, "+behaviors.size()+" behavior classes]";
+  }
+
+  /////////// Package private methods, called by the simulator and agents
+
+  void start() {
+    wallStart = System.nanoTime();
+  }
+
+  synchronized void event(long nanos) {
+    events++;
+    eventTime += nanos;
+    if (nanos > maxEventTime) maxEventTime = nanos;
+  }
+
+  void action(Agent agent, Behavior b, long nanos) {
+    stats(agents, agent.getName()).add(nanos);
+    stats(behaviors, b.getClass().getName()).add(nanos);
+  }
+
+  synchronized void sample(long time, int queueLength) {
+    simTime = time;
+    if (time < nextSample) return;
+    samples.add(new long[] { time, wallMillis(), queueLength });
+    nextSample = time - time%interval + interval;
+  }
+
+  void stop(long time) {
+    synchronized (this) {
+      simTime = time;
+      wallTime = wallMillis();
+      if (samples.isEmpty() || samples.get(samples.size()-1)[0] < time) samples.add(new long[] { time, wallTime, 0 });
+    }
+    if (report == null) return;
+    try {
+      save(report);
+      log.info("Profile written to "+report);
+    } catch (IOException ex) {
+      log.log(Level.WARNING, "Unable to write profile to "+report, ex);
+    }
+  }
+
+  /////////// Private methods
+
+  // JSON has no infinity, so the ratio is 0 until wall-clock time has elapsed
+  private static double ratio(long sim, long wall) {
+    return wall > 0 ? (double)sim/wall : 0.0;
+  }
+
+  private long wallMillis() {
+    if (wallTime > 0) return wallTime;
+    if (wallStart == 0) return 0;
+    return (System.nanoTime() - wallStart)/1000000;
+  }
+
+  private static Stats stats(Map<String,Stats> map, String key) {
+    Stats s = map.get(key);
+    if (s == null) s = map.computeIfAbsent(key, k -> new Stats());
+    return s;
+  }
+
+  private static List<Map<String,Object>> table(String keyName, Map<String,Stats> map) {
+    List<Map<String,Object>> rows = new ArrayList<Map<String,Object>>();
+    for (Map.Entry<String,Stats> e: map.entrySet()) {
+      Stats s = e.getValue();
+      long n = s.count.sum();
+      long t = s.time.sum();
+      Map<String,Object> row = new LinkedHashMap<String,Object>();
+      row.put(keyName, e.getKey());
+      row.put("actions", n);
+      row.put("time", t);
+      row.put("meanTime", n > 0 ? t/n : 0);
+      row.put("maxTime", s.max.get());
+      rows.add(row);
+    }
+    rows.sort((a, b) -> Long.compare((Long)b.get("time"), (Long)a.get("time")));
+    return rows;
+  }
+
+}
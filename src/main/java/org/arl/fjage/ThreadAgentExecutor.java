@@ -0,0 +1,34 @@
+/******************************************************************************
+
+Copyright (c) 2021, Mandar Chitre
+
+This file is part of fjage which is released under Simplified BSD License.
+See file LICENSE.txt or go to http://www.opensource.org/licenses/BSD-3-Clause
+for full license details.
+
+******************************************************************************/
+
+package org.arl.fjage;
+
+/**
+ * Agent executor that runs each agent on its own dedicated thread. This is
+ * the default executor for containers.
+ *
+ * @author  Mandar Chitre
+ */
+public class ThreadAgentExecutor implements AgentExecutor {
+
+  @Override
+  public void execute(Agent agent) {
+    Thread t = new Thread(agent);
+    t.setName(agent.getName());
+    t.setDaemon(false);
+    t.start();
+  }
+
+  @Override
+  public void shutdown() {
+    // do nothing
+  }
+
+}
@@ -87,8 +87,9 @@ public class TickerBehavior extends Behavior {
    */
   @Override
   public void onStart() {
-    wakeupTime = agent.currentTimeMillis() + period;
-    block(period);
+    long dt = restoredDelay(period);
+    wakeupTime = agent.currentTimeMillis() + dt;
+    block(dt);
   }
 
   /**
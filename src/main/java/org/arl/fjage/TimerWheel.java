@@ -0,0 +1,253 @@
+/******************************************************************************
+
+Copyright (c) 2021, Mandar Chitre
+
+This file is part of fjage which is released under Simplified BSD License.
+See file LICENSE.txt or go to http://www.opensource.org/licenses/BSD-3-Clause
+for full license details.
+
+******************************************************************************/
+
+package org.arl.fjage;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Internal class implementing a hierarchical timer wheel with millisecond ticks.
+ * Tasks are scheduled and cancelled in constant time, irrespective of the
+ * number of pending tasks. Tasks are executed in a single daemon thread, and
+ * should therefore be short.
+ * <p>
+ * The wheel has {@value #LEVELS} levels of {@value #SLOTS} slots each. Level 0
+ * slots are one tick wide, and each higher level slot covers a complete
+ * rotation of the level below it. Tasks in higher levels are cascaded down
+ * as time advances. Tasks due beyond the range of the wheel are parked in
+ * the last level and re-cascaded until they are in range.
+ *
+ * @author  Mandar Chitre
+ */
+final class TimerWheel {
+
+  /////////// Constants
+
+  private static final int BITS = 6;
+  private static final int SLOTS = 1 << BITS;
+  private static final int MASK = SLOTS - 1;
+  private static final int LEVELS = 4;
+  private static final long RANGE = 1L << (BITS*LEVELS);
+
+  /////////// Private attributes
+
+  private final Entry[][] wheel = new Entry[LEVELS][SLOTS];
+  private final int[] count = new int[LEVELS];
+  private final long t0 = System.nanoTime();
+  private final String name;
+  private long tick = 0;            // last processed tick
+  private long wakeAt = Long.MAX_VALUE;
+  private int size = 0;
+  private Thread thread = null;
+  private Logger log = Logger.getLogger(getClass().getName());
+
+  /////////// Interface methods
+
+  /**
+   * Creates a timer wheel, whose thread is started when the first task is
+   * scheduled.
+   *
+   * @param name name of the timer thread.
+   */
+  TimerWheel(String name) {
+    this.name = name;
+  }
+
+  /**
+   * Schedules a task to be executed after a given delay.
+   *
+   * @param task task to be executed.
+   * @param millis delay in milliseconds.
+   * @return handle to cancel the task.
+   */
+  synchronized Cancellable schedule(Runnable task, long millis) {
+    if (thread == null) {
+      thread = new Thread(this::run, name);
+      thread.setDaemon(true);
+      thread.start();
+    }
+    long now = now();
+    if (size == 0) tick = Math.max(tick, now-1);
+    // round up to the next tick, so that tasks never run early
+    Entry e = new Entry(task, now + 1 + Math.max(millis, 0));
+    place(e, tick+1);
+    size++;
+    if (e.deadline < wakeAt) notify();
+    return e;
+  }
+
+  /**
+   * Gets the number of pending tasks.
+   *
+   * @return number of tasks.
+   */
+  synchronized int size() {
+    return size;
+  }
+
+  /////////// Private methods
+
+  // current time in ticks
+  private long now() {
+    return (System.nanoTime() - t0) / 1000000;
+  }
+
+  // puts an entry in the slot from which it will next be processed, relative
+  // to a tick that has not yet been processed
+  private void place(Entry e, long base) {
+    long delta = e.deadline - base;
+    if (delta < 0) delta = 0;
+    if (delta >= RANGE) delta = RANGE - 1;
+    long d = base + delta;
+    int level = 0;
+    while (level < LEVELS-1 && delta >= 1L << (BITS*(level+1)))
+      level++;
+    int slot = (int)(d >>> (BITS*level)) & MASK;
+    e.level = level;
+    e.slot = slot;
+    e.prev = null;
+    e.next = wheel[level][slot];
+    if (e.next != null) e.next.prev = e;
+    wheel[level][slot] = e;
+    count[level]++;
+  }
+
+  private void unlink(Entry e) {
+    if (e.prev != null) e.prev.next = e.next;
+    else wheel[e.level][e.slot] = e.next;
+    if (e.next != null) e.next.prev = e.prev;
+    e.prev = null;
+    e.next = null;
+    count[e.level]--;
+    e.level = -1;
+  }
+
+  private synchronized boolean cancel(Entry e) {
+    if (e.level < 0) return false;
+    unlink(e);
+    size--;
+    return true;
+  }
+
+  // advances the wheel by one tick, returns expired entries as a linked list
+  private Entry advance() {
+    long t = tick + 1;
+    for (int level = 1; level < LEVELS; level++) {
+      if ((t & ((1L << (BITS*level)) - 1)) != 0) break;
+      int slot = (int)(t >>> (BITS*level)) & MASK;
+      Entry e = wheel[level][slot];
+      wheel[level][slot] = null;
+      while (e != null) {
+        Entry next = e.next;
+        count[level]--;
+        place(e, t);
+        e = next;
+      }
+    }
+    int slot = (int)t & MASK;
+    Entry expired = wheel[0][slot];
+    wheel[0][slot] = null;
+    for (Entry e = expired; e != null; e = e.next) {
+      count[0]--;
+      e.level = -1;
+      size--;
+    }
+    tick = t;
+    return expired;
+  }
+
+  // next tick at which something may need to be done: the first occupied
+  // level 0 slot, or the next cascade of the lowest occupied higher level
+  private long nextTick() {
+    long t = Long.MAX_VALUE;
+    if (count[0] > 0) {
+      // level 0 holds the next rotation of ticks, one per slot
+      for (long i = tick+1; i <= tick+SLOTS; i++) {
+        if (wheel[0][(int)i & MASK] != null) {
+          t = i;
+          break;
+        }
+      }
+    }
+    for (int level = 1; level < LEVELS; level++) {
+      if (count[level] > 0) {
+        long span = 1L << (BITS*level);
+        return Math.min(t, (tick/span + 1)*span);
+      }
+    }
+    return t;
+  }
+
+  private void run() {
+    while (true) {
+      Entry expired = null;
+      synchronized (this) {
+        try {
+          while (expired == null) {
+            long now = now();
+            if (size == 0) {
+              tick = Math.max(tick, now);
+              wait();
+            } else if (tick < now) {
+              // skip directly to the next tick that has work
+              long t = nextTick();
+              if (t > now) tick = now;
+              else {
+                tick = t - 1;
+                expired = advance();
+              }
+            } else {
+              wakeAt = nextTick();
+              wait(wakeAt - now);
+              wakeAt = Long.MAX_VALUE;
+            }
+          }
+        } catch (InterruptedException ex) {
+          Thread.currentThread().interrupt();
+          return;
+        }
+      }
+      while (expired != null) {
+        Entry next = expired.next;
+        expired.next = null;
+        try {
+          expired.task.run();
+        } catch (Throwable ex) {
+          log.log(Level.WARNING, "Exception in timer task", ex);
+        }
+        expired = next;
+      }
+    }
+  }
+
+  /////////// Entries in the wheel
+
+  private class Entry implements Cancellable {
+
+    final Runnable task;
+    final long deadline;
+    int level = -1;
+    int slot;
+    Entry prev, next;
+
+    Entry(Runnable task, long deadline) {
+      this.task = task;
+      this.deadline = deadline;
+    }
+
+    @Override
+    public boolean cancel() {
+      return TimerWheel.this.cancel(this);
+    }
+
+  }
+
+}
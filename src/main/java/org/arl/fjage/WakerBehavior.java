@@ -87,8 +87,9 @@ public class WakerBehavior extends Behavior {
    */
   @Override
   public final void onStart() {
-    wakeupTime = agent.currentTimeMillis() + timeout;
-    block(timeout);
+    long dt = restoredDelay(timeout);
+    wakeupTime = agent.currentTimeMillis() + dt;
+    block(dt);
   }
 
   /**
@@ -9,23 +9,33 @@ import java.security.NoSuchAlgorithmException;
 import org.apache.commons.io.FileUtils;
 import org.arl.fjage.Agent;
 import org.arl.fjage.FjageException;
+import org.arl.fjage.Platform;
 
 /**
  * Persistent storage API. The default store is in the user's home directory under
  * a folder called ".fjstore", but may be changed using the {@link #setRoot(java.io.File)} method.
+ * Platforms may be given their own store folder using the {@link #setRoot(Platform, java.io.File)}
+ * method, so that independent simulations running in the same JVM do not share stores.
  */
 public class Store implements Closeable {
 
   protected static File storeRoot = new File(FileUtils.getUserDirectory(), ".fjstore");
   protected static ClassLoader defaultClazzLoader = null;
   protected static Map<String,Store> instances = new HashMap<>();
+  protected static Map<Platform,File> platformRoots = new WeakHashMap<>();
+  protected static Map<Platform,Map<String,Store>> platformInstances = new WeakHashMap<>();
 
   protected File root;
   protected String clazz;
   protected ClassLoader clazzLoader;
+  protected Map<String,Store> owner = instances;
   private MessageDigest md;
 
   protected Store(String clazz) {
+    this(clazz, storeRoot);
+  }
+
+  protected Store(String clazz, File folder) {
     this.clazz = clazz;
     clazzLoader = defaultClazzLoader;
     try {
@@ -33,7 +43,7 @@ public class Store implements Closeable {
     } catch (NoSuchAlgorithmException ex) {
       throw new FjageException("SHA-256 not available");
     }
-    root = new File(storeRoot, clazz);
+    root = new File(folder, clazz);
   }
 
   /**
@@ -43,6 +53,20 @@ public class Store implements Closeable {
     storeRoot = folder;
   }
 
+  /**
+   * Sets root folder for store data of agents on a given platform.
+   *
+   * @param platform platform.
+   * @param folder root folder for the platform, or null to use the default root.
+   */
+  public static void setRoot(Platform platform, File folder) {
+    synchronized (instances) {
+      if (folder == null) platformRoots.remove(platform);
+      else platformRoots.put(platform, folder);
+      platformInstances.remove(platform);
+    }
+  }
+
   /**
    * Sets class loader to use for loading stored classes.
    *
@@ -57,11 +81,16 @@ public class Store implements Closeable {
    */
   public static Store getInstance(Agent agent) {
     String clazz = agent.getClass().getName();
+    Platform platform = agent.getPlatform();
     synchronized (instances) {
-      Store store = instances.get(clazz);
+      File proot = platform == null ? null : platformRoots.get(platform);
+      Map<String,Store> map = instances;
+      if (proot != null) map = platformInstances.computeIfAbsent(platform, p -> new HashMap<>());
+      Store store = map.get(clazz);
       if (store == null) {
-        store = new Store(clazz);
-        instances.put(clazz, store);
+        store = proot == null ? new Store(clazz) : new Store(clazz, proot);
+        store.owner = map;
+        map.put(clazz, store);
       }
       return store;
     }
@@ -263,7 +292,7 @@ public class Store implements Closeable {
   public void close() {
     if (root == null) return;
     synchronized (instances) {
-      instances.remove(clazz);
+      owner.remove(clazz);
     }
     clazz = null;
     root = null;
@@ -14,6 +14,7 @@ import java.io.*;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.arl.fjage.AgentID;
 import org.arl.fjage.connectors.*;
@@ -208,10 +209,32 @@ class ConnectionHandler extends Thread {
     }
   }
 
+  synchronized void println(List<String> lines) {
+    if (out == null || lines.isEmpty()) return;
+    StringBuilder sb = new StringBuilder();
+    for (String s: lines)
+      sb.append(s).append('\n');
+    try {
+      out.write(sb.toString().getBytes(StandardCharsets.UTF_8));
+      if (log.isLoggable(Level.FINE)) {
+        for (String s: lines)
+          log.fine(this.getName() +" >>> "+s);
+      }
+      conn.waitOutputCompletion(1000);
+    } catch(IOException ex) {
+      log.warning("Write failed: "+ex.toString());
+      close();
+    }
+  }
+
   void printlnQueued(String s) {
     if (pool != null) pool.execute(() -> println(s));
   }
 
+  void printlnQueued(List<String> lines) {
+    if (pool != null) pool.execute(() -> println(lines));
+  }
+
   JsonMessage printlnAndGetResponse(String s, String id, long timeout) {
     if (conn == null) return null;
     if (keepAlive && !alive && container instanceof MasterContainer) return null;
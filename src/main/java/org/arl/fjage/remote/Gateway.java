@@ -247,15 +247,7 @@ public class Gateway implements Messenger, Closeable {
   public Message receive(final Message m, long timeout) {
     if (container instanceof SlaveContainer)
       ((SlaveContainer)container).checkAuthFailure(m.getMessageID());
-    Message rsp = receive(new MessageFilter() {
-      private String mid = m.getMessageID();
-      @Override
-      public boolean matches(Message m) {
-        String s = m.getInReplyTo();
-        if (s == null) return false;
-        return s.equals(mid);
-      }
-    }, timeout);
+    Message rsp = receive(new ReplyMessageFilter(m), timeout);
     if (rsp != null) return rsp;
     if (container instanceof SlaveContainer)
       ((SlaveContainer)container).checkAuthFailure(m.getMessageID());
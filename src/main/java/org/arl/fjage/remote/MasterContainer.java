@@ -34,6 +34,7 @@ public class MasterContainer extends RemoteContainer implements ConnectionListen
   private List<ConnectionHandler> slaves = new ArrayList<ConnectionHandler>();
   private boolean needsCleanup = false;
   private Firewall fw = new AllowAll();
+  private final CounterIdGenerator ids = new CounterIdGenerator();   // ids for JSON requests
 
   ////////////// Constructors
 
@@ -199,7 +200,7 @@ public class MasterContainer extends RemoteContainer implements ConnectionListen
     JsonMessage rq = new JsonMessage();
     rq.action = Action.CONTAINS_AGENT;
     rq.agentID = aid;
-    rq.id = UUID.randomUUID().toString();
+    rq.id = ids.nextId();
     String json = rq.toJson();
     if (needsCleanup) cleanupSlaves();
     synchronized(slaves) {
@@ -223,6 +224,7 @@ public class MasterContainer extends RemoteContainer implements ConnectionListen
     if (aid == null) return false;
     if (super.send(m, false) && !aid.isTopic()) return true;
     if (!relay) return false;
+    if (dropIfExpired(m)) return true;
     JsonMessage rq = new JsonMessage();
     rq.action = Action.SEND;
     rq.message = m;
@@ -236,13 +238,59 @@ public class MasterContainer extends RemoteContainer implements ConnectionListen
     return true;
   }
 
+  @Override
+  public boolean send(Collection<Message> msgs) {
+    return send(msgs, true);
+  }
+
+  @Override
+  public boolean send(Collection<Message> msgs, boolean relay) {
+    if (!running) return false;
+    boolean ok = true;
+    List<Message> local = new ArrayList<Message>();
+    List<Message> remote = new ArrayList<Message>();
+    for (Message m: msgs) {
+      AgentID aid = m.getRecipient();
+      if (aid == null) {
+        ok = false;
+        continue;
+      }
+      boolean intercepted = intercept(m);
+      if (intercepted && !aid.isTopic()) continue;
+      boolean isLocal = containsAgent(aid);
+      if (!intercepted && (aid.isTopic() || isLocal)) local.add(m);
+      if (isLocal) continue;
+      if (relay) {
+        if (!dropIfExpired(m)) remote.add(m);
+      } else if (!aid.isTopic()) ok = false;
+    }
+    if (!route(local)) ok = false;
+    if (remote.isEmpty()) return ok;
+    if (needsCleanup) cleanupSlaves();
+    synchronized(slaves) {
+      for (ConnectionHandler slave: slaves) {
+        List<String> lines = new ArrayList<String>();
+        for (Message m: remote) {
+          if (!slave.wantsMessagesFor(m.getRecipient())) continue;
+          JsonMessage rq = new JsonMessage();
+          rq.action = Action.SEND;
+          rq.message = m;
+          rq.relay = false;
+          lines.add(rq.toJson());
+        }
+        if (!lines.isEmpty()) slave.printlnQueued(lines);
+      }
+    }
+    return ok;
+  }
+
   @Override
   public AgentID[] getAgents() {
     AgentID[] aids = super.getAgents();
     List<AgentID> rv = new ArrayList<AgentID>(Arrays.asList(aids));
     JsonMessage rq = new JsonMessage();
     rq.action = Action.AGENTS;
-    rq.id = UUID.randomUUID().toString();
+    rq.id = ids.nextId();
     String json = rq.toJson();
     if (needsCleanup) cleanupSlaves();
     synchronized(slaves) {
@@ -262,7 +310,7 @@ public class MasterContainer extends RemoteContainer implements ConnectionListen
     Set<String> rv = new HashSet<String>(Arrays.asList(svc));
     JsonMessage rq = new JsonMessage();
     rq.action = Action.SERVICES;
-    rq.id = UUID.randomUUID().toString();
+    rq.id = ids.nextId();
     String json = rq.toJson();
     if (needsCleanup) cleanupSlaves();
     synchronized(slaves) {
@@ -278,12 +326,17 @@ public class MasterContainer extends RemoteContainer implements ConnectionListen
 
   @Override
   public AgentID agentForService(String service) {
-    AgentID aid = super.agentForService(service);
+    return agentForService(service, null);
+  }
+
+  @Override
+  public AgentID agentForService(String service, Object key) {
+    AgentID aid = super.agentForService(service, key);
     if (aid != null) return aid;
     JsonMessage rq = new JsonMessage();
     rq.action = Action.AGENT_FOR_SERVICE;
     rq.service = service;
-    rq.id = UUID.randomUUID().toString();
+    rq.id = ids.nextId();
     String json = rq.toJson();
     if (needsCleanup) cleanupSlaves();
     synchronized(slaves) {
@@ -304,7 +357,7 @@ public class MasterContainer extends RemoteContainer implements ConnectionListen
     JsonMessage rq = new JsonMessage();
     rq.action = Action.AGENTS_FOR_SERVICE;
     rq.service = service;
-    rq.id = UUID.randomUUID().toString();
+    rq.id = ids.nextId();
     String json = rq.toJson();
     if (needsCleanup) cleanupSlaves();
     synchronized(slaves) {
@@ -83,8 +83,14 @@ class MessageAdapterFactory implements TypeAdapterFactory {
                 delegate.write(out, v);
               }
               out.endObject();
+              // kept in the envelope, as the data keys belong to the user
+              if (msg.getSentAt() != null) out.name("sentAt").value(msg.getSentAt());
+              if (msg.getTimeToLive() != null) out.name("ttl").value(msg.getTimeToLive());
+            }
+            else {
+              if (value instanceof Message) ((Message)value).getMessageID();   // create the string id, if not yet created
+              delegate.write(out, value);
             }
-            else delegate.write(out, value);
             out.endObject();
           }
         } finally {
@@ -100,6 +106,8 @@ class MessageAdapterFactory implements TypeAdapterFactory {
         }
         T rv = null;
         Class<?> cls = null;
+        Long sentAt = null;
+        Long ttl = null;
         in.beginObject();
         while (in.hasNext()) {
           String name = in.nextName();
@@ -149,9 +157,16 @@ class MessageAdapterFactory implements TypeAdapterFactory {
               TypeAdapter<?> delegate1 = gson.getDelegateAdapter(parent, TypeToken.get(cls));
               rv = (T)delegate1.read(in);
             }
-          } else in.skipValue();
+          } else if (name.equals("sentAt") && in.peek() != JsonToken.NULL) sentAt = in.nextLong();
+          else if (name.equals("ttl") && in.peek() != JsonToken.NULL) ttl = in.nextLong();
+          else in.skipValue();
         }
         in.endObject();
+        if (rv instanceof GenericMessage) {
+          GenericMessage msg = (GenericMessage)rv;
+          if (sentAt != null) msg.setSentAt(sentAt);
+          if (ttl != null) msg.setTimeToLive(ttl);
+        }
         return rv;
       }
 
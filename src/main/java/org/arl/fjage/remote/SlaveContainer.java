@@ -35,6 +35,7 @@ public class SlaveContainer extends RemoteContainer {
   private int port, baud;
   private boolean quit = false;
   private String watchListCache = null;
+  private final CounterIdGenerator ids = new CounterIdGenerator();   // ids for JSON requests
 
   ////////////// Constructors
 
@@ -119,7 +120,7 @@ public class SlaveContainer extends RemoteContainer {
     JsonMessage rq = new JsonMessage();
     rq.action = Action.AUTH;
     rq.creds = creds;
-    rq.id = UUID.randomUUID().toString();
+    rq.id = ids.nextId();
     String json = rq.toJson();
     JsonMessage rsp = master.printlnAndGetResponse(json, rq.id, TIMEOUT);
     return rsp != null && rsp.auth != null && rsp.auth;
@@ -143,7 +144,7 @@ public class SlaveContainer extends RemoteContainer {
     JsonMessage rq = new JsonMessage();
     rq.action = Action.CONTAINS_AGENT;
     rq.agentID = aid;
-    rq.id = UUID.randomUUID().toString();
+    rq.id = ids.nextId();
     String json = rq.toJson();
     JsonMessage rsp = master.printlnAndGetResponse(json, rq.id, TIMEOUT);
     return rsp != null && rsp.answer != null && rsp.answer;
@@ -162,6 +163,7 @@ public class SlaveContainer extends RemoteContainer {
     if (aid == null) return false;
     if (aid.isTopic()) {
       if (!relay) return super.send(m, false);
+      if (dropIfExpired(m)) return true;
       JsonMessage rq = new JsonMessage();
       rq.action = Action.SEND;
       rq.id = m.getMessageID();
@@ -173,6 +175,7 @@ public class SlaveContainer extends RemoteContainer {
     } else {
       if (super.send(m, false)) return true;
       if (!relay) return false;
+      if (dropIfExpired(m)) return true;
       JsonMessage rq = new JsonMessage();
       rq.action = Action.SEND;
       rq.id = m.getMessageID();
@@ -184,12 +187,54 @@ public class SlaveContainer extends RemoteContainer {
     }
   }
 
+  @Override
+  public boolean send(Collection<Message> msgs) {
+    return send(msgs, true);
+  }
+
+  @Override
+  public boolean send(Collection<Message> msgs, boolean relay) {
+    if (!running) return false;
+    if (master == null) return false;
+    boolean ok = true;
+    List<Message> local = new ArrayList<Message>();
+    List<String> remote = new ArrayList<String>();
+    for (Message m: msgs) {
+      AgentID aid = m.getRecipient();
+      if (aid == null) {
+        ok = false;
+        continue;
+      }
+      if (!aid.isTopic() || !relay) {
+        if (intercept(m)) continue;
+        if (aid.isTopic() || containsAgent(aid)) {
+          local.add(m);
+          continue;
+        }
+        if (!relay) {
+          ok = false;
+          continue;
+        }
+      }
+      if (dropIfExpired(m)) continue;
+      JsonMessage rq = new JsonMessage();
+      rq.action = Action.SEND;
+      rq.id = m.getMessageID();
+      rq.message = m;
+      rq.relay = true;
+      remote.add(rq.toJson());
+    }
+    if (!route(local)) ok = false;
+    if (!remote.isEmpty()) master.println(remote);
+    return ok;
+  }
+
   @Override
   public AgentID[] getAgents() {
     if (master == null) return null;
     JsonMessage rq = new JsonMessage();
     rq.action = Action.AGENTS;
-    rq.id = UUID.randomUUID().toString();
+    rq.id = ids.nextId();
     String json = rq.toJson();
     JsonMessage rsp = master.printlnAndGetResponse(json, rq.id, TIMEOUT);
     if (rsp == null) return null;
@@ -202,7 +247,7 @@ public class SlaveContainer extends RemoteContainer {
     if (master == null) return null;
     JsonMessage rq = new JsonMessage();
     rq.action = Action.SERVICES;
-    rq.id = UUID.randomUUID().toString();
+    rq.id = ids.nextId();
     String json = rq.toJson();
     JsonMessage rsp = master.printlnAndGetResponse(json, rq.id, TIMEOUT);
     if (rsp == null) return null;
@@ -216,7 +261,7 @@ public class SlaveContainer extends RemoteContainer {
     JsonMessage rq = new JsonMessage();
     rq.action = Action.AGENT_FOR_SERVICE;
     rq.service = service;
-    rq.id = UUID.randomUUID().toString();
+    rq.id = ids.nextId();
     String json = rq.toJson();
     JsonMessage rsp = master.printlnAndGetResponse(json, rq.id, TIMEOUT);
     if (rsp == null) return null;
@@ -224,13 +269,18 @@ public class SlaveContainer extends RemoteContainer {
     return rsp.agentID;
   }
 
+  @Override
+  public AgentID agentForService(String service, Object key) {
+    return agentForService(service);
+  }
+
   @Override
   public AgentID[] agentsForService(String service) {
     if (master == null) return null;
     JsonMessage rq = new JsonMessage();
     rq.action = Action.AGENTS_FOR_SERVICE;
     rq.service = service;
-    rq.id = UUID.randomUUID().toString();
+    rq.id = ids.nextId();
     String json = rq.toJson();
     JsonMessage rsp = master.printlnAndGetResponse(json, rq.id, TIMEOUT);
     if (rsp == null) return null;
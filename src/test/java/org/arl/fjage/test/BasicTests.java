@@ -22,10 +22,15 @@ import org.junit.Before;
 import org.junit.Test;
 
 import java.io.File;
+import java.io.FilenameFilter;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Random;
+import java.util.Set;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Logger;
 
 import static org.junit.Assert.*;
@@ -81,6 +86,1130 @@ public class BasicTests {
     assertEquals(client.nuisance, server.nuisance);
   }
 
+  @Test
+  public void testPooled() {
+    log.info("testPooled");
+    Platform platform = new RealTimePlatform();
+    Container container = new Container(platform);
+    container.setExecutor(new PooledAgentExecutor(2));
+    ClientAgent client = new ClientAgent();
+    ServerAgent server = new ServerAgent();
+    container.add("C", client);
+    container.add("S", server);
+    platform.start();
+    while (!client.done)
+      platform.delay(DELAY);
+    platform.shutdown();
+    assertEquals(0, client.bad);
+    assertEquals(client.good, client.requests);
+    assertEquals(client.requests, server.requests);
+    assertEquals(client.nuisance, server.nuisance);
+  }
+
+  @Test
+  public void testPooledSim() {
+    log.info("testPooledSim");
+    Platform platform = new DiscreteEventSimulator();
+    Container container = new Container(platform);
+    container.setExecutor(new PooledAgentExecutor(2));
+    ClientAgent client = new ClientAgent();
+    ServerAgent server = new ServerAgent();
+    container.add("C", client);
+    container.add("S", server);
+    platform.start();
+    while (!client.done)
+      platform.delay(DELAY);
+    platform.shutdown();
+    assertEquals(0, client.bad);
+    assertEquals(client.good, client.requests);
+    assertEquals(client.requests, server.requests);
+    assertEquals(client.nuisance, server.nuisance);
+  }
+
+  @Test
+  public void testPooledBlocking() {
+    log.info("testPooledBlocking");
+    Platform platform = new RealTimePlatform();
+    Container container = new Container(platform);
+    container.setExecutor(new PooledAgentExecutor(1));
+    ParamServerAgent server = new ParamServerAgent(false);
+    ParamClientAgent client1 = new ParamClientAgent(false);
+    ParamClientAgent client2 = new ParamClientAgent(false);
+    container.add("S", server);
+    container.add("C1", client1);
+    container.add("C2", client2);
+    platform.start();
+    platform.delay(5000);
+    platform.shutdown();
+    platform.delay(2000);
+    assertTrue(server.errors == 0);
+    assertTrue(client1.errors == 0);
+    assertTrue(client2.errors == 0);
+    assertTrue(client1.warnings < 3);
+    assertTrue(client2.warnings < 3);
+    assertTrue(client1.count + client2.count > 50);
+  }
+
+  @Test
+  public void testFanIn() {
+    log.info("testFanIn");
+    Platform platform = new RealTimePlatform();
+    Container container = new Container(platform);
+    SinkAgent sink = new SinkAgent();
+    container.add("sink", sink);
+    for (int i = 0; i < 50; i++)
+      container.add("src"+i, new SourceAgent(new AgentID("sink"), 200));
+    platform.start();
+    for (int i = 0; i < 10 && sink.count < 50*200; i++)
+      platform.delay(DELAY);
+    platform.shutdown();
+    assertEquals(50*200, sink.count);
+  }
+
+  @Test
+  public void testRequestBacklog() {
+    log.info("testRequestBacklog");
+    Platform platform = new RealTimePlatform();
+    Container container = new Container(platform);
+    ServerAgent server = new ServerAgent();
+    BacklogClientAgent client = new BacklogClientAgent();
+    container.add("S", server);
+    container.add("C", client);
+    platform.start();
+    for (int i = 0; i < 10 && !client.done; i++)
+      platform.delay(DELAY);
+    platform.shutdown();
+    assertTrue(client.done);
+    assertEquals(100, client.good);
+    assertEquals(200, client.backlog);
+  }
+
+  @Test
+  public void testSpawnKill() {
+    log.info("testSpawnKill");
+    Platform platform = new RealTimePlatform();
+    Container container = new Container(platform);
+    SpawnerAgent spawner = new SpawnerAgent(10000);
+    container.add("spawner", spawner);
+    platform.start();
+    for (int i = 0; i < 60 && !(spawner.done && container.getAgents().length == 1); i++)
+      platform.delay(DELAY);
+    assertTrue(spawner.done);
+    assertEquals(1, container.getAgents().length);
+    assertEquals(0, container.getServices().length);
+    assertNull(container.agentsForService("svc0"));
+    platform.shutdown();
+  }
+
+  @Test
+  public void testServiceResolution() {
+    log.info("testServiceResolution");
+    Platform platform = new RealTimePlatform();
+    Container container = new Container(platform);
+    AgentID[] pool = new AgentID[3];
+    for (int i = 0; i < pool.length; i++) {
+      pool[i] = container.add("P"+i, new Agent());
+      container.register(pool[i], "pool");
+    }
+    platform.start();
+    container.setServiceResolution(ServiceResolution.ROUND_ROBIN);
+    List<AgentID> seen = new ArrayList<AgentID>();
+    for (int i = 0; i < pool.length; i++) {
+      AgentID aid = container.agentForService("pool");
+      assertFalse(seen.contains(aid));
+      seen.add(aid);
+    }
+    assertEquals(seen.get(0), container.agentForService("pool"));
+    container.setServiceResolution(ServiceResolution.STICKY);
+    AgentID aid = container.agentForService("pool", "key1");
+    for (int i = 0; i < 10; i++)
+      assertEquals(aid, container.agentForService("pool", "key1"));
+    container.setServiceResolution(ServiceResolution.LEAST_QUEUE);
+    for (int i = 0; i < 5; i++)
+      container.send(new Message(pool[0]));
+    for (int i = 0; i < 3; i++)
+      container.send(new Message(pool[2]));
+    assertEquals(pool[1], container.agentForService("pool"));
+    container.send(new Message(pool[1]));
+    assertEquals(pool[1], container.agentForService("pool"));
+    for (int i = 0; i < 3; i++)
+      container.send(new Message(pool[1]));
+    assertEquals(pool[2], container.agentForService("pool"));
+    platform.shutdown();
+    // round-robin state is forgotten when a service has no providers left
+    platform = new RealTimePlatform();
+    TurnsContainer c2 = new TurnsContainer(platform);
+    c2.setServiceResolution(ServiceResolution.ROUND_ROBIN);
+    platform.start();
+    for (int i = 0; i < 100; i++) {
+      AgentID a1 = c2.add("A"+i, new Agent());
+      AgentID a2 = c2.add("B"+i, new Agent());
+      c2.register(a1, "svc"+i);
+      c2.register(a2, "svc"+i);
+      assertNotNull(c2.agentForService("svc"+i));
+      c2.deregister(a1, "svc"+i);
+      c2.kill(a2);
+    }
+    assertEquals(0, c2.getTurnCount());
+    platform.shutdown();
+  }
+
+  private static class TurnsContainer extends Container {
+    TurnsContainer(Platform platform) {
+      super(platform);
+    }
+    int getTurnCount() {
+      return turns.size();
+    }
+  }
+
+  @Test
+  public void testOverflow() {
+    log.info("testOverflow");
+    for (OverflowPolicy policy: OverflowPolicy.values()) {
+      MessageQueue q = new MessageQueue(10);
+      q.setOverflowPolicy(policy);
+      q.setOverflowTimeout(10);
+      List<Message> sent = new ArrayList<Message>();
+      for (int i = 0; i < 30; i++) {
+        Message m = new Message();
+        sent.add(m);
+        q.add(m);
+      }
+      q.commit(new ArrayList<MessageFilter>());
+      List<Message> rcvd = new ArrayList<Message>();
+      Message m;
+      while ((m = q.get()) != null)
+        rcvd.add(m);
+      log.info(policy+": received "+rcvd.size()+", dropped "+q.getDropped()+", spilled "+q.getSpilled());
+      assertEquals(30, rcvd.size() + q.getDropped());
+      assertEquals(0, q.length());
+      if (policy == OverflowPolicy.DROP_NEWEST || policy == OverflowPolicy.BLOCK) assertEquals(10, q.getHighWaterMark());
+      else assertEquals(30, q.getHighWaterMark());
+      switch (policy) {
+        case DROP_OLDEST:
+          assertTrue(rcvd.size() < 10);
+          assertEquals(sent.get(29).getMessageID(), rcvd.get(rcvd.size()-1).getMessageID());
+          break;
+        case DROP_NEWEST:
+        case BLOCK:
+          assertEquals(10, rcvd.size());
+          assertEquals(sent.get(0).getMessageID(), rcvd.get(0).getMessageID());
+          break;
+        case SPILL:
+          assertEquals(30, rcvd.size());
+          assertEquals(20, q.getSpilled());
+          for (int i = 0; i < 30; i++)
+            assertEquals(sent.get(i).getMessageID(), rcvd.get(i).getMessageID());
+          break;
+      }
+    }
+    // shrinking the queue drops the excess as specified by the overflow policy
+    for (OverflowPolicy policy: OverflowPolicy.values()) {
+      MessageQueue q = new MessageQueue();
+      q.setOverflowPolicy(policy);
+      List<Message> sent = new ArrayList<Message>();
+      for (int i = 0; i < 30; i++) {
+        Message m = new Message();
+        sent.add(m);
+        q.add(m);
+      }
+      q.commit(new ArrayList<MessageFilter>());
+      q.setSize(10);
+      List<Message> rcvd = new ArrayList<Message>();
+      Message m;
+      while ((m = q.get()) != null)
+        rcvd.add(m);
+      assertEquals(30, rcvd.size() + q.getDropped());
+      switch (policy) {
+        case DROP_OLDEST:
+          assertEquals(sent.subList(21, 30), rcvd);
+          break;
+        case DROP_NEWEST:
+        case BLOCK:
+          assertEquals(sent.subList(0, 10), rcvd);
+          break;
+        case SPILL:
+          assertEquals(sent, rcvd);
+          break;
+      }
+    }
+    // repeated spills reuse one temporary file, which is deleted once drained
+    File tmpdir = new File(System.getProperty("java.io.tmpdir"));
+    FilenameFilter spills = (dir, name) -> name.startsWith("fjage-spill-");
+    int nspills = tmpdir.list(spills).length;
+    MessageQueue sq = new MessageQueue(10);
+    sq.setOverflowPolicy(OverflowPolicy.SPILL);
+    for (int j = 0; j < 3; j++) {
+      for (int i = 0; i < 30; i++)
+        sq.add(new Message());
+      sq.commit(new ArrayList<MessageFilter>());
+      assertEquals(nspills+1, tmpdir.list(spills).length);
+      int n = 0;
+      while (sq.get() != null)
+        n++;
+      assertEquals(30, n);
+      assertEquals(nspills, tmpdir.list(spills).length);
+    }
+    final MessageQueue bq = new MessageQueue(10);
+    bq.setOverflowPolicy(OverflowPolicy.BLOCK);
+    bq.setOverflowTimeout(5000);
+    Thread producer = new Thread(() -> {
+      for (int i = 0; i < 30; i++)
+        bq.add(new Message());
+    });
+    producer.start();
+    int n = 0;
+    long t0 = System.currentTimeMillis();
+    while (n < 30 && System.currentTimeMillis() - t0 < 5000) {
+      bq.commit(new ArrayList<MessageFilter>());
+      if (bq.get() != null) n++;
+      else Thread.yield();
+    }
+    assertEquals(30, n);
+    assertEquals(0, bq.getDropped());
+    Platform platform = new RealTimePlatform();
+    Container container = new Container(platform);
+    MailboxAgent server = new MailboxAgent();
+    MailboxClientAgent client = new MailboxClientAgent();
+    container.add("server", server);
+    container.add("client", client);
+    platform.start();
+    platform.delay(2000);
+    platform.shutdown();
+    assertNotNull(client.rsp);
+    assertEquals(20, client.rsp.get(MailboxParam.queueSize));
+    assertTrue(((Number)client.rsp.get(MailboxParam.droppedMessages)).longValue() > 0);
+    assertTrue(((Number)client.rsp.get(MailboxParam.queueHighWaterMark)).longValue() >= 19);
+  }
+
+  @Test
+  public void testSpillWakeup() {
+    log.info("testSpillWakeup");
+    Platform platform = new RealTimePlatform();
+    Container container = new Container(platform);
+    final int[] count = new int[2];
+    Agent agent = new Agent() {
+      @Override
+      public void init() {
+        setQueueSize(4);
+        setOverflowPolicy(OverflowPolicy.SPILL);
+        add(new MessageBehavior(m -> m.getClass() == Message.class, m -> count[0]++));
+        add(new MessageBehavior(TokenMessage.class, m -> count[1]++));
+      }
+    };
+    container.add("agent", agent);
+    platform.start();
+    platform.delay(DELAY);
+    // only the plain messages fit in the queue, so the token messages are
+    // spilled, and only read back as the plain messages are received
+    List<Message> msgs = new ArrayList<Message>();
+    for (int i = 0; i < 4; i++)
+      msgs.add(new Message(agent.getAgentID(), Performative.INFORM));
+    for (int i = 0; i < 6; i++)
+      msgs.add(new TokenMessage(agent.getAgentID(), i, 0));
+    container.send(msgs);
+    long t0 = System.currentTimeMillis();
+    while (count[1] < 6 && System.currentTimeMillis() - t0 < 2000)
+      platform.delay(100);
+    platform.shutdown();
+    assertEquals(4, count[0]);
+    assertEquals(6, count[1]);
+    assertEquals(6, agent.getSpilledMessages());
+  }
+
+  @Test
+  public void testPriority() {
+    log.info("testPriority");
+    List<MessageFilter> none = new ArrayList<MessageFilter>();
+    MessageQueue q = new MessageQueue();
+    for (int i = 0; i < 20; i++)
+      q.add(new Message(Performative.INFORM));
+    Message req = new Message(Performative.REQUEST);
+    q.add(req);
+    q.commit(none);
+    for (int i = 0; i < 20; i++)
+      assertEquals(Performative.INFORM, q.get().getPerformative());
+    assertSame(req, q.get());
+    q.setPriorityFromPerformative(true);
+    for (int i = 0; i < 20; i++)
+      q.add(new Message(Performative.INFORM));
+    q.add(req);
+    q.commit(none);
+    assertSame(req, q.get());
+    // responses are received first, even if informational
+    Message rsp = new Message(req, Performative.INFORM);
+    assertEquals(MessagePriority.HIGH, MessagePriority.of(rsp));
+    q.add(rsp);
+    q.commit(none);
+    assertSame(rsp, q.get());
+    q.clear();
+    // lower priority lanes are not starved, and each lane is FIFO
+    List<Message> low = new ArrayList<Message>();
+    for (int i = 0; i < 30; i++) {
+      Message m = new Message();
+      m.setPriority(i%2 == 0 ? MessagePriority.LOW : MessagePriority.HIGH);
+      if (i%2 == 0) low.add(m);
+      q.add(m);
+    }
+    q.commit(none);
+    List<Message> rcvd = new ArrayList<Message>();
+    Message m;
+    while ((m = q.get()) != null)
+      rcvd.add(m);
+    assertEquals(30, rcvd.size());
+    assertEquals(MessagePriority.HIGH, rcvd.get(0).getPriority());
+    assertTrue(rcvd.subList(0, 10).contains(low.get(0)));
+    List<Message> lowRcvd = new ArrayList<Message>(rcvd);
+    lowRcvd.retainAll(low);
+    assertEquals(low, lowRcvd);
+    assertEquals(0, q.length());
+    // filtered retrieval honors priority
+    Message n1 = new Message(Performative.INFORM);
+    Message h1 = new Message(Performative.INFORM);
+    h1.setPriority(MessagePriority.HIGH);
+    q.add(new Message(Performative.AGREE));
+    q.add(n1);
+    q.add(h1);
+    q.commit(none);
+    assertSame(h1, q.get(x -> x.getPerformative() == Performative.INFORM));
+    assertSame(n1, q.get(x -> x.getPerformative() == Performative.INFORM));
+    assertEquals(Performative.AGREE, q.get().getPerformative());
+    // overflow drops the lowest priority messages first
+    MessageQueue bq = new MessageQueue(10);
+    List<Message> urgent = new ArrayList<Message>();
+    for (int i = 0; i < 20; i++) {
+      m = new Message();
+      m.setPriority(MessagePriority.LOW);
+      bq.add(m);
+    }
+    for (int i = 0; i < 5; i++) {
+      m = new Message();
+      m.setPriority(MessagePriority.HIGH);
+      urgent.add(m);
+      bq.add(m);
+    }
+    bq.commit(none);
+    for (int i = 0; i < 5; i++)
+      assertSame(urgent.get(i), bq.get());
+    assertTrue(bq.getDropped() > 0);
+    // priority is a local hint, kept by autoclone but not serialized
+    Platform platform = new RealTimePlatform();
+    Container container = new Container(platform);
+    container.setAutoClone(true);
+    final List<Message> inbox = Collections.synchronizedList(new ArrayList<Message>());
+    Agent agent = new Agent() {
+      @Override
+      public void init() {
+        add(new MessageBehavior(Message.class, msg -> inbox.add(msg)));
+      }
+    };
+    container.add("agent", agent);
+    platform.start();
+    m = new Message(agent.getAgentID(), Performative.INFORM);
+    m.setPriority(MessagePriority.LOW);
+    container.send(m);
+    platform.delay(500);
+    platform.shutdown();
+    assertEquals(1, inbox.size());
+    Message r = inbox.get(0);
+    assertNotSame(m, r);
+    assertEquals(MessagePriority.LOW, r.getPriority());
+    Message c = container.clone(m);
+    assertNull(c.getPriority());
+  }
+
+  @Test
+  public void testExpiry() throws IOException {
+    log.info("testExpiry");
+    final long[] now = { 1000 };
+    MessageQueue q = new MessageQueue();
+    q.setClock(new TimestampProvider() {
+      @Override
+      public long currentTimeMillis() {
+        return now[0];
+      }
+      @Override
+      public long nanoTime() {
+        return now[0]*1000000;
+      }
+    });
+    Message m1 = new Message();
+    m1.setSentAt(1000);
+    m1.setTimeToLive(100L);
+    assertEquals(1100L, (long)m1.getExpiryTime());
+    assertFalse(m1.isExpired(1100));
+    assertTrue(m1.isExpired(1101));
+    Message m2 = new Message();
+    m2.setSentAt(1000);
+    assertNull(m2.getExpiryTime());
+    assertTrue(q.add(m1));
+    assertTrue(q.add(m2));
+    q.commit(new ArrayList<MessageFilter>());
+    now[0] = 1200;
+    assertFalse(q.add(m1));
+    assertSame(m2, q.get());
+    assertNull(q.get());
+    assertEquals(2, q.getExpired());
+    assertEquals(0, q.length());
+    // expired messages are skipped by filtered and reply retrieval
+    Message req = new Message(Performative.REQUEST);
+    q.await(req.getMessageID(), false);
+    Message rsp1 = new Message(req, Performative.AGREE);
+    rsp1.setSentAt(1200);
+    rsp1.setTimeToLive(10L);
+    Message rsp2 = new Message(req, Performative.INFORM);
+    q.add(rsp1);
+    q.add(rsp2);
+    Message m3 = new Message();
+    m3.setSentAt(1200);
+    m3.setTimeToLive(10L);
+    q.add(m3);
+    q.commit(new ArrayList<MessageFilter>());
+    now[0] = 1300;
+    assertSame(rsp2, q.get(new ReplyMessageFilter(req)));
+    assertNull(q.get(x -> true));
+    assertEquals(4, q.getExpired());
+    assertEquals(0, q.length());
+    // stale messages are dropped before delivery and before relay
+    Platform platform = new DiscreteEventSimulator();
+    Container container = new Container(platform);
+    final List<Message> inbox = Collections.synchronizedList(new ArrayList<Message>());
+    final Message stale = new Message(Performative.INFORM);
+    stale.setTimeToLive(500L);
+    final Message fresh = new Message(Performative.INFORM);
+    fresh.setTimeToLive(5000L);
+    Agent agent = new Agent() {
+      @Override
+      public void init() {
+        add(new OneShotBehavior(() -> {
+          for (Message m: new Message[] { stale, fresh, new Message(Performative.INFORM) }) {
+            m.setRecipient(getAgentID());
+            send(m);
+          }
+        }));
+        add(new WakerBehavior(1000, () -> {
+          Message m;
+          while ((m = receive()) != null)
+            inbox.add(m);
+          inbox.add(null);
+        }));
+      }
+    };
+    container.add("agent", agent);
+    platform.start();
+    while (!inbox.contains(null))
+      platform.delay(DELAY);
+    platform.shutdown();
+    inbox.remove(null);
+    assertEquals(2, inbox.size());
+    assertFalse(inbox.contains(stale));
+    assertEquals(1, agent.getExpiredMessages());
+    platform = new RealTimePlatform();
+    MasterContainer master = new MasterContainer(platform);
+    SlaveContainer slave = new SlaveContainer(platform, "localhost", master.getPort());
+    platform.start();
+    Message m = new Message(new AgentID("remote"), Performative.INFORM);
+    m.setSentAt(platform.currentTimeMillis()-10000);
+    m.setTimeToLive(1000L);
+    slave.send(m);
+    master.send(m);
+    platform.shutdown();
+    assertEquals(1, slave.getExpiredMessages());
+    assertEquals(1, master.getExpiredMessages());
+    // the lifetime of a generic message survives JSON without clashing with its keys
+    GenericMessage gm = new GenericMessage(new AgentID("remote"), Performative.INFORM);
+    gm.setSentAt(1000);
+    gm.setTimeToLive(500L);
+    gm.put("sentAt", "user value");
+    gm.put("ttl", 42);
+    org.arl.fjage.remote.JsonMessage j = new org.arl.fjage.remote.JsonMessage();
+    j.message = gm;
+    GenericMessage gm2 = (GenericMessage)org.arl.fjage.remote.JsonMessage.fromJson(j.toJson()).message;
+    assertEquals(1000L, (long)gm2.getSentAt());
+    assertEquals(500L, (long)gm2.getTimeToLive());
+    assertEquals("user value", gm2.get("sentAt"));
+    assertEquals(42, ((Number)gm2.get("ttl")).intValue());
+  }
+
+  @Test
+  public void testMetrics() {
+    log.info("testMetrics");
+    Platform platform = new RealTimePlatform();
+    Container container = new Container(platform);
+    MetricsAgent server = new MetricsAgent();
+    MetricsClientAgent client = new MetricsClientAgent();
+    container.add("server", server);
+    container.add("client", client);
+    platform.start();
+    long t0 = System.currentTimeMillis();
+    while (!client.done && System.currentTimeMillis() - t0 < 5000)
+      platform.delay(100);
+    platform.shutdown();
+    assertNotNull(client.rsp);
+    log.info("Metrics: "+client.rsp);
+    assertTrue(((Number)client.rsp.get(MetricsParam.messagesDelivered)).longValue() >= 101);
+    assertTrue(((Number)client.rsp.get(MetricsParam.messagesReceived)).longValue() >= 101);
+    assertTrue(((Number)client.rsp.get(MetricsParam.wakeups)).longValue() > 0);
+    assertTrue(((Number)client.rsp.get(MetricsParam.blockedTime)).longValue() >= 400);
+    assertTrue(server.counter.getActionCount() >= 100);
+  }
+
+  @Test
+  public void testDispatch() {
+    log.info("testDispatch");
+    Platform platform = new RealTimePlatform();
+    Container container = new Container(platform);
+    DispatchAgent server = new DispatchAgent();
+    container.add("server", server);
+    container.add("client", new Agent() {
+      @Override
+      public void init() {
+        add(new WakerBehavior(500) {
+          @Override
+          public void onWake() {
+            AgentID server = new AgentID("server");
+            for (int i = 0; i < 100; i++)
+              send(new Message(server));
+            send(new ParameterReq(server));
+          }
+        });
+      }
+    });
+    platform.start();
+    platform.delay(2000);
+    platform.shutdown();
+    assertEquals(100, server.messages);
+    assertEquals(1, server.requests);
+    for (Behavior b: server.others)
+      assertTrue(b.getActionCount() <= 3);
+  }
+
+  @Test
+  public void testTimers() {
+    log.info("testTimers");
+    Platform platform = new RealTimePlatform();
+    final int n = 10000;
+    final java.util.concurrent.atomic.AtomicInteger fired = new java.util.concurrent.atomic.AtomicInteger();
+    final java.util.concurrent.atomic.AtomicInteger early = new java.util.concurrent.atomic.AtomicInteger();
+    final java.util.concurrent.atomic.AtomicLong late = new java.util.concurrent.atomic.AtomicLong();
+    List<Cancellable> cancel = new ArrayList<Cancellable>();
+    for (int i = 0; i < n; i++) {
+      // every other timer is cancelled, every tenth is too far in the future to fire
+      long dt = i % 10 == 0 ? 100000 + rnd.nextInt(100000) : rnd.nextInt(2000);
+      if (i % 2 == 1) dt += 1000;
+      final long t = System.nanoTime() + dt*1000000;
+      Cancellable c = platform.scheduleCancellable(() -> {
+        long now = System.nanoTime();
+        if (now < t) early.incrementAndGet();
+        late.accumulateAndGet((now - t)/1000000, Math::max);
+        fired.incrementAndGet();
+      }, dt);
+      if (i % 2 == 1) cancel.add(c);
+    }
+    for (Cancellable c: cancel)
+      assertTrue(c.cancel());
+    platform.delay(3000);
+    log.info("Fired "+fired.get()+" timers, max lateness "+late.get()+" ms");
+    assertEquals(0, early.get());
+    assertEquals(n/2 - n/10, fired.get());
+    assertTrue(late.get() < 500);
+    for (Cancellable c: cancel)
+      assertFalse(c.cancel());
+  }
+
+  @Test
+  public void testPeriodic() {
+    log.info("testPeriodic");
+    Platform platform = new RealTimePlatform();
+    Container container = new Container(platform);
+    final PeriodicBehavior pb = new PeriodicBehavior(500, java.util.concurrent.TimeUnit.MICROSECONDS);
+    container.add("ticker", new Agent() {
+      @Override
+      public void init() {
+        add(pb);
+      }
+    });
+    platform.start();
+    platform.delay(2000);
+    pb.stop();
+    platform.shutdown();
+    log.info(String.format("Ticks: %d, skipped: %d, jitter: %.1f +/- %.1f us (max %.1f us)",
+      pb.getTickCount(), pb.getSkippedTicks(), pb.getMeanJitter()/1000, pb.getJitterStdDev()/1000, pb.getMaxJitter()/1000.0));
+    long n = pb.getTickCount() + pb.getSkippedTicks();
+    assertTrue(n >= 3900 && n <= 4100);
+    assertTrue(pb.getTickCount() > 2000);
+    for (MissedTickPolicy policy: MissedTickPolicy.values()) {
+      platform = new DiscreteEventSimulator();
+      container = new Container(platform);
+      final PeriodicBehavior spb = new PeriodicBehavior(250, java.util.concurrent.TimeUnit.MICROSECONDS);
+      spb.setMissedTickPolicy(policy);
+      container.add("ticker", new Agent() {
+        @Override
+        public void init() {
+          add(spb);
+          add(new WakerBehavior(1000) {
+            @Override
+            public void onWake() {
+              spb.stop();
+            }
+          });
+        }
+      });
+      platform.start();
+      while (platform.isRunning())
+        Thread.yield();
+      log.info(policy+": ticks "+spb.getTickCount()+", skipped "+spb.getSkippedTicks());
+      if (policy == MissedTickPolicy.CATCH_UP) {
+        assertEquals(0, spb.getSkippedTicks());
+        assertTrue(Math.abs(spb.getTickCount() - 4000) <= 4);
+      } else {
+        assertTrue(Math.abs(spb.getTickCount() - 1000) <= 1);
+        assertTrue(Math.abs(spb.getTickCount() + spb.getSkippedTicks() - 4000) <= 4);
+      }
+    }
+  }
+
+  @Test
+  public void testCheckpoint() throws IOException {
+    log.info("testCheckpoint");
+    // reference run without a checkpoint
+    AgentLocalRandom.setRootSeed(42);
+    DiscreteEventSimulator platform = new DiscreteEventSimulator();
+    CheckpointAgent ref = new CheckpointAgent();
+    new Container(platform).add("model", ref);
+    platform.start();
+    while (platform.isRunning())
+      Thread.yield();
+    // checkpoint half way through
+    AgentLocalRandom.setRootSeed(42);
+    platform = new DiscreteEventSimulator();
+    new Container(platform).add("model", new CheckpointAgent());
+    platform.start();
+    SimulationCheckpoint cp = platform.checkpoint(1000);
+    platform.shutdown();
+    log.info("Checkpoint: "+cp);
+    assertEquals(1000, cp.getTime());
+    File f = File.createTempFile("fjage-", ".ckpt");
+    f.deleteOnExit();
+    cp.save(f);
+    SimulationCheckpoint[] cps = new SimulationCheckpoint[] { cp, cp, SimulationCheckpoint.load(f) };
+    for (SimulationCheckpoint c: cps) {
+      platform = new DiscreteEventSimulator();
+      CheckpointAgent fork = new CheckpointAgent();
+      new Container(platform).add("model", fork);
+      platform.restore(c);
+      platform.start();
+      while (platform.isRunning())
+        Thread.yield();
+      log.info("Fork ended at "+platform.currentTimeMillis()+" with "+fork.draws.size()+" draws");
+      assertEquals(ref.draws, fork.draws);
+      assertEquals(3, fork.leftover);
+    }
+    f.delete();
+    // timers of behaviors are restored when checkpointed between their ticks
+    assertEquals(3, ref.leftover);
+    AgentLocalRandom.setRootSeed(42);
+    platform = new DiscreteEventSimulator();
+    new Container(platform).add("model", new CheckpointAgent());
+    platform.start();
+    cp = platform.checkpoint(1050);
+    platform.shutdown();
+    platform = new DiscreteEventSimulator();
+    CheckpointAgent fork = new CheckpointAgent();
+    new Container(platform).add("model", fork);
+    platform.restore(cp);
+    platform.start();
+    while (platform.isRunning())
+      Thread.yield();
+    assertEquals(ref.draws, fork.draws);
+    assertEquals(ref.times.subList(10, 20), fork.times);
+    assertEquals(1234, ref.woke);
+    assertEquals(ref.woke, fork.woke);
+    assertEquals(ref.leftover, fork.leftover);
+  }
+
+  @Test
+  public void testReplications() {
+    log.info("testReplications");
+    ReplicationRunner.Model<List<Integer>> model = (platform, i) -> {
+      CheckpointAgent agent = new CheckpointAgent();
+      new Container(platform).add("model", agent);
+      return () -> agent.draws;
+    };
+    ReplicationRunner runner = new ReplicationRunner(4);
+    runner.setSeed(42);
+    runner.setDuration(1550);
+    List<List<Integer>> results = runner.run(8, model);
+    assertEquals(8, results.size());
+    for (List<Integer> r: results) {
+      assertTrue(r.size() > 10);
+      assertTrue(r.size() < 20);
+    }
+    for (int i = 1; i < results.size(); i++)
+      assertNotEquals(results.get(0), results.get(i));
+    ReplicationRunner serial = new ReplicationRunner(1);
+    serial.setSeed(42);
+    serial.setDuration(1550);
+    assertEquals(results, serial.run(8, model));
+    serial.setSeed(7);
+    assertNotEquals(results, serial.run(8, model));
+  }
+
+  @Test
+  public void testProfiler() throws IOException, InterruptedException {
+    log.info("testProfiler");
+    File f = File.createTempFile("fjage-", ".json");
+    f.deleteOnExit();
+    DiscreteEventSimulator platform = new DiscreteEventSimulator();
+    SimulationProfiler profiler = new SimulationProfiler(f);
+    profiler.setSampleInterval(500);
+    assertEquals(0.0, profiler.getTimeRatio(), 0.0);
+    assertTrue(profiler.toJson().contains("\"timeRatio\": 0.0"));
+    platform.setProfiler(profiler);
+    Container container = new Container(platform);
+    final TickerBehavior ticker = new TickerBehavior(100) {
+      @Override
+      public void onTick() {
+        long t = System.nanoTime() + 100000;
+        while (System.nanoTime() < t)
+          Thread.yield();
+        if (getTickCount() >= 50) stop();
+      }
+    };
+    container.add("busy", new Agent() {
+      @Override
+      public void init() {
+        add(ticker);
+      }
+    });
+    container.add("lazy", new Agent());
+    platform.start();
+    platform.awaitTermination();
+    log.info("Profile: "+profiler);
+    assertTrue(profiler.getEventCount() >= 50);
+    assertTrue(profiler.getAgentTime("busy") >= 50*100000L);
+    assertEquals(0, profiler.getAgentTime("lazy"));
+    assertTrue(profiler.getBehaviorTime(ticker.getClass()) >= 50*100000L);
+    assertTrue(profiler.getTimeRatio() > 0);
+    String json = new String(java.nio.file.Files.readAllBytes(f.toPath()), "UTF-8");
+    com.google.gson.JsonObject report = com.google.gson.JsonParser.parseString(json).getAsJsonObject();
+    assertEquals(5000, report.get("simTime").getAsLong());
+    assertEquals(profiler.getEventCount(), report.get("events").getAsLong());
+    assertEquals("busy", report.getAsJsonArray("agents").get(0).getAsJsonObject().get("name").getAsString());
+    assertTrue(report.getAsJsonArray("samples").size() >= 10);
+    f.delete();
+  }
+
+  @Test
+  public void testRandom() {
+    log.info("testRandom");
+    AgentLocalRandom r1 = new AgentLocalRandom(42);
+    AgentLocalRandom r2 = new AgentLocalRandom(42);
+    for (int i = 0; i < 100; i++)
+      assertEquals(r1.nextLong(), r2.nextLong());
+    AgentLocalRandom s1 = r1.split();
+    AgentLocalRandom s2 = r2.split();
+    assertEquals(s1.nextDouble(), s2.nextDouble(), 0);
+    assertNotEquals(s1.nextLong(), r1.nextLong());
+    final int n = 100000;
+    double[] x = new double[n];
+    r1.nextGaussian(x, 1, 4);
+    assertEquals(1, mean(x), 0.05);
+    assertEquals(4, variance(x), 0.1);
+    r1.nextExp(x, 2);
+    assertEquals(0.5, mean(x), 0.01);
+    r1.nextDouble(x);
+    assertEquals(0.5, mean(x), 0.01);
+    r1.nextRayleigh(x, 2);
+    assertEquals(2*Math.sqrt(Math.PI/2), mean(x), 0.05);
+    r1.nextRician(x, 0, 2);
+    assertEquals(2*Math.sqrt(Math.PI/2), mean(x), 0.05);
+    // each agent draws from its own stream, repeatably
+    final List<List<Double>> draws = new ArrayList<List<Double>>();
+    for (int k = 0; k < 2; k++) {
+      Platform platform = new DiscreteEventSimulator();
+      platform.setRandomSeed(7);
+      Container container = new Container(platform);
+      final List<Double> d = new ArrayList<Double>();
+      for (int i = 0; i < 2; i++) {
+        container.add("agent"+i, new Agent() {
+          @Override
+          public void init() {
+            add(new OneShotBehavior() {
+              @Override
+              public void action() {
+                synchronized (d) {
+                  d.add(AgentLocalRandom.current().nextDouble());
+                }
+              }
+            });
+          }
+        });
+      }
+      platform.start();
+      while (platform.isRunning())
+        Thread.yield();
+      Collections.sort(d);
+      draws.add(d);
+    }
+    assertEquals(2, draws.get(0).size());
+    assertNotEquals(draws.get(0).get(0), draws.get(0).get(1));
+    assertEquals(draws.get(0), draws.get(1));
+    // threads without an agent draw from their own generators
+    final Set<Long> longs = ConcurrentHashMap.newKeySet();
+    final Set<AgentLocalRandom> gens = ConcurrentHashMap.newKeySet();
+    Thread[] threads = new Thread[8];
+    for (int i = 0; i < threads.length; i++) {
+      threads[i] = new Thread(() -> {
+        AgentLocalRandom r = AgentLocalRandom.current();
+        gens.add(r);
+        for (int j = 0; j < 10000; j++)
+          longs.add(AgentLocalRandom.current().nextLong());
+        assertSame(r, AgentLocalRandom.current());
+      });
+      threads[i].start();
+    }
+    for (Thread t: threads) {
+      try {
+        t.join();
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    assertEquals(threads.length, gens.size());
+    assertEquals(threads.length*10000, longs.size());
+  }
+
+  private static double mean(double[] x) {
+    double s = 0;
+    for (double v: x) s += v;
+    return s/x.length;
+  }
+
+  private static double variance(double[] x) {
+    double m = mean(x);
+    double s = 0;
+    for (double v: x) s += (v-m)*(v-m);
+    return s/x.length;
+  }
+
+  @Test
+  public void testInitBarrier() {
+    log.info("testInitBarrier");
+    Platform platform = new DiscreteEventSimulator();
+    final Container container = new Container(platform);
+    final boolean[] ready = new boolean[2];
+    container.add("parent", new Agent() {
+      @Override
+      public void init() {
+        container.add("child", new Agent() {
+          @Override
+          public void init() {
+            try {
+              Thread.sleep(50);
+            } catch (InterruptedException ex) {
+              Thread.currentThread().interrupt();
+            }
+            ready[1] = true;
+          }
+        });
+        ready[0] = true;
+      }
+    });
+    long t0 = System.nanoTime();
+    platform.start();
+    long dt = (System.nanoTime() - t0)/1000000;
+    boolean done = ready[0] && ready[1];
+    platform.shutdown();
+    log.info("Startup took "+dt+" ms");
+    assertTrue(done);
+    assertTrue(dt >= 50 && dt < 190);
+  }
+
+  @Test
+  public void testQuiescence() {
+    log.info("testQuiescence");
+    final DiscreteEventSimulator platform = new DiscreteEventSimulator();
+    final Container container = new Container(platform);
+    final int[] children = new int[1];
+    container.add("parent", new Agent() {
+      @Override
+      public void init() {
+        add(new TickerBehavior(100) {
+          @Override
+          public void onTick() {
+            container.add("child"+getTickCount(), new Agent() {
+              @Override
+              public void init() {
+                add(new WakerBehavior(150) {
+                  @Override
+                  public void onWake() {
+                    children[0]++;
+                    stop();
+                  }
+                });
+              }
+            });
+            if (getTickCount() >= 10) stop();
+          }
+        });
+      }
+    });
+    platform.start();
+    while (platform.isRunning())
+      Thread.yield();
+    log.info("Children: "+children[0]+", time: "+platform.currentTimeMillis());
+    assertEquals(10, children[0]);
+    assertEquals(1150, platform.currentTimeMillis());
+    assertTrue(platform.isIdle());
+    assertTrue(container.isIdle());
+  }
+
+  @Test
+  public void testSimEvents() {
+    log.info("testSimEvents");
+    final DiscreteEventSimulator platform = new DiscreteEventSimulator();
+    new Container(platform);
+    final Random rnd = new Random(7);
+    final int[] fired = new int[2];
+    final long[] last = new long[1];
+    final List<String> errors = new ArrayList<String>();
+    for (int i = 0; i < 20000; i++) {
+      final long t = rnd.nextInt(5000) + 1;
+      final boolean cancel = i%3 == 0;
+      Runnable task = new Runnable() {
+        int hops = 0;
+        long due = t;
+        @Override
+        public void run() {
+          long now = platform.currentTimeMillis();
+          if (cancel) errors.add("cancelled event fired at "+now);
+          if (now != due || now < last[0]) errors.add("event due at "+due+" fired at "+now);
+          last[0] = now;
+          fired[0]++;
+          if (++hops < 5) {
+            long dt = rnd.nextInt(100);
+            due = now + dt;
+            platform.schedule(new TimerTask() {
+              @Override
+              public void run() {
+                fired[1]++;
+              }
+            }, dt);
+            platform.scheduleCancellable(this, dt);
+          }
+        }
+      };
+      Cancellable c = platform.scheduleCancellable(task, t);
+      if (cancel) c.cancel();
+    }
+    platform.start();
+    while (platform.isRunning())
+      Thread.yield();
+    log.info("Fired "+fired[0]+"+"+fired[1]+" events in "+platform.currentTimeMillis()+" ms");
+    for (String s: errors.subList(0, Math.min(10, errors.size())))
+      log.warning(s);
+    assertTrue(errors.isEmpty());
+    int n = 20000 - (20000+2)/3;
+    assertEquals(5*n, fired[0]);
+    // handles cannot cancel an event once it has fired and been reused
+    final DiscreteEventSimulator platform2 = new DiscreteEventSimulator();
+    new Container(platform2);
+    final int[] count = new int[1];
+    final Cancellable[] first = new Cancellable[1];
+    first[0] = platform2.scheduleCancellable(() -> count[0]++, 10);
+    platform2.scheduleCancellable(() -> {
+      if (first[0].cancel()) errors.add("fired event cancelled");
+      for (int i = 0; i < 100; i++)
+        platform2.scheduleCancellable(() -> count[0]++, 10);
+      if (first[0].cancel()) errors.add("reused event cancelled");
+    }, 20);
+    assertFalse(platform2.scheduleCancellable(() -> count[0]++, 0).cancel());
+    platform2.start();
+    while (platform2.isRunning())
+      Thread.yield();
+    assertTrue(errors.isEmpty());
+    assertEquals(102, count[0]);
+  }
+
+  @Test
+  public void testParallelSim() {
+    log.info("testParallelSim");
+    List<String> trace1 = runRing(1);
+    List<String> trace4 = runRing(4);
+    log.info("Trace length: "+trace1.size());
+    assertEquals(TokenAgent.TOKENS*TokenAgent.HOPS, trace1.size());
+    assertEquals(trace1, trace4);
+  }
+
+  private List<String> runRing(int threads) {
+    ParallelDiscreteEventSimulator sim = new ParallelDiscreteEventSimulator(threads);
+    List<String> trace = new ArrayList<String>();
+    DiscreteEventPartition[] p = new DiscreteEventPartition[TokenAgent.NODES];
+    for (int i = 0; i < p.length; i++)
+      p[i] = sim.addPartition("p"+i);
+    for (int i = 0; i < p.length; i++) {
+      sim.link(p[i], p[(i+1)%p.length], 10+i);
+      Container c = new Container(p[i]);
+      c.add("node"+i, new TokenAgent(i, p[(i+1)%p.length], trace));
+    }
+    sim.start();
+    while (sim.isRunning())
+      Thread.yield();
+    log.info(threads+" thread(s): "+sim.getWindowCount()+" windows, "+sim.currentTimeMillis()+" ms");
+    java.util.Collections.sort(trace);
+    return trace;
+  }
+
+  @Test
+  public void testBatchSend() throws IOException {
+    log.info("testBatchSend");
+    Platform platform = new RealTimePlatform();
+    MasterContainer master = new MasterContainer(platform);
+    Container slave = new SlaveContainer(platform, "localhost", master.getPort());
+    SinkAgent sink1 = new SinkAgent();
+    SinkAgent sink2 = new SinkAgent();
+    master.add("sink1", sink1);
+    slave.add("sink2", sink2);
+    AgentID[] targets = new AgentID[] { new AgentID("sink1"), new AgentID("sink2"), new AgentID("batch", true) };
+    BatchSourceAgent src1 = new BatchSourceAgent(targets, 100);
+    BatchSourceAgent src2 = new BatchSourceAgent(targets, 100);
+    master.add("src1", src1);
+    slave.add("src2", src2);
+    platform.start();
+    for (int i = 0; i < 10 && (sink1.count < 400 || sink2.count < 400); i++)
+      platform.delay(DELAY);
+    platform.delay(DELAY);
+    platform.shutdown();
+    assertTrue(src1.ok);
+    assertTrue(src2.ok);
+    assertEquals(400, sink1.count);
+    assertEquals(400, sink2.count);
+  }
+
+  @Test
+  public void testBatchSendListener() throws IOException {
+    log.info("testBatchSendListener");
+    Platform platform = new RealTimePlatform();
+    MasterContainer master = new MasterContainer(platform);
+    Container slave = new SlaveContainer(platform, "localhost", master.getPort());
+    SinkAgent sink = new SinkAgent();
+    slave.add("sink", sink);
+    master.addListener(msg -> true);
+    platform.start();
+    platform.delay(DELAY);
+    // a listener consuming topic messages does not stop them being relayed
+    List<Message> batch = new ArrayList<Message>();
+    for (int i = 0; i < 10; i++)
+      batch.add(new Message(new AgentID("batch", true)));
+    assertTrue(master.send(batch));
+    for (int i = 0; i < 10 && sink.count < 10; i++)
+      platform.delay(DELAY);
+    platform.shutdown();
+    assertEquals(10, sink.count);
+  }
+
   @Test
   public void testRemote1() throws IOException {
     log.info("testRemote1");
@@ -361,6 +1490,233 @@ public class BasicTests {
     assertEquals(s1.x, s2.x);
   }
 
+  @Test
+  public void testFrozenMessage() {
+    log.info("testFrozenMessage");
+    Platform platform = new DiscreteEventSimulator();
+    Container container = new Container(platform);
+    container.setAutoClone(true);
+    final AgentID topic = new AgentID("frozen", true);
+    final List<Message> rx = new ArrayList<Message>();
+    for (int i = 0; i < 3; i++) {
+      container.add("sub"+i, new Agent() {
+        @Override
+        public void init() {
+          subscribe(topic);
+          add(new MessageBehavior() {
+            @Override
+            public void onReceive(Message msg) {
+              synchronized (rx) {
+                rx.add(msg);
+              }
+            }
+          });
+        }
+      });
+    }
+    final Message[] sent = new Message[2];
+    container.add("pub", new Agent() {
+      @Override
+      public void init() {
+        add(new WakerBehavior(100) {
+          @Override
+          public void onWake() {
+            RequestMessage m1 = new RequestMessage(topic);
+            m1.x = 1;
+            sent[0] = m1;
+            send(m1);
+            GenericMessage m2 = new GenericMessage(topic, Performative.INFORM);
+            m2.put("x", 2);
+            sent[1] = m2.freeze();
+            send(m2);
+          }
+        });
+      }
+    });
+    platform.start();
+    while (platform.isRunning())
+      Thread.yield();
+    assertEquals(6, rx.size());
+    for (Message m: rx) {
+      if (m instanceof RequestMessage) {
+        assertNotSame(sent[0], m);
+        assertFalse(m.isFrozen());
+        assertEquals(1, ((RequestMessage)m).x);
+      } else {
+        assertSame(sent[1], m);
+        assertEquals("pub", m.getSender().getName());
+        assertNotNull(m.getSentAt());
+      }
+    }
+    GenericMessage m = (GenericMessage)sent[1];
+    try {
+      m.put("x", 3);
+      fail("Frozen message was modified");
+    } catch (FjageException ex) {
+      // expected
+    }
+    try {
+      m.setRecipient(new AgentID("other"));
+      fail("Frozen message was modified");
+    } catch (FjageException ex) {
+      // expected
+    }
+    assertEquals(2, m.get("x", 0));
+    RequestMessage r = new RequestMessage(topic);
+    r.freeze();
+    RequestMessage copy = container.clone(r);
+    assertFalse(copy.isFrozen());
+    copy.setRecipient(new AgentID("other"));
+  }
+
+  @Test
+  public void testMessageIds() throws InterruptedException {
+    log.info("testMessageIds");
+    final java.util.Set<String> seen = java.util.concurrent.ConcurrentHashMap.newKeySet();
+    Thread[] t = new Thread[4];
+    for (int i = 0; i < t.length; i++) {
+      t[i] = new Thread(() -> {
+        for (int j = 0; j < 10000; j++)
+          seen.add(new Message().getMessageID());
+      });
+      t[i].start();
+    }
+    for (Thread t1: t)
+      t1.join();
+    assertEquals(40000, seen.size());
+    // string ids survive serialization, cloning and JSON, and replies refer to them
+    Container container = new Container(new DiscreteEventSimulator());
+    RequestMessage req = new RequestMessage(new AgentID("server"));
+    RequestMessage copy = container.clone(req);
+    assertEquals(req.getMessageID(), copy.getMessageID());
+    org.arl.fjage.remote.JsonMessage j = new org.arl.fjage.remote.JsonMessage();
+    j.message = new RequestMessage(new AgentID("server"));
+    Message m = org.arl.fjage.remote.JsonMessage.fromJson(j.toJson()).message;
+    assertEquals(j.message.getMessageID(), m.getMessageID());
+    assertEquals(req.getMessageID(), new Message(req).getInReplyTo());
+    // pluggable generator
+    Message.setIdGenerator(() -> "fixed");
+    try {
+      assertEquals("fixed", new Message().getMessageID());
+    } finally {
+      Message.setIdGenerator(null);
+    }
+    assertNotEquals("fixed", new Message().getMessageID());
+    CounterIdGenerator gen = new CounterIdGenerator("node1");
+    assertNotEquals(gen.nextId(), gen.nextId());
+    assertTrue(gen.nextId().startsWith("node1-"));
+  }
+
+  @Test
+  public void testMessagePool() {
+    log.info("testMessagePool");
+    final int n = 1000;
+    final MessagePool<PooledMessage> pool = new MessagePool<PooledMessage>(PooledMessage::new);
+    Platform platform = new DiscreteEventSimulator();
+    Container container = new Container(platform);
+    final AgentID topic = new AgentID("pooled", true);
+    final long[] sums = new long[4];
+    for (int i = 0; i < 3; i++) {
+      final int k = i;
+      container.add("sub"+i, new Agent() {
+        @Override
+        public void init() {
+          subscribe(topic);
+          add(new MessageBehavior(PooledMessage.class) {
+            @Override
+            public void onReceive(Message msg) {
+              sums[k] += ((PooledMessage)msg).value;
+              // the first subscriber forwards the message it received
+              if (k == 0) {
+                msg.setRecipient(new AgentID("sink"));
+                send(msg);
+              }
+            }
+          });
+        }
+      });
+    }
+    container.add("sink", new Agent() {
+      @Override
+      public void init() {
+        add(new MessageBehavior(PooledMessage.class) {
+          @Override
+          public void onReceive(Message msg) {
+            sums[3] += ((PooledMessage)msg).value;
+          }
+        });
+      }
+    });
+    container.add("pub", new Agent() {
+      @Override
+      public void init() {
+        add(new TickerBehavior(10) {
+          @Override
+          public void onTick() {
+            for (int i = 0; i < 10; i++) {
+              PooledMessage m = pool.obtain();
+              assertTrue(m.isPooled());
+              assertEquals(Performative.INFORM, m.getPerformative());
+              m.setRecipient(topic);
+              m.value = (int)(getTickCount()-1)*10 + i + 1;
+              send(m);
+            }
+            if (getTickCount() >= n/10) stop();
+          }
+        });
+      }
+    });
+    platform.start();
+    while (platform.isRunning())
+      Thread.yield();
+    log.info("Pool: "+pool);
+    long expected = (long)n*(n+1)/2;
+    for (long sum: sums)
+      assertEquals(expected, sum);
+    assertEquals(n, pool.getCreated()+pool.getReused());
+    assertTrue(pool.getCreated() < n/10);
+    // messages consumed by listeners are not recycled
+    PooledMessage m = pool.obtain();
+    assertTrue(m.isPooled());
+    platform = new DiscreteEventSimulator();
+    Container c2 = new Container(platform);
+    c2.addListener(msg -> true);
+    platform.start();
+    m.setRecipient(topic);
+    c2.send(m);
+    assertFalse(m.isPooled());
+    platform.shutdown();
+    // pooled messages dropped from a batch delivered to a full queue are released
+    MessagePool<PooledMessage> pool2 = new MessagePool<PooledMessage>(PooledMessage::new);
+    platform = new RealTimePlatform();
+    Container c3 = new Container(platform);
+    Agent idle = new Agent() {
+      @Override
+      public void init() {
+        setQueueSize(2);
+        setOverflowPolicy(OverflowPolicy.DROP_NEWEST);
+      }
+    };
+    c3.add("idle", idle);
+    platform.start();
+    List<Message> batch = new ArrayList<Message>();
+    for (int i = 0; i < 10; i++) {
+      PooledMessage pm = pool2.obtain();
+      pm.setRecipient(idle.getAgentID());
+      batch.add(pm);
+    }
+    assertTrue(c3.send(batch));
+    for (Message pm: batch)
+      pm.release();
+    platform.shutdown();
+    assertEquals(8, idle.getDroppedMessages());
+    assertEquals(8, pool2.size());
+    // unpooled messages are unaffected
+    Message u = new Message();
+    u.release();
+    assertFalse(u.isPooled());
+  }
+
   @Test
   public void testFastCloner() {
     log.info("testFastCloner");
@@ -372,6 +1728,18 @@ public class BasicTests {
     RequestMessage s2 = container.clone(s1);
     assertNotSame(s1, s2);
     assertEquals(s1.x, s2.x);
+    // clones of pooled messages are not pooled, even though the cloner copies transient fields
+    MessagePool<PooledMessage> pool = new MessagePool<PooledMessage>(PooledMessage::new);
+    PooledMessage p1 = pool.obtain();
+    p1.value = 7;
+    PooledMessage p2 = container.clone(p1);
+    assertEquals(7, p2.value);
+    assertTrue(p1.isPooled());
+    assertFalse(p2.isPooled());
+    p2.release();
+    assertEquals(0, pool.size());
+    p1.release();
+    assertEquals(1, pool.size());
   }
 
   @Test
@@ -587,6 +1955,16 @@ public class BasicTests {
     assertTrue(client1.count + client2.count + client3.count > 100);
   }
 
+  private static class TokenMessage extends Message {
+    private static final long serialVersionUID = 1L;
+    public int token, hop;
+    public TokenMessage(AgentID recipient, int token, int hop) {
+      super(recipient, Performative.INFORM);
+      this.token = token;
+      this.hop = hop;
+    }
+  }
+
   private static class RequestMessage extends Message {
     private static final long serialVersionUID = 1L;
     public int x;
@@ -610,6 +1988,15 @@ public class BasicTests {
     }
   }
 
+  private static class PooledMessage extends Message {
+    private static final long serialVersionUID = 1L;
+    public int value = 0;
+    @Override
+    protected void onRecycle() {
+      value = -1;
+    }
+  }
+
   public enum Params implements Parameter {
     x, y, s
   }
@@ -920,6 +2307,305 @@ public class BasicTests {
     }
   }
 
+  private class SourceAgent extends Agent {
+    private AgentID sink;
+    private int n;
+    public SourceAgent(AgentID sink, int n) {
+      this.sink = sink;
+      this.n = n;
+    }
+    @Override
+    public void init() {
+      add(new OneShotBehavior() {
+        @Override
+        public void action() {
+          for (int i = 0; i < n; i++)
+            agent.send(new Message(sink));
+        }
+      });
+    }
+  }
+
+  private class BatchSourceAgent extends Agent {
+    public volatile boolean ok = false;
+    private AgentID[] targets;
+    private int n;
+    public BatchSourceAgent(AgentID[] targets, int n) {
+      this.targets = targets;
+      this.n = n;
+    }
+    @Override
+    public void init() {
+      add(new WakerBehavior(500) {
+        @Override
+        public void onWake() {
+          List<Message> batch = new ArrayList<Message>();
+          for (int i = 0; i < n; i++)
+            for (AgentID aid: targets)
+              batch.add(new Message(aid));
+          ok = agent.send(batch);
+        }
+      });
+    }
+  }
+
+  private class SinkAgent extends Agent {
+    public volatile int count = 0;
+    @Override
+    public void init() {
+      setQueueSize(0);
+      subscribe(topic("batch"));
+      add(new MessageBehavior() {
+        @Override
+        public void onReceive(Message msg) {
+          count++;
+        }
+      });
+    }
+  }
+
+  public class MailboxAgent extends Agent {
+    @Override
+    public void init() {
+      setQueueSize(20);
+      add(new ParameterMessageBehavior(MailboxParam.class));
+    }
+  }
+
+  public class MetricsAgent extends Agent {
+    public MessageBehavior counter;
+    @Override
+    public void init() {
+      add(new ParameterMessageBehavior(MetricsParam.class));
+      counter = new MessageBehavior(Message.class) {
+        @Override
+        public void onReceive(Message msg) {
+          // do nothing
+        }
+      };
+      add(counter);
+    }
+  }
+
+  private class MetricsClientAgent extends Agent {
+    public volatile ParameterRsp rsp = null;
+    public volatile boolean done = false;
+    @Override
+    public void init() {
+      add(new WakerBehavior(500) {
+        @Override
+        public void onWake() {
+          AgentID server = new AgentID("server");
+          for (int i = 0; i < 100; i++)
+            send(new Message(server));
+          ParameterReq req = new ParameterReq(server);
+          req.get(MetricsParam.messagesDelivered);
+          req.get(MetricsParam.messagesReceived);
+          req.get(MetricsParam.blockedTime);
+          req.get(MetricsParam.wakeups);
+          rsp = (ParameterRsp)request(req, 3000);
+          done = true;
+        }
+      });
+    }
+  }
+
+  private static class CheckpointAgent extends Agent implements Checkpointable {
+    ArrayList<Integer> draws = new ArrayList<Integer>();
+    ArrayList<Long> times = new ArrayList<Long>();
+    long woke = 0;
+    int leftover = 0;
+    @Override
+    public void init() {
+      // a short queue, so that some of the leftover messages are spilled
+      setQueueSize(1);
+      setOverflowPolicy(OverflowPolicy.SPILL);
+      add(new TickerBehavior(100) {
+        @Override
+        public void onTick() {
+          draws.add(AgentLocalRandom.current().nextInt(1000));
+          times.add(currentTimeMillis());
+          if (draws.size() == 5) {
+            for (int i = 0; i < 3; i++)
+              send(new NuisanceMessage(getAgentID()));
+          }
+          if (draws.size() >= 20) {
+            while (receive(NuisanceMessage.class, NON_BLOCKING) != null)
+              leftover++;
+            stop();
+          }
+        }
+      });
+      add(new WakerBehavior(1234) {
+        @Override
+        public void onWake() {
+          woke = currentTimeMillis();
+        }
+      });
+    }
+    @Override
+    public java.io.Serializable checkpoint() {
+      return new ArrayList<Integer>(draws);
+    }
+    @Override
+    @SuppressWarnings("unchecked")
+    public void restore(java.io.Serializable state) {
+      draws = (ArrayList<Integer>)state;
+    }
+  }
+
+  private static class TokenAgent extends Agent {
+    static final int NODES = 6;
+    static final int TOKENS = 4;
+    static final int HOPS = 300;
+    private final int node;
+    private final DiscreteEventPartition next;
+    private final List<String> trace;
+    TokenAgent(int node, DiscreteEventPartition next, List<String> trace) {
+      this.node = node;
+      this.next = next;
+      this.trace = trace;
+    }
+    @Override
+    public void init() {
+      add(new MessageBehavior(TokenMessage.class) {
+        @Override
+        public void onReceive(Message msg) {
+          final TokenMessage t = (TokenMessage)msg;
+          synchronized (trace) {
+            trace.add(String.format("%08d %d %d %d", currentTimeMillis(), node, t.token, t.hop));
+          }
+          if (t.hop+1 >= HOPS) return;
+          // hold the token for a while before passing it on
+          add(new WakerBehavior((t.token*7+t.hop)%5) {
+            @Override
+            public void onWake() {
+              forward(t.token, t.hop+1);
+            }
+          });
+        }
+      });
+      if (node == 0) {
+        for (int i = 0; i < TOKENS; i++)
+          forward(i, 0);
+      }
+    }
+    private void forward(int token, int hop) {
+      DiscreteEventPartition p = (DiscreteEventPartition)getPlatform();
+      TokenMessage t = new TokenMessage(new AgentID("node"+(node+1)%NODES), token, hop);
+      t.setSender(getAgentID());
+      p.send(t, next, p.getLookahead(next)+token);
+    }
+  }
+
+  private class DispatchAgent extends Agent {
+    public volatile int messages = 0;
+    public volatile int requests = 0;
+    public List<Behavior> others = new ArrayList<Behavior>();
+    @Override
+    public void init() {
+      for (int i = 0; i < 10; i++) {
+        Behavior b = new MessageBehavior(ParameterReq.class) {
+          @Override
+          public void onReceive(Message msg) {
+            requests++;
+          }
+        };
+        others.add(b);
+        add(b);
+      }
+      add(new MessageBehavior() {
+        @Override
+        public void onReceive(Message msg) {
+          messages++;
+        }
+      });
+    }
+  }
+
+  private class MailboxClientAgent extends Agent {
+    public volatile ParameterRsp rsp = null;
+    @Override
+    public void init() {
+      add(new WakerBehavior(500) {
+        @Override
+        public void onWake() {
+          AgentID server = new AgentID("server");
+          for (int i = 0; i < 50; i++)
+            send(new Message(server));
+          ParameterReq req = new ParameterReq(server);
+          req.get(MailboxParam.queueSize);
+          req.get(MailboxParam.droppedMessages);
+          req.get(MailboxParam.queueHighWaterMark);
+          rsp = (ParameterRsp)request(req);
+        }
+      });
+    }
+  }
+
+  private class BacklogClientAgent extends Agent {
+    public volatile boolean done = false;
+    public int good = 0, backlog = 0;
+    @Override
+    public void init() {
+      add(new OneShotBehavior() {
+        @Override
+        public void action() {
+          for (int i = 0; i < 200; i++)
+            agent.send(new NuisanceMessage(getAgentID()));
+          AgentID server = agent.agentForService("server");
+          for (int i = 0; i < 100; i++) {
+            RequestMessage req = new RequestMessage(server);
+            req.x = i;
+            Message rsp = request(req);
+            if (rsp instanceof ResponseMessage && ((ResponseMessage)rsp).y == 2*i + 1) good++;
+          }
+          while (receive(NuisanceMessage.class) != null)
+            backlog++;
+          done = true;
+        }
+      });
+    }
+  }
+
+  private class SpawnerAgent extends Agent {
+    public volatile boolean done = false;
+    private int n;
+    public SpawnerAgent(int n) {
+      this.n = n;
+    }
+    @Override
+    public void init() {
+      add(new OneShotBehavior() {
+        @Override
+        public void action() {
+          for (int i = 0; i < n; i++)
+            getContainer().add("T"+i, new TransientAgent(i));
+          done = true;
+        }
+      });
+    }
+  }
+
+  private class TransientAgent extends Agent {
+    private int i;
+    public TransientAgent(int i) {
+      this.i = i;
+    }
+    @Override
+    public void init() {
+      subscribe(topic("t"+(i%10)));
+      subscribe(topic("all"));
+      register("svc"+(i%10));
+      add(new OneShotBehavior() {
+        @Override
+        public void action() {
+          agent.stop();
+        }
+      });
+    }
+  }
+
   private class ClientAgent2 extends Agent {
     public int nuisance = 0;
     @Override
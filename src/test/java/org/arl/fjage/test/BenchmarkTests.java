@@ -0,0 +1,823 @@
+/******************************************************************************
+
+Copyright (c) 2021, Mandar Chitre
+
+This file is part of fjage which is released under Simplified BSD License.
+See file LICENSE.txt or go to http://www.opensource.org/licenses/BSD-3-Clause
+for full license details.
+
+******************************************************************************/
+
+package org.arl.fjage.test;
+
+import org.arl.fjage.*;
+import org.arl.fjage.param.ParameterReq;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TimerTask;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Performance benchmarks. These are not run as part of regular testing, and
+ * are enabled by running tests with the "benchmark" property set:
+ * <pre>
+ * gradle test -Pbenchmark --tests '*BenchmarkTests'
+ * </pre>
+ */
+public class BenchmarkTests {
+
+  private static final int RING_AGENTS = 2000;
+  private static final int RING_TOKENS = 64;
+  private static final int RING_DURATION = 5000;
+  private static final int FANIN_PRODUCERS = 50;
+  private static final int FANIN_MESSAGES = 20000;
+  private static final int BACKLOG = 255;
+  private static final int BACKLOG_REQUESTS = 20000;
+  private static final int BURST_SIZE = 1000;
+  private static final int BURSTS = 500;
+  private static final int PENDING_TIMERS = 100000;
+  private static final int TIMER_OPS = 1000000;
+  private static final int SIM_EVENTS = 2000000;
+  private static final int SIM_PENDING = 100000;
+  private static final int SIM_AGENTS = 100;
+  private static final int SIM_TICKS = 2000;
+  private static final int STARTUP_PLATFORMS = 50;
+  private static final int STARTUP_AGENTS = 20;
+  private static final int PDES_PARTITIONS = 8;
+  private static final int PDES_TOKENS = 16;
+  private static final int PDES_HOPS = 500;
+  private static final int PDES_WORK = 20000;
+  private static final int RANDOM_SAMPLES = 10000000;
+  private static final int RANDOM_BLOCK = 1000;
+  private static final int FANOUT_SUBSCRIBERS = 20;
+  private static final int FANOUT_MESSAGES = 200;
+  private static final int FANOUT_PAYLOAD = 8192;
+  private static final int ID_MESSAGES = 2000000;
+  private static final int POOL_MESSAGES = 1000000;
+  private static final int PRIORITY_BACKLOG = 200;
+  private static final int PRIORITY_ROUNDS = 20;
+  private static final long PRIORITY_WORK = 50000;
+  private static final int EXPIRY_MESSAGES = 5000;
+  private static final long EXPIRY_TTL = 20;
+
+  private Logger log = Logger.getLogger(getClass().getName());
+
+  @Before
+  public void beforeTesting() {
+    assumeTrue(System.getProperty("benchmark") != null);
+    LogFormatter.install(null);
+    Logger.getLogger("org.arl.fjage").setLevel(Level.WARNING);
+  }
+
+  @Test
+  public void benchmarkExecutors() {
+    log.info("benchmarkExecutors");
+    runRing("thread-per-agent", new ThreadAgentExecutor());
+    runRing("pooled", new PooledAgentExecutor());
+  }
+
+  @Test
+  public void benchmarkFanIn() {
+    log.info("benchmarkFanIn");
+    Platform platform = new RealTimePlatform();
+    Container container = new Container(platform);
+    SinkAgent sink = new SinkAgent();
+    container.add("sink", sink);
+    ProducerAgent[] producers = new ProducerAgent[FANIN_PRODUCERS];
+    for (int i = 0; i < FANIN_PRODUCERS; i++) {
+      producers[i] = new ProducerAgent();
+      container.add("P"+i, producers[i]);
+    }
+    platform.start();
+    long t0 = System.nanoTime();
+    for (ProducerAgent p: producers)
+      p.go();
+    while (sink.count < FANIN_PRODUCERS*FANIN_MESSAGES)
+      platform.delay(10);
+    double secs = (System.nanoTime() - t0)/1e9;
+    platform.shutdown();
+    log.warning(String.format("fan-in: %d producers, %.0f msgs/s", FANIN_PRODUCERS, sink.count/secs));
+  }
+
+  @Test
+  public void benchmarkRequestBacklog() {
+    log.info("benchmarkRequestBacklog");
+    Platform platform = new RealTimePlatform();
+    Container container = new Container(platform);
+    container.add("echo", new EchoAgent());
+    RequesterAgent requester = new RequesterAgent(BACKLOG);
+    container.add("requester", requester);
+    platform.start();
+    while (requester.secs == 0)
+      platform.delay(100);
+    platform.shutdown();
+    log.warning(String.format("request with %d message backlog: %.0f requests/s", BACKLOG, BACKLOG_REQUESTS/requester.secs));
+  }
+
+  @Test
+  public void benchmarkReplyLookup() {
+    log.info("benchmarkReplyLookup");
+    for (boolean indexed: new boolean[] { false, true }) {
+      MessageQueue queue = new MessageQueue(BACKLOG+1);
+      List<MessageFilter> exclusions = new ArrayList<MessageFilter>();
+      AgentID aid = new AgentID("requester");
+      for (int i = 0; i < BACKLOG; i++)
+        queue.add(new Message(new Message(aid, Performative.REQUEST), Performative.INFORM));
+      queue.commit(exclusions);
+      long t0 = System.nanoTime();
+      for (int i = 0; i < 10*BACKLOG_REQUESTS; i++) {
+        Message req = new Message(aid, Performative.REQUEST);
+        MessageFilter filter = new ReplyMessageFilter(req);
+        if (indexed) queue.await(req.getMessageID(), false);
+        queue.add(new Message(req, Performative.AGREE));
+        queue.commit(exclusions);
+        if (queue.get(filter) == null) throw new RuntimeException("Reply not found");
+        if (indexed) queue.release(req.getMessageID());
+      }
+      double secs = (System.nanoTime() - t0)/1e9;
+      log.warning(String.format("reply lookup with %d message backlog (%s): %.0f lookups/s",
+        BACKLOG, indexed ? "indexed" : "scan", 10*BACKLOG_REQUESTS/secs));
+    }
+  }
+
+  @Test
+  public void benchmarkBatchSend() {
+    log.info("benchmarkBatchSend");
+    for (boolean batch: new boolean[] { false, true }) {
+      Platform platform = new RealTimePlatform();
+      Container container = new Container(platform);
+      SinkAgent sink = new SinkAgent();
+      container.add("sink", sink);
+      BurstAgent burster = new BurstAgent(batch);
+      container.add("burster", burster);
+      platform.start();
+      long t0 = System.nanoTime();
+      burster.go();
+      while (sink.count < BURST_SIZE*BURSTS)
+        platform.delay(10);
+      double secs = (System.nanoTime() - t0)/1e9;
+      platform.shutdown();
+      log.warning(String.format("bursts of %d messages (%s): %.0f msgs/s",
+        BURST_SIZE, batch ? "batch" : "individual", sink.count/secs));
+    }
+  }
+
+  @Test
+  public void benchmarkDispatch() {
+    log.info("benchmarkDispatch");
+    Platform platform = new RealTimePlatform();
+    Container container = new Container(platform);
+    container.add("echo", new DispatchAgent(30));
+    RequesterAgent requester = new RequesterAgent(0);
+    container.add("requester", requester);
+    platform.start();
+    while (requester.secs == 0)
+      platform.delay(100);
+    platform.shutdown();
+    log.warning(String.format("request to agent with %d message behaviors: %.0f requests/s", 30, BACKLOG_REQUESTS/requester.secs));
+  }
+
+  @Test
+  public void benchmarkTimers() throws InterruptedException {
+    log.info("benchmarkTimers");
+    Platform platform = new RealTimePlatform();
+    java.util.Timer timer = new java.util.Timer(true);
+    Random rnd = new Random();
+    for (int i = 0; i < PENDING_TIMERS; i++) {
+      long dt = 100000 + rnd.nextInt(100000);
+      platform.scheduleCancellable(() -> {}, dt);
+      timer.schedule(new TimerTask() {
+        @Override
+        public void run() { }
+      }, dt);
+    }
+    long t0 = System.nanoTime();
+    for (int i = 0; i < TIMER_OPS; i++)
+      platform.scheduleCancellable(() -> {}, 1000 + rnd.nextInt(1000)).cancel();
+    double wheelRate = TIMER_OPS/((System.nanoTime() - t0)/1e9);
+    t0 = System.nanoTime();
+    for (int i = 0; i < TIMER_OPS; i++) {
+      TimerTask t = new TimerTask() {
+        @Override
+        public void run() { }
+      };
+      timer.schedule(t, 1000 + rnd.nextInt(1000));
+      t.cancel();
+    }
+    double timerRate = TIMER_OPS/((System.nanoTime() - t0)/1e9);
+    timer.cancel();
+    log.warning(String.format("schedule+cancel with %d pending timers: %.0f ops/s (java.util.Timer: %.0f ops/s)",
+      PENDING_TIMERS, wheelRate, timerRate));
+    final CountDownLatch latch = new CountDownLatch(PENDING_TIMERS);
+    t0 = System.nanoTime();
+    for (int i = 0; i < PENDING_TIMERS; i++)
+      platform.scheduleCancellable(latch::countDown, rnd.nextInt(1000));
+    latch.await();
+    log.warning(String.format("%d timers expiring within 1 s: all fired after %.0f ms",
+      PENDING_TIMERS, (System.nanoTime() - t0)/1e6));
+  }
+
+  @Test
+  public void benchmarkPeriodic() {
+    log.info("benchmarkPeriodic");
+    Platform platform = new RealTimePlatform();
+    Container container = new Container(platform);
+    final PeriodicBehavior pb = new PeriodicBehavior(1, TimeUnit.MILLISECONDS);
+    final long[] drift = new long[2];
+    final TickerBehavior tb = new TickerBehavior(1) {
+      long t0 = 0;
+      @Override
+      public void onTick() {
+        long t = System.nanoTime();
+        if (t0 == 0) t0 = t - 1000000;
+        drift[0] = t - t0 - getTickCount()*1000000L;
+        drift[1] = Math.max(drift[1], drift[0]);
+      }
+    };
+    container.add("periodic", new Agent() {
+      @Override
+      public void init() {
+        add(pb);
+      }
+    });
+    container.add("ticker", new Agent() {
+      @Override
+      public void init() {
+        add(tb);
+      }
+    });
+    platform.start();
+    platform.delay(5000);
+    platform.shutdown();
+    log.warning(String.format("1 kHz PeriodicBehavior: %d ticks, %d skipped, jitter %.1f +/- %.1f us",
+      pb.getTickCount(), pb.getSkippedTicks(), pb.getMeanJitter()/1000, pb.getJitterStdDev()/1000));
+    log.warning(String.format("1 kHz TickerBehavior: %d ticks, final drift %.1f ms, max drift %.1f ms",
+      tb.getTickCount(), drift[0]/1e6, drift[1]/1e6));
+  }
+
+  @Test
+  public void benchmarkSimEvents() {
+    log.info("benchmarkSimEvents");
+    // hold model: a fixed number of pending events, each rescheduling itself when fired
+    final DiscreteEventSimulator sim = new DiscreteEventSimulator();
+    new Container(sim);
+    final Random rnd = new Random(1);
+    final long[] fired = new long[1];
+    TimerTask hold = new TimerTask() {
+      @Override
+      public void run() {
+        if (++fired[0] < SIM_EVENTS) sim.schedule(this, 1 + rnd.nextInt(2*SIM_PENDING));
+      }
+    };
+    for (int i = 0; i < SIM_PENDING; i++)
+      sim.schedule(hold, 1 + rnd.nextInt(2*SIM_PENDING));
+    long t0 = System.nanoTime();
+    sim.start();
+    while (sim.isRunning())
+      Thread.yield();
+    double secs = (System.nanoTime() - t0)/1e9;
+    log.warning(String.format("DES hold model with %d pending events: %.0f events/s", SIM_PENDING, fired[0]/secs));
+    // agents ticking, each tick a timer event and an agent wake-up
+    final DiscreteEventSimulator sim2 = new DiscreteEventSimulator();
+    Container container = new Container(sim2);
+    final TickerBehavior[] tickers = new TickerBehavior[SIM_AGENTS];
+    for (int i = 0; i < SIM_AGENTS; i++) {
+      final int n = i;
+      tickers[i] = new TickerBehavior(1 + i%10) {
+        @Override
+        public void onTick() {
+          if (getTickCount() >= SIM_TICKS) stop();
+        }
+      };
+      container.add("ticker"+i, new Agent() {
+        @Override
+        public void init() {
+          add(tickers[n]);
+        }
+      });
+    }
+    t0 = System.nanoTime();
+    sim2.start();
+    while (sim2.isRunning())
+      Thread.yield();
+    secs = (System.nanoTime() - t0)/1e9;
+    log.warning(String.format("DES with %d ticking agents: %.0f events/s", SIM_AGENTS, SIM_AGENTS*SIM_TICKS/secs));
+  }
+
+  @Test
+  public void benchmarkStartup() {
+    log.info("benchmarkStartup");
+    long total = 0;
+    for (int i = 0; i < STARTUP_PLATFORMS; i++) {
+      Platform platform = new DiscreteEventSimulator();
+      Container container = new Container(platform);
+      for (int j = 0; j < STARTUP_AGENTS; j++)
+        container.add("agent"+j, new Agent());
+      long t0 = System.nanoTime();
+      platform.start();
+      total += System.nanoTime() - t0;
+      platform.shutdown();
+    }
+    log.warning(String.format("Platform startup with %d agents: %.1f ms", STARTUP_AGENTS, total/1e6/STARTUP_PLATFORMS));
+  }
+
+  @Test
+  public void benchmarkRandom() {
+    log.info("benchmarkRandom");
+    final double[] sum = new double[1];
+    final double[] block = new double[RANDOM_BLOCK];
+    Platform platform = new DiscreteEventSimulator();
+    Container container = new Container(platform);
+    container.add("noise", new Agent() {
+      @Override
+      public void init() {
+        add(new OneShotBehavior() {
+          @Override
+          public void action() {
+            Random shared = new Random(1);
+            long t0 = System.nanoTime();
+            for (int i = 0; i < RANDOM_SAMPLES; i++)
+              sum[0] += shared.nextGaussian();
+            long t1 = System.nanoTime();
+            for (int i = 0; i < RANDOM_SAMPLES; i++)
+              sum[0] += AgentLocalRandom.current().nextGaussian();
+            long t2 = System.nanoTime();
+            AgentLocalRandom rng = AgentLocalRandom.current();
+            for (int i = 0; i < RANDOM_SAMPLES; i += RANDOM_BLOCK) {
+              rng.nextGaussian(block);
+              sum[0] += block[0];
+            }
+            long t3 = System.nanoTime();
+            log.warning(String.format("Gaussian samples/s: java.util.Random %.1fM, current() %.1fM, bulk %.1fM",
+              RANDOM_SAMPLES/((t1-t0)/1e3), RANDOM_SAMPLES/((t2-t1)/1e3), RANDOM_SAMPLES/((t3-t2)/1e3)));
+          }
+        });
+      }
+    });
+    platform.start();
+    while (platform.isRunning())
+      Thread.yield();
+  }
+
+  @Test
+  public void benchmarkFrozenFanOut() {
+    log.info("benchmarkFrozenFanOut");
+    long cloned = runFanOut(false);
+    long frozen = runFanOut(true);
+    log.warning(String.format("Autoclone fan-out to %d subscribers: %.0f msgs/s cloned, %.0f msgs/s frozen",
+      FANOUT_SUBSCRIBERS, FANOUT_MESSAGES/(cloned/1e9), FANOUT_MESSAGES/(frozen/1e9)));
+  }
+
+  @Test
+  public void benchmarkMessageIds() {
+    log.info("benchmarkMessageIds");
+    long n = 0;
+    long t0 = System.nanoTime();
+    for (int i = 0; i < ID_MESSAGES; i++)
+      n += java.util.UUID.randomUUID().toString().length();
+    long t1 = System.nanoTime();
+    for (int i = 0; i < ID_MESSAGES; i++)
+      n += new Message().hashCode();
+    long t2 = System.nanoTime();
+    for (int i = 0; i < ID_MESSAGES; i++)
+      n += new Message().getMessageID().length();
+    long t3 = System.nanoTime();
+    log.warning(String.format("Message ids/s: UUID %.1fM, counter %.1fM (%.1fM with string form) [%d]",
+      ID_MESSAGES/((t1-t0)/1e3), ID_MESSAGES/((t2-t1)/1e3), ID_MESSAGES/((t3-t2)/1e3), n%10));
+  }
+
+  @Test
+  public void benchmarkMessagePool() {
+    log.info("benchmarkMessagePool");
+    runTelemetry(null);
+    runTelemetry(new MessagePool<TelemetryMessage>(TelemetryMessage::new));
+  }
+
+  @Test
+  public void benchmarkPriority() {
+    log.info("benchmarkPriority");
+    double fifo = runPriority(false);
+    double lanes = runPriority(true);
+    log.warning(String.format("Control request latency behind %d telemetry messages: %.2f ms FIFO, %.2f ms with priority",
+      PRIORITY_BACKLOG, fifo, lanes));
+  }
+
+  @Test
+  public void benchmarkExpiry() {
+    log.info("benchmarkExpiry");
+    runExpiry(null);
+    runExpiry(EXPIRY_TTL);
+  }
+
+  @Test
+  public void benchmarkParallelSim() {
+    log.info("benchmarkParallelSim");
+    long t1 = runParallelSim(1);
+    long tn = runParallelSim(PDES_PARTITIONS);
+    log.warning(String.format("Speedup with %d threads on %d processors: %.2fx",
+      PDES_PARTITIONS, Runtime.getRuntime().availableProcessors(), t1/(double)tn));
+  }
+
+  /////// Helpers
+
+  private long runParallelSim(int threads) {
+    ParallelDiscreteEventSimulator sim = new ParallelDiscreteEventSimulator(threads);
+    DiscreteEventPartition[] p = new DiscreteEventPartition[PDES_PARTITIONS];
+    for (int i = 0; i < p.length; i++)
+      p[i] = sim.addPartition("p"+i);
+    for (int i = 0; i < p.length; i++) {
+      sim.link(p[i], p[(i+1)%p.length], 100);
+      Container c = new Container(p[i]);
+      c.add("node"+i, new HopAgent(i, p[(i+1)%p.length]));
+    }
+    long t0 = System.nanoTime();
+    sim.start();
+    while (sim.isRunning())
+      Thread.yield();
+    long dt = System.nanoTime() - t0;
+    log.warning(String.format("Parallel DES with %d thread(s): %d windows, %d ms simulated in %d ms",
+      threads, sim.getWindowCount(), sim.currentTimeMillis(), dt/1000000));
+    return dt;
+  }
+
+  private void runRing(String name, AgentExecutor executor) {
+    long mem0 = usedMemory();
+    int threads0 = ManagementFactory.getThreadMXBean().getThreadCount();
+    Platform platform = new RealTimePlatform();
+    Container container = new Container(platform);
+    container.setExecutor(executor);
+    RingAgent[] agents = new RingAgent[RING_AGENTS];
+    for (int i = 0; i < RING_AGENTS; i++) {
+      agents[i] = new RingAgent("R"+((i+1)%RING_AGENTS));
+      container.add("R"+i, agents[i]);
+    }
+    platform.start();
+    platform.delay(500);
+    long mem = usedMemory() - mem0;
+    int threads = ManagementFactory.getThreadMXBean().getThreadCount() - threads0;
+    for (int i = 0; i < RING_TOKENS; i++)
+      agents[0].send(new Message(new AgentID("R"+(i*RING_AGENTS/RING_TOKENS))));
+    long t0 = System.nanoTime();
+    platform.delay(RING_DURATION);
+    long hops = 0;
+    for (RingAgent a: agents)
+      hops += a.hops;
+    double secs = (System.nanoTime() - t0)/1e9;
+    platform.shutdown();
+    while (platform.isRunning())
+      platform.delay(100);
+    // each thread reserves a stack (1 MB by default on 64-bit JVMs) in addition to heap
+    double perAgent = (mem + threads*1048576.0)/RING_AGENTS;
+    log.warning(String.format("%s: %d agents, %d threads, %d bytes heap/agent, ~%.0f agents/GB, %.0f msgs/s",
+      name, RING_AGENTS, threads, mem/RING_AGENTS, 1073741824.0/perAgent, hops/secs));
+  }
+
+  private double runPriority(boolean derive) {
+    Platform platform = new RealTimePlatform();
+    Container container = new Container(platform);
+    ControlAgent agent = new ControlAgent();
+    container.add("control", agent);
+    agent.setQueueSize(0);
+    agent.setPriorityFromPerformative(derive);
+    platform.start();
+    long total = 0;
+    for (int r = 0; r < PRIORITY_ROUNDS; r++) {
+      for (int i = 0; i < PRIORITY_BACKLOG; i++)
+        container.send(new Message(agent.getAgentID(), Performative.INFORM));
+      agent.served = 0;
+      long t0 = System.nanoTime();
+      container.send(new Message(agent.getAgentID(), Performative.REQUEST));
+      while (agent.served == 0)
+        Thread.yield();
+      total += agent.served - t0;
+      while (agent.getQueueLength() > 0)
+        Thread.yield();
+    }
+    platform.shutdown();
+    return total/1e6/PRIORITY_ROUNDS;
+  }
+
+  private void runExpiry(Long ttl) {
+    Platform platform = new RealTimePlatform();
+    Container container = new Container(platform);
+    ControlAgent agent = new ControlAgent();
+    container.add("control", agent);
+    agent.setQueueSize(0);
+    platform.start();
+    long t0 = System.nanoTime();
+    for (int i = 0; i < EXPIRY_MESSAGES; i++) {
+      Message m = new Message(agent.getAgentID(), Performative.INFORM);
+      m.setTimeToLive(ttl);
+      container.send(m);
+    }
+    while (agent.getQueueLength() > 0)
+      Thread.yield();
+    long dt = System.nanoTime() - t0;
+    log.warning(String.format("Backlog of %d messages (%s) cleared in %d ms: %d processed, %d expired",
+      EXPIRY_MESSAGES, ttl == null ? "no expiry" : "ttl "+ttl+" ms", dt/1000000, agent.getMessagesReceived(), agent.getExpiredMessages()));
+    platform.shutdown();
+  }
+
+  private long runFanOut(final boolean freeze) {
+    Platform platform = new RealTimePlatform();
+    Container container = new Container(platform);
+    container.setAutoClone(true);
+    final AgentID topic = new AgentID("fanout", true);
+    final SinkAgent[] sinks = new SinkAgent[FANOUT_SUBSCRIBERS];
+    for (int i = 0; i < sinks.length; i++) {
+      sinks[i] = new SinkAgent() {
+        @Override
+        public void init() {
+          super.init();
+          subscribe(topic);
+        }
+      };
+      container.add("sink"+i, sinks[i]);
+    }
+    platform.start();
+    long t0 = System.nanoTime();
+    container.add("pub", new Agent() {
+      @Override
+      public void init() {
+        add(new OneShotBehavior() {
+          @Override
+          public void action() {
+            for (int i = 0; i < FANOUT_MESSAGES; i++) {
+              PayloadMessage m = new PayloadMessage(topic);
+              if (freeze) m.freeze();
+              send(m);
+            }
+          }
+        });
+      }
+    });
+    for (SinkAgent sink: sinks)
+      while (sink.count < FANOUT_MESSAGES)
+        Thread.yield();
+    long dt = System.nanoTime() - t0;
+    platform.shutdown();
+    return dt;
+  }
+
+  private void runTelemetry(final MessagePool<TelemetryMessage> pool) {
+    Platform platform = new RealTimePlatform();
+    Container container = new Container(platform);
+    SinkAgent sink = new SinkAgent();
+    container.add("sink", sink);
+    platform.start();
+    long gc0 = gcCount();
+    long a0 = allocatedBytes();
+    long t0 = System.nanoTime();
+    container.add("sensor", new Agent() {
+      @Override
+      public void init() {
+        add(new OneShotBehavior() {
+          @Override
+          public void action() {
+            AgentID dest = new AgentID("sink");
+            for (int i = 0; i < POOL_MESSAGES; i++) {
+              TelemetryMessage m = pool == null ? new TelemetryMessage() : pool.obtain();
+              m.setRecipient(dest);
+              m.value = i;
+              send(m);
+              if (i % 1000 == 0) {
+                while (sink.count < i - 500)
+                  Thread.yield();
+              }
+            }
+          }
+        });
+      }
+    });
+    while (sink.count < POOL_MESSAGES)
+      Thread.yield();
+    long dt = System.nanoTime() - t0;
+    long bytes = allocatedBytes() - a0;
+    long gcs = gcCount() - gc0;
+    platform.shutdown();
+    log.warning(String.format("Telemetry %s: %.0f msgs/s, %d bytes allocated/msg, %d GCs",
+      pool == null ? "unpooled" : "pooled", POOL_MESSAGES/(dt/1e9), bytes/POOL_MESSAGES, gcs)
+      + (pool == null ? "" : " "+pool));
+  }
+
+  private long allocatedBytes() {
+    com.sun.management.ThreadMXBean mx = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+    long total = 0;
+    for (long b: mx.getThreadAllocatedBytes(mx.getAllThreadIds()))
+      if (b > 0) total += b;
+    return total;
+  }
+
+  private long gcCount() {
+    long n = 0;
+    for (java.lang.management.GarbageCollectorMXBean gc: ManagementFactory.getGarbageCollectorMXBeans())
+      n += gc.getCollectionCount();
+    return n;
+  }
+
+  private long usedMemory() {
+    Runtime rt = Runtime.getRuntime();
+    for (int i = 0; i < 3; i++)
+      System.gc();
+    return rt.totalMemory() - rt.freeMemory();
+  }
+
+  private static class RingAgent extends Agent {
+    private String next;
+    public volatile long hops = 0;
+    public RingAgent(String next) {
+      this.next = next;
+    }
+    @Override
+    public void init() {
+      add(new MessageBehavior() {
+        @Override
+        public void onReceive(Message msg) {
+          hops++;
+          send(new Message(new AgentID(next)));
+        }
+      });
+    }
+  }
+
+  private static class ProducerAgent extends Agent {
+    public void go() {
+      add(new OneShotBehavior() {
+        @Override
+        public void action() {
+          AgentID sink = new AgentID("sink");
+          for (int i = 0; i < FANIN_MESSAGES; i++)
+            send(new Message(sink));
+        }
+      });
+    }
+  }
+
+  private static class SinkAgent extends Agent {
+    public volatile long count = 0;
+    @Override
+    public void init() {
+      setQueueSize(0);
+      add(new MessageBehavior() {
+        @Override
+        public void onReceive(Message msg) {
+          count++;
+        }
+      });
+    }
+  }
+
+  private static class DispatchAgent extends Agent {
+    private int n;
+    public DispatchAgent(int n) {
+      this.n = n;
+    }
+    @Override
+    public void init() {
+      setQueueSize(0);
+      for (int i = 1; i < n; i++)
+        add(new MessageBehavior(ParameterReq.class) {
+          @Override
+          public void onReceive(Message msg) {
+            // do nothing
+          }
+        });
+      add(new MessageBehavior(Message.class) {
+        @Override
+        public void onReceive(Message msg) {
+          send(new Message(msg, Performative.AGREE));
+        }
+      });
+    }
+  }
+
+  private static class EchoAgent extends Agent {
+    @Override
+    public void init() {
+      add(new MessageBehavior() {
+        @Override
+        public void onReceive(Message msg) {
+          send(new Message(msg, Performative.AGREE));
+        }
+      });
+    }
+  }
+
+  private static class RequesterAgent extends Agent {
+    public volatile double secs = 0;
+    private int backlog;
+    public RequesterAgent(int backlog) {
+      this.backlog = backlog;
+    }
+    @Override
+    public void init() {
+      add(new OneShotBehavior() {
+        @Override
+        public void action() {
+          // leave unprocessed notifications in the queue
+          for (int i = 0; i < backlog; i++)
+            send(new Message(getAgentID(), Performative.INFORM));
+          AgentID echo = new AgentID("echo");
+          long t0 = System.nanoTime();
+          for (int i = 0; i < BACKLOG_REQUESTS; i++) {
+            if (request(new Message(echo, Performative.REQUEST)) == null)
+              log.warning("Request timed out");
+          }
+          secs = (System.nanoTime() - t0)/1e9;
+        }
+      });
+    }
+  }
+
+  private static class HopAgent extends Agent {
+    private final int node;
+    private final DiscreteEventPartition next;
+    HopAgent(int node, DiscreteEventPartition next) {
+      this.node = node;
+      this.next = next;
+    }
+    @Override
+    public void init() {
+      add(new MessageBehavior() {
+        @Override
+        public void onReceive(Message msg) {
+          int hop = Integer.parseInt(msg.getInReplyTo());
+          // stand-in for the computation done by a detailed model per event
+          double x = 0;
+          for (int i = 0; i < PDES_WORK; i++)
+            x += Math.sqrt(i+hop);
+          if (hop < PDES_HOPS && x > 0) forward(hop+1);
+        }
+      });
+      for (int i = 0; i < PDES_TOKENS; i++)
+        forward(0);
+    }
+    private void forward(int hop) {
+      Message msg = new Message(new AgentID("node"+(node+1)%PDES_PARTITIONS));
+      msg.setInReplyTo(Integer.toString(hop));
+      DiscreteEventPartition p = (DiscreteEventPartition)getPlatform();
+      p.send(msg, next, 100+hop%7);
+    }
+  }
+
+  private static class ControlAgent extends Agent {
+    volatile long served = 0;
+    @Override
+    public void init() {
+      add(new MessageBehavior(Message.class, msg -> {
+        if (msg.getPerformative() == Performative.REQUEST) served = System.nanoTime();
+        else {
+          long t = System.nanoTime() + PRIORITY_WORK;
+          while (System.nanoTime() < t)
+            ;
+        }
+      }));
+    }
+  }
+
+  private static class PayloadMessage extends Message {
+    private static final long serialVersionUID = 1L;
+    public final double[] payload = new double[FANOUT_PAYLOAD];
+    public PayloadMessage(AgentID recipient) {
+      super(recipient);
+    }
+  }
+
+  private static class TelemetryMessage extends Message {
+    private static final long serialVersionUID = 1L;
+    public double value;
+  }
+
+  private static class BurstAgent extends Agent {
+    private boolean batch;
+    public BurstAgent(boolean batch) {
+      this.batch = batch;
+    }
+    public void go() {
+      add(new OneShotBehavior() {
+        @Override
+        public void action() {
+          AgentID sink = new AgentID("sink");
+          for (int i = 0; i < BURSTS; i++) {
+            List<Message> burst = new ArrayList<Message>(BURST_SIZE);
+            for (int j = 0; j < BURST_SIZE; j++)
+              burst.add(new Message(sink));
+            if (batch) send(burst);
+            else for (Message m: burst) send(m);
+          }
+        }
+      });
+    }
+  }
+
+}